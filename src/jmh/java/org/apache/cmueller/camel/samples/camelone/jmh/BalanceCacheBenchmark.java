@@ -0,0 +1,130 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.cache.BalanceCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Balance lookups of 8 reader threads while one thread transfers between random accounts of 100, as in production,
+ * where the lookups outnumber the transfers:
+ * <ul>
+ * <li>{@code uncached}: each lookup runs a transaction and a query, as {@code DatabaseUtil.queryForLong}</li>
+ * <li>{@code cached}: the lookups go through the {@link BalanceCache}, which the transfers invalidate after their
+ * commit</li>
+ * </ul>
+ * The hit rate and the staleness of the cached run are printed in the teardown.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 2, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BalanceCacheBenchmark {
+
+    private static final int ACCOUNTS = 100;
+    private static final String SELECT = "SELECT balance FROM account WHERE name = ?";
+    private static final String DEBIT = "UPDATE account SET balance = balance - 1 WHERE name = ?";
+    private static final String CREDIT = "UPDATE account SET balance = balance + 1 WHERE name = ?";
+
+    private ClassPathXmlApplicationContext applicationContext;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private BalanceCache balanceCache;
+
+    @Setup
+    public void setUp() throws Exception {
+        applicationContext = new ClassPathXmlApplicationContext("META-INF/spring/JdbcBalanceCacheTransactionSampleTest-context.xml");
+        jdbc = new JdbcTemplate(applicationContext.getBean("dataSource", DataSource.class));
+        transactionTemplate = new TransactionTemplate(applicationContext.getBean("transactionManager", PlatformTransactionManager.class));
+        balanceCache = applicationContext.getBean("balanceCache", BalanceCache.class);
+
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+        DatabaseUtil.createAccounts(transactionTemplate, jdbc, ACCOUNTS, 1000000);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        System.out.println(String.format("hit rate %.4f, staleness mean %.1fus p99 %.1fus",
+            balanceCache.getHitRate(), balanceCache.getStalenessMeanMicros(), balanceCache.getStalenessP99Micros()));
+
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+        applicationContext.close();
+    }
+
+    @Benchmark
+    @Group("uncached")
+    @GroupThreads(8)
+    public long uncachedLookup() {
+        final String account = randomAccount();
+        return transactionTemplate.execute(new TransactionCallback<Long>() {
+            public Long doInTransaction(TransactionStatus status) {
+                return jdbc.queryForObject(SELECT, Long.class, account);
+            }
+        });
+    }
+
+    @Benchmark
+    @Group("uncached")
+    @GroupThreads(1)
+    public void uncachedTransfer() {
+        transfer(false);
+    }
+
+    @Benchmark
+    @Group("cached")
+    @GroupThreads(8)
+    public long cachedLookup() {
+        return balanceCache.getBalance(randomAccount());
+    }
+
+    @Benchmark
+    @Group("cached")
+    @GroupThreads(1)
+    public void cachedTransfer() {
+        transfer(true);
+    }
+
+    private void transfer(final boolean invalidate) {
+        final String debit = randomAccount();
+        final String credit = randomAccount();
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                jdbc.update(DEBIT, debit);
+                jdbc.update(CREDIT, credit);
+                if (invalidate) {
+                    balanceCache.registerInvalidation(debit, credit);
+                }
+            }
+        });
+    }
+
+    private static String randomAccount() {
+        return DatabaseUtil.accountName(ThreadLocalRandom.current().nextInt(ACCOUNTS));
+    }
+}
@@ -0,0 +1,127 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.RedeliveryPolicy;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.batch.BatchTransferConsumer;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+/**
+ * Messages per second of the {@link BatchTransferConsumer} as the batch size grows. A batch size of 1 is the commit
+ * per message behaviour of the {@code activemqTx:} routes.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+public class BatchTransferBenchmark {
+
+    private static final int MESSAGES = 1000;
+
+    @Param({"1", "10", "50", "100", "500"})
+    public int batchSize;
+
+    private BrokerService broker;
+    private BasicDataSource dataSource;
+    private BatchTransferConsumer batchConsumer;
+    private Connection connection;
+    private Session session;
+    private MessageProducer producer;
+    private volatile CountDownLatch transferred;
+
+    @Setup
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("org.apache.derby.jdbc.EmbeddedDriver");
+        dataSource.setUrl("jdbc:derby:target/testdb;create=true");
+        dataSource.setDefaultAutoCommit(true);
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("CREATE TABLE account (name VARCHAR(50), balance BIGINT)");
+        jdbc.execute("INSERT INTO account VALUES('foo',1000)");
+        jdbc.execute("INSERT INTO account VALUES('bar',1000)");
+
+        ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory("tcp://localhost:61616");
+        RedeliveryPolicy redeliveryPolicy = new RedeliveryPolicy();
+        redeliveryPolicy.setMaximumRedeliveries(0);
+        connectionFactory.setRedeliveryPolicy(redeliveryPolicy);
+
+        batchConsumer = new BatchTransferConsumer();
+        batchConsumer.setConnectionFactory(connectionFactory);
+        batchConsumer.setDataSource(dataSource);
+        batchConsumer.setTransactionManager(new DataSourceTransactionManager(dataSource));
+        batchConsumer.setIncomingQueue("transaction.incoming.batch");
+        batchConsumer.setOutgoingQueue("transaction.outgoing.batch");
+        batchConsumer.setBatchSize(batchSize);
+        batchConsumer.setBatchTimeout(50);
+        batchConsumer.start();
+
+        connection = connectionFactory.createConnection();
+        connection.start();
+        session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        producer = session.createProducer(session.createQueue("transaction.incoming.batch"));
+        Session listenerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        listenerSession.createConsumer(listenerSession.createQueue("transaction.outgoing.batch")).setMessageListener(new MessageListener() {
+            public void onMessage(Message message) {
+                transferred.countDown();
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (connection != null) {
+            connection.close();
+        }
+        if (batchConsumer != null) {
+            batchConsumer.stop();
+        }
+        if (dataSource != null) {
+            new JdbcTemplate(dataSource).execute("DROP TABLE account");
+            dataSource.close();
+        }
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(MESSAGES)
+    public void transfer() throws Exception {
+        transferred = new CountDownLatch(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            producer.send(session.createObjectMessage(Long.valueOf(1)));
+        }
+
+        if (!transferred.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(transferred.getCount() + " transfers were not committed within 60 seconds");
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.spring.SpringCamelContext;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * All transfers go from {@code foo} to {@code bar}, so every concurrent consumer competes for the same two rows. The
+ * {@code Locking} route is the route of the samples, which holds the row locks from the first update until the JMS
+ * and JDBC transactions have committed. The {@code Optimistic} route uses the {@code OptimisticTransferProcessor},
+ * which only holds them during its own short JDBC transaction and retries on conflicts.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 2, timeUnit = TimeUnit.SECONDS)
+public class HotAccountTransferBenchmark {
+
+    private static final int TRANSFERS = 200;
+
+    @Param({"Locking", "Optimistic"})
+    public String route;
+
+    @Param({"1", "8", "32"})
+    public int consumers;
+
+    private volatile CountDownLatch latch;
+
+    private BrokerService broker;
+    private ClassPathXmlApplicationContext applicationContext;
+    private SpringCamelContext context;
+    private ProducerTemplate template;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+
+    @Setup
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        applicationContext = new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcOptimisticTransactionSampleTest-context.xml");
+        context = new SpringCamelContext(applicationContext);
+        context.addRoutes(createRouteBuilder());
+        context.start();
+        template = context.createProducerTemplate();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "dataSourceTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+
+        if (template != null) {
+            template.stop();
+        }
+        if (context != null) {
+            context.stop();
+        }
+        if (applicationContext != null) {
+            applicationContext.close();
+        }
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(TRANSFERS)
+    public void hotAccountThroughput() throws Exception {
+        latch = new CountDownLatch(TRANSFERS);
+        for (int i = 0; i < TRANSFERS; i++) {
+            template.sendBody("activemq:queue:transaction.incoming.hot", 1L);
+        }
+        if (!latch.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(latch.getCount() + " transfers were not committed within 60 seconds");
+        }
+    }
+
+    private RouteBuilder createRouteBuilder() {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                if ("Locking".equals(route)) {
+                    from("activemqTx:queue:transaction.incoming.hot?concurrentConsumers=" + consumers)
+                        .transacted("PROPAGATION_REQUIRED_JDBC")
+                        .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                        .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource")
+                        .to("activemqTx:queue:transaction.outgoing.hot");
+                } else {
+                    from("activemqTx:queue:transaction.incoming.hot?concurrentConsumers=" + consumers)
+                        .to("bean:optimisticTransferProcessor")
+                        .to("activemqTx:queue:transaction.outgoing.hot");
+                }
+
+                // the outgoing message is only visible once the JMS transaction has committed
+                from("activemq:queue:transaction.outgoing.hot")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            latch.countDown();
+                        }
+                    });
+            }
+        };
+    }
+}
@@ -0,0 +1,151 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.spring.SpringCamelContext;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * The transfer of {@link XaTransferBenchmark} with the idempotent receiver of
+ * {@code JmsAndJdbcIdempotentTransactionSampleTest} instead of XA: a local JMS transaction around a local JDBC
+ * transaction, which also records the message id. Operations and modes are the same as in the XA benchmark, so the
+ * scores compare directly with its four transaction manager variants.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 2, timeUnit = TimeUnit.SECONDS)
+public class IdempotentTransferBenchmark {
+
+    private final ConcurrentMap<String, CountDownLatch> pending = new ConcurrentHashMap<String, CountDownLatch>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private BrokerService broker;
+    private ClassPathXmlApplicationContext applicationContext;
+    private SpringCamelContext context;
+    private ProducerTemplate template;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+
+    @Setup
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        applicationContext = new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcIdempotentTransactionSampleTest-context.xml");
+        context = new SpringCamelContext(applicationContext);
+        context.addRoutes(createRouteBuilder());
+        context.start();
+        template = context.createProducerTemplate();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "dataSourceTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                jdbc.execute("DROP TABLE processed_message");
+            }
+        });
+
+        if (template != null) {
+            template.stop();
+        }
+        if (context != null) {
+            context.stop();
+        }
+        if (applicationContext != null) {
+            applicationContext.close();
+        }
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void transferThroughput() throws Exception {
+        transfer();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void transferCommitLatency() throws Exception {
+        transfer();
+    }
+
+    private void transfer() throws Exception {
+        String id = Long.toString(sequence.incrementAndGet());
+        CountDownLatch committed = new CountDownLatch(1);
+        pending.put(id, committed);
+
+        template.sendBodyAndHeader("activemq:queue:transaction.incoming.four", 1L, XaTransferBenchmark.CORRELATION_HEADER, id);
+
+        if (!committed.await(30, TimeUnit.SECONDS)) {
+            pending.remove(id);
+            throw new IllegalStateException("Transfer " + id + " was not committed within 30 seconds");
+        }
+    }
+
+    private RouteBuilder createRouteBuilder() {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("activemqTx:queue:transaction.incoming.four")
+                    .to("direct:transfer")
+                    .to("activemqTx:queue:transaction.outgoing.four");
+
+                from("direct:transfer")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .idempotentConsumer(header("JMSMessageID")).messageIdRepositoryRef("idempotentRepository").skipDuplicate(false)
+                        .filter(exchangeProperty(Exchange.DUPLICATE_MESSAGE).isNotEqualTo(true))
+                            .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                            .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource")
+                        .end()
+                    .end();
+
+                // the outgoing message is only visible once the JMS transaction has committed
+                from("activemq:queue:transaction.outgoing.four")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            CountDownLatch committed = pending.remove(exchange.getIn().getHeader(XaTransferBenchmark.CORRELATION_HEADER, String.class));
+                            if (committed != null) {
+                                committed.countDown();
+                            }
+                        }
+                    });
+            }
+        };
+    }
+}
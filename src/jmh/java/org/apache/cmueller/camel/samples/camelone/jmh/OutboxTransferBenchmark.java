@@ -0,0 +1,166 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.spring.SpringCamelContext;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.outbox.OutboxRelay;
+import org.apache.cmueller.camel.samples.camelone.outbox.OutboxWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * The transfer of {@link XaTransferBenchmark} with the outbox instead of XA: the balance updates and the outgoing
+ * message commit in one local JDBC transaction, the {@link OutboxRelay} sends the message to
+ * {@code transaction.outgoing.four} afterwards. An operation ends when the relayed message becomes visible, so the
+ * scores include the relay lag and compare end to end with the {@code XaTransferBenchmark} scores at the same
+ * {@code -t <threads>}.
+ * <p>
+ * The body carries the correlation id, the outbox keeps no headers, and each transfer moves 1. The id of the incoming
+ * message is recorded in the same transaction, like in the sample, so that a redelivery doesn't transfer again.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 2, timeUnit = TimeUnit.SECONDS)
+public class OutboxTransferBenchmark {
+
+    @Param({"1", "100"})
+    public int relayBatchSize;
+
+    private final ConcurrentMap<String, CountDownLatch> pending = new ConcurrentHashMap<String, CountDownLatch>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private BrokerService broker;
+    private ClassPathXmlApplicationContext applicationContext;
+    private SpringCamelContext context;
+    private ProducerTemplate template;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private OutboxRelay relay;
+
+    @Setup
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        applicationContext = new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcOutboxTransactionSampleTest-context.xml");
+        relay = applicationContext.getBean("outboxRelay", OutboxRelay.class);
+        relay.stop();
+        relay.setBatchSize(relayBatchSize);
+        relay.start();
+
+        context = new SpringCamelContext(applicationContext);
+        context.addRoutes(createRouteBuilder(applicationContext.getBean("outboxWriter", OutboxWriter.class)));
+        context.start();
+        template = context.createProducerTemplate();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "dataSourceTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        System.out.println("relayed " + relay.getRelayedCount() + " in " + relay.getBatchCount() + " batches, lag mean "
+            + relay.getLagMeanMicros() + "us p99 " + relay.getLagP99Micros() + "us");
+
+        relay.stop();
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                jdbc.execute("DROP TABLE outbox");
+                jdbc.execute("DROP TABLE outbox_received");
+            }
+        });
+
+        if (template != null) {
+            template.stop();
+        }
+        if (context != null) {
+            context.stop();
+        }
+        if (applicationContext != null) {
+            applicationContext.close();
+        }
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void transferThroughput() throws Exception {
+        transfer();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void transferCommitLatency() throws Exception {
+        transfer();
+    }
+
+    private void transfer() throws Exception {
+        String id = Long.toString(sequence.incrementAndGet());
+        CountDownLatch committed = new CountDownLatch(1);
+        pending.put(id, committed);
+
+        template.sendBody("activemq:queue:transaction.incoming.four", id);
+
+        if (!committed.await(30, TimeUnit.SECONDS)) {
+            pending.remove(id);
+            throw new IllegalStateException("Transfer " + id + " was not relayed within 30 seconds");
+        }
+    }
+
+    private RouteBuilder createRouteBuilder(final OutboxWriter outbox) {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("activemqTx:queue:transaction.incoming.four")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .process(outbox.receive())
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - 1 WHERE name = 'foo'?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + 1 WHERE name = 'bar'?dataSource=dataSource")
+                    .process(outbox.to("transaction.outgoing.four"));
+
+                // the outgoing message is only relayed once the JDBC transaction has committed
+                from("activemq:queue:transaction.outgoing.four")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            CountDownLatch committed = pending.remove(exchange.getIn().getBody(String.class));
+                            if (committed != null) {
+                                committed.countDown();
+                            }
+                        }
+                    });
+            }
+        };
+    }
+}
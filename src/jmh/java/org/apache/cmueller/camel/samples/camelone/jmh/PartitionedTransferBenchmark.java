@@ -0,0 +1,138 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.spring.SpringCamelContext;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.partition.AccountGroupIdProcessor;
+import org.apache.cmueller.camel.samples.camelone.partition.StripedTransferProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Transfers per second of the {@link StripedTransferProcessor} between random accounts, grouped by the
+ * {@link AccountGroupIdProcessor} and consumed by {@code consumers} concurrent consumers. The speedup of the
+ * partitioning is the score of a consumer count over the score of 1 consumer, which is the serial route of the
+ * partitioned sample.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+public class PartitionedTransferBenchmark {
+
+    private static final int ACCOUNTS = 64;
+    private static final int MESSAGES = 500;
+
+    @Param({"1", "2", "4", "8"})
+    public int consumers;
+
+    private final Random random = new Random(4711);
+
+    private BrokerService broker;
+    private ClassPathXmlApplicationContext applicationContext;
+    private SpringCamelContext context;
+    private ProducerTemplate template;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private volatile CountDownLatch transferred;
+
+    @Setup
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        applicationContext = new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcPartitionedTransactionSampleTest-context.xml");
+        context = new SpringCamelContext(applicationContext);
+        context.addRoutes(createRouteBuilder());
+        context.start();
+        template = context.createProducerTemplate();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "dataSourceTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+        DatabaseUtil.createAccounts(transactionTemplate, jdbc, ACCOUNTS, 1000000);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+
+        if (template != null) {
+            template.stop();
+        }
+        if (context != null) {
+            context.stop();
+        }
+        if (applicationContext != null) {
+            applicationContext.close();
+        }
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(MESSAGES)
+    public void transfer() throws Exception {
+        transferred = new CountDownLatch(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            int debit = random.nextInt(ACCOUNTS);
+            int credit = (debit + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+
+            Map<String, Object> headers = new HashMap<String, Object>();
+            headers.put(StripedTransferProcessor.DEBIT_ACCOUNT, DatabaseUtil.accountName(debit));
+            headers.put(StripedTransferProcessor.CREDIT_ACCOUNT, DatabaseUtil.accountName(credit));
+            template.sendBodyAndHeaders("direct:partitioned", Long.valueOf(1), headers);
+        }
+
+        if (!transferred.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(transferred.getCount() + " transfers were not committed within 60 seconds");
+        }
+    }
+
+    private RouteBuilder createRouteBuilder() {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("direct:partitioned")
+                    .process(new AccountGroupIdProcessor())
+                    .to("activemq:queue:transaction.incoming.partitioned");
+
+                // the consumers are cached, so that a message group sticks to its consumer
+                from("activemqTx:queue:transaction.incoming.partitioned?concurrentConsumers=" + consumers + "&cacheLevelName=CACHE_CONSUMER")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .to("bean:stripedTransferProcessor")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            transferred.countDown();
+                        }
+                    });
+            }
+        };
+    }
+}
@@ -0,0 +1,140 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.jms.JmsConsumer;
+import org.apache.camel.spring.SpringCamelContext;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.load.LoadReport;
+import org.apache.cmueller.camel.samples.camelone.load.TransferLoadGenerator;
+import org.apache.cmueller.camel.samples.camelone.pool.AdaptivePoolSizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Convergence of the {@link AdaptivePoolSizer} of the pool tuning context under a stepped load: every iteration runs
+ * the transfers of a {@link TransferLoadGenerator} with the number of concurrent consumers of the next step, up and
+ * down again. The data source pool starts with one connection.
+ * <p>
+ * The score is the duration of the run of a step. After each step, the size the pool converged to and the p99 of the
+ * checkout waits are printed next to the load report. The size must follow the concurrency with a lag of a few sizing
+ * intervals: a step fails if the pool ends it smaller than the number of consumers, which then wait for connections,
+ * or more than twice as large, which the sizer shrinks.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 0)
+@Measurement(iterations = 7)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PoolSizingBenchmark {
+
+    private static final int[] CONSUMER_STEPS = {2, 4, 8, 16, 8, 4, 2};
+
+    private BrokerService broker;
+    private ClassPathXmlApplicationContext applicationContext;
+    private SpringCamelContext context;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private TransferLoadGenerator loadGenerator;
+    private AdaptivePoolSizer sizer;
+    private int step;
+
+    @Setup
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        applicationContext = new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcXATransactionSampleWithPoolTuningTest-context.xml");
+        context = new SpringCamelContext(applicationContext);
+        loadGenerator = new TransferLoadGenerator();
+        context.addRoutes(createRouteBuilder());
+        context.start();
+        sizer = applicationContext.getBean("dataSourceSizer", AdaptivePoolSizer.class);
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "jtaTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+
+        loadGenerator.setTemplate(context.createProducerTemplate());
+        loadGenerator.setEndpointUri("activemq:queue:transaction.incoming.five");
+        loadGenerator.setProducers(4);
+        loadGenerator.setTransfers(2000);
+        loadGenerator.seedAccounts(transactionTemplate, jdbc);
+    }
+
+    @Setup(Level.Iteration)
+    public void nextStep() throws Exception {
+        int consumers = CONSUMER_STEPS[step++ % CONSUMER_STEPS.length];
+        DefaultMessageListenerContainer container = (DefaultMessageListenerContainer) ((JmsConsumer) context.getRoute("transferFive").getConsumer())
+            .getListenerContainer();
+        // pins the concurrency, the container would scale up to maxConcurrentConsumers by itself
+        container.setConcurrentConsumers(consumers);
+        container.setMaxConcurrentConsumers(consumers);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        loadGenerator.restoreDatabaseProperties(transactionTemplate, jdbc);
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+
+        if (loadGenerator.getTemplate() != null) {
+            loadGenerator.getTemplate().stop();
+        }
+        if (context != null) {
+            context.stop();
+        }
+        if (applicationContext != null) {
+            applicationContext.close();
+        }
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Benchmark
+    public LoadReport steppedLoad() throws Exception {
+        LoadReport report = loadGenerator.run(transactionTemplate, jdbc);
+        int consumers = CONSUMER_STEPS[(step - 1) % CONSUMER_STEPS.length];
+        int size = sizer.getSize();
+        System.out.println("consumers " + consumers + ": pool size " + size + ", wait p99 " + sizer.getLastWaitP99Micros()
+            + "us, utilization " + sizer.getUtilization() + ", " + report);
+
+        if (size < Math.min(consumers, sizer.getMaxSize()) || size > 2 * consumers) {
+            throw new IllegalStateException("The pool size " + size + " did not converge to " + consumers + " consumers");
+        }
+        return report;
+    }
+
+    private RouteBuilder createRouteBuilder() {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("activemqXa:queue:transaction.incoming.five").routeId("transferFive")
+                    .routePolicy(loadGenerator.getRoutePolicy())
+                    .transacted("PROPAGATION_REQUIRED")
+                    .to("sql:UPDATE account SET balance = balance - :#${body} WHERE name = :#" + TransferLoadGenerator.DEBIT_ACCOUNT + "?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = balance + :#${body} WHERE name = :#" + TransferLoadGenerator.CREDIT_ACCOUNT + "?dataSource=dataSource")
+                    .to("activemqXa:queue:transaction.outgoing.five");
+
+                from("activemq:queue:transaction.outgoing.five")
+                    .process(loadGenerator.getCommitProcessor());
+            }
+        };
+    }
+}
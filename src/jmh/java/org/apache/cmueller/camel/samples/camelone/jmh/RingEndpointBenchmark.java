@@ -0,0 +1,102 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.cmueller.camel.samples.camelone.ring.RingComponent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hand-over of InOut exchanges from 1 to 16 producer threads to the single consumer of an in-memory endpoint, which
+ * does no work: {@code seda:} with its blocking queue against {@code ring:} with the wait strategies of the
+ * {@code RingComponent}. Each operation waits for its exchange to complete, so the throughput is the one of the
+ * consumer and the sample time includes both hand-overs.
+ * <p>
+ * The {@code busySpin} and {@code yielding} strategies need a core for the consumer and each waiting producer, the
+ * results with more producers than free cores show their cost.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 2, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RingEndpointBenchmark {
+
+    @Param({"seda:bench", "ring:bench?waitStrategy=blocking", "ring:bench?waitStrategy=sleeping", "ring:bench?waitStrategy=yielding"})
+    public String endpointUri;
+
+    private DefaultCamelContext context;
+    private ProducerTemplate template;
+
+    @Setup
+    public void setUp() throws Exception {
+        context = new DefaultCamelContext();
+        context.addComponent("ring", new RingComponent());
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from(endpointUri)
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            exchange.getOut().setBody(exchange.getIn().getBody());
+                        }
+                    });
+            }
+        });
+        context.start();
+        template = context.createProducerTemplate();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        template.stop();
+        context.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object producers01() {
+        return template.requestBody(endpointUri, 1L);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Object producers02() {
+        return template.requestBody(endpointUri, 1L);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object producers04() {
+        return template.requestBody(endpointUri, 1L);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object producers08() {
+        return template.requestBody(endpointUri, 1L);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object producers16() {
+        return template.requestBody(endpointUri, 1L);
+    }
+}
@@ -0,0 +1,128 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.shard.ShardedTransferProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * Transfers of the {@link ShardedTransferProcessor} over the first {@code shards} shards of the sharded context,
+ * called directly from 8 threads, without the JMS legs:
+ * <ul>
+ * <li>{@code Random}: both accounts are drawn from all accounts, so {@code 1 - 1/shards} of the transfers are
+ * cross-shard</li>
+ * <li>{@code SingleShard}: both accounts are in the same shard, all transfers commit locally</li>
+ * <li>{@code CrossShard}: the accounts are in different shards, all transfers commit with two phases. With one shard,
+ * they are single-shard transfers as well.</li>
+ * </ul>
+ * The throughput of {@code SingleShard} over the shard counts shows the scaling of the write throughput, the
+ * difference between {@code SingleShard} and {@code CrossShard} the cost of the escalation to XA. The commit latencies
+ * of both kinds are printed at the end of a trial.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 2, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ShardedTransferBenchmark {
+
+    private static final int ACCOUNTS = 256;
+
+    @Param({"1", "2", "4"})
+    public int shards;
+
+    @Param({"Random", "SingleShard", "CrossShard"})
+    public String transfers;
+
+    private BrokerService broker;
+    private ClassPathXmlApplicationContext applicationContext;
+    private ShardedTransferProcessor processor;
+    private final List<List<String>> accountsByShard = new ArrayList<List<String>>();
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private final Random random = new Random(Thread.currentThread().getId());
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        // the pooled JMS connection factory of the context connects on startup
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        applicationContext = new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcShardedTransactionSampleTest-context.xml");
+        processor = applicationContext.getBean("shardedTransferProcessor", ShardedTransferProcessor.class);
+        processor.setShards(new ArrayList<DataSource>(processor.getShards().subList(0, shards)));
+        processor.init();
+        processor.createAccounts(ACCOUNTS, 1000000);
+
+        for (int shard = 0; shard < shards; shard++) {
+            accountsByShard.add(new ArrayList<String>());
+        }
+        for (int i = 0; i < ACCOUNTS; i++) {
+            String account = DatabaseUtil.accountName(i);
+            accountsByShard.get(processor.shardOf(account)).add(account);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        System.out.println(processor.getSingleShardTransferCount() + " single-shard transfers, mean "
+            + processor.getSingleShardCommit().getMeanMicros() + "us p99 " + processor.getSingleShardCommit().getP99Micros() + "us; "
+            + processor.getCrossShardTransferCount() + " cross-shard transfers, mean "
+            + processor.getCrossShardCommit().getMeanMicros() + "us p99 " + processor.getCrossShardCommit().getP99Micros() + "us");
+
+        processor.dropAccounts();
+        if (applicationContext != null) {
+            applicationContext.close();
+        }
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Benchmark
+    public void transfer(ThreadState state) {
+        Random random = state.random;
+        String debitAccount;
+        String creditAccount;
+        if ("Random".equals(transfers)) {
+            debitAccount = DatabaseUtil.accountName(random.nextInt(ACCOUNTS));
+            creditAccount = DatabaseUtil.accountName(random.nextInt(ACCOUNTS));
+        } else {
+            int debitShard = random.nextInt(shards);
+            int creditShard = debitShard;
+            if ("CrossShard".equals(transfers) && shards > 1) {
+                creditShard = (debitShard + 1 + random.nextInt(shards - 1)) % shards;
+            }
+            debitAccount = pick(accountsByShard.get(debitShard), random);
+            creditAccount = pick(accountsByShard.get(creditShard), random);
+        }
+
+        processor.transfer(debitAccount, creditAccount, 1);
+    }
+
+    private static String pick(List<String> accounts, Random random) {
+        return accounts.get(random.nextInt(accounts.size()));
+    }
+}
@@ -0,0 +1,146 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.spring.SpringCamelContext;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.derby.jdbc.EmbeddedDriver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Time to the first committed transaction of the four transaction manager contexts, with and without the
+ * {@code fastStartup} profile: the Spring context is refreshed, the XA route of {@link XaTransferBenchmark} is started
+ * and one transfer is sent, until its outgoing message becomes visible.
+ * <p>
+ * Every measurement is a cold start in a JVM of its own. The broker is started and the {@code account} table is
+ * created before, the Derby database is shut down again, so that its boot is part of the measurement.
+ */
+@State(Scope.Benchmark)
+@Fork(5)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StartupBenchmark {
+
+    private static final String DATABASE_URL = "jdbc:derby:target/testdb";
+
+    @Param({"Atomikos", "Bitronix", "Geronimo", "JOTM"})
+    public String transactionManager;
+
+    @Param({"default", "fastStartup"})
+    public String profile;
+
+    private final CountDownLatch committed = new CountDownLatch(1);
+
+    private BrokerService broker;
+    private ClassPathXmlApplicationContext applicationContext;
+    private SpringCamelContext context;
+    private ProducerTemplate template;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+
+    @Setup
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        SimpleDriverDataSource dataSource = new SimpleDriverDataSource(new EmbeddedDriver(), DATABASE_URL + ";create=true");
+        jdbc = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+        shutdownDatabase();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (template != null) {
+            template.stop();
+        }
+        if (context != null) {
+            context.stop();
+        }
+        if (applicationContext != null) {
+            applicationContext.close();
+        }
+
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Benchmark
+    public void timeToFirstCommittedTransaction() throws Exception {
+        applicationContext = new ClassPathXmlApplicationContext(
+            new String[] {"META-INF/spring/JmsAndJdbcXATransactionSampleWith" + transactionManager + "Test-context.xml"}, false);
+        if (!"default".equals(profile)) {
+            applicationContext.getEnvironment().setActiveProfiles(profile);
+        }
+        applicationContext.refresh();
+        context = new SpringCamelContext(applicationContext);
+        context.addRoutes(createRouteBuilder());
+        context.start();
+        template = context.createProducerTemplate();
+
+        template.sendBody("activemq:queue:transaction.incoming.four", 1L);
+
+        if (!committed.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("The first transfer was not committed within 60 seconds");
+        }
+    }
+
+    private static void shutdownDatabase() {
+        try {
+            DriverManager.getConnection(DATABASE_URL + ";shutdown=true");
+        } catch (SQLException e) {
+            // 08006 is the regular outcome of a database shutdown
+            if (!"08006".equals(e.getSQLState())) {
+                throw new IllegalStateException("Could not shut down the database", e);
+            }
+        }
+    }
+
+    private RouteBuilder createRouteBuilder() {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("activemqXa:queue:transaction.incoming.four")
+                    .transacted("PROPAGATION_REQUIRED")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource")
+                    .to("activemqXa:queue:transaction.outgoing.four");
+
+                // the outgoing message is only visible once the XA transaction has committed
+                from("activemq:queue:transaction.outgoing.four")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            committed.countDown();
+                        }
+                    });
+            }
+        };
+    }
+}
@@ -0,0 +1,152 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.spring.SpringCamelContext;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.trace.SampledTracer;
+import org.apache.cmueller.camel.samples.camelone.trace.SampledTracerBeanPostProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Overhead of tracing the routes of {@code JmsAndJdbcCompensationTransactionSampleTest}:
+ * <ul>
+ * <li>{@code unwrapped}: no tracing, and the transaction managers of the context are not wrapped by the tracer, the
+ * baseline</li>
+ * <li>{@code off}: no tracing, but the transaction managers are wrapped as in all other variants</li>
+ * <li>{@code sampled}: the {@link SampledTracer} of the context, at its sample rate of 1%</li>
+ * <li>{@code sampledAll}: the {@link SampledTracer} at a sample rate of 1, every step of every exchange is recorded</li>
+ * <li>{@code camelTracer}: {@code context.setTracing(true)}, every step of every exchange is logged</li>
+ * </ul>
+ * The routes are called directly, without the broker in between, so the tracing is not hidden behind the transport:
+ * {@code steps} runs a chain of ten empty processors, {@code transfer} the two JDBC updates of a transfer in a
+ * {@code transacted} block. The transaction managers of the context are wrapped by the tracer in all variants but
+ * {@code unwrapped}, without a sampled exchange they only look up the trace of the thread. Run with {@code -prof gc}
+ * for the allocations per exchange.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 2, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TracingOverheadBenchmark {
+
+    @Param({"unwrapped", "off", "sampled", "sampledAll", "camelTracer"})
+    public String tracing;
+
+    private BrokerService broker;
+    private ClassPathXmlApplicationContext applicationContext;
+    private SpringCamelContext context;
+    private ProducerTemplate template;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+
+    @Setup
+    public void setUp() throws Exception {
+        // the context starts a pooled connection factory
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        applicationContext = new ClassPathXmlApplicationContext(new String[] {"META-INF/spring/JmsAndJdbcCompensationTransactionSampleTest-context.xml"}, false);
+        if ("unwrapped".equals(tracing)) {
+            applicationContext.addBeanFactoryPostProcessor(new BeanFactoryPostProcessor() {
+                public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+                    for (String name : beanFactory.getBeanNamesForType(SampledTracerBeanPostProcessor.class, true, false)) {
+                        ((BeanDefinitionRegistry) beanFactory).removeBeanDefinition(name);
+                    }
+                }
+            });
+        }
+        applicationContext.refresh();
+        context = new SpringCamelContext(applicationContext);
+        SampledTracer tracer = applicationContext.getBean("sampledTracer", SampledTracer.class);
+        if ("sampled".equals(tracing) || "sampledAll".equals(tracing)) {
+            if ("sampledAll".equals(tracing)) {
+                tracer.setSampleRate(1);
+            }
+            context.addInterceptStrategy(tracer);
+            context.addRoutePolicyFactory(tracer);
+        } else {
+            context.setTracing("camelTracer".equals(tracing));
+        }
+        context.addRoutes(createRouteBuilder());
+        context.start();
+        template = context.createProducerTemplate();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "dataSourceTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+
+        if (template != null) {
+            template.stop();
+        }
+        if (context != null) {
+            context.stop();
+        }
+        if (applicationContext != null) {
+            applicationContext.close();
+        }
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Benchmark
+    public void steps() {
+        template.sendBody("direct:steps", 1L);
+    }
+
+    @Benchmark
+    public void transfer() {
+        template.sendBody("direct:transfer", 1L);
+    }
+
+    private RouteBuilder createRouteBuilder() {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                Processor noop = new Processor() {
+                    public void process(Exchange exchange) throws Exception {
+                    }
+                };
+
+                from("direct:steps")
+                    .process(noop).process(noop).process(noop).process(noop).process(noop)
+                    .process(noop).process(noop).process(noop).process(noop).process(noop);
+
+                from("direct:transfer")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource");
+            }
+        };
+    }
+}
@@ -0,0 +1,106 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.xa.Xid;
+
+import org.apache.cmueller.camel.samples.camelone.txlog.MappedGroupCommitLog;
+import org.apache.geronimo.transaction.log.HOWLLog;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.TransactionLog;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.apache.geronimo.transaction.manager.XidFactoryImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link MappedGroupCommitLog} with the {@link HOWLLog} of the Geronimo context, configured the same way
+ * as in {@code JmsAndJdbcXATransactionSampleWithGeronimoTest-context.xml}, at 1, 8 and 64 concurrent transactions.
+ * <p>
+ * An operation is what the transaction manager logs for a committed two phase transaction with two branches: the
+ * forced prepare record followed by the commit record.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransactionLogBenchmark {
+
+    @Param({"HOWL", "MappedGroupCommit"})
+    public String log;
+
+    private final XidFactory xidFactory = new XidFactoryImpl();
+    private TransactionLog transactionLog;
+
+    @Setup
+    public void setUp() throws Exception {
+        File directory = new File("target/txlog-benchmark");
+        if ("HOWL".equals(log)) {
+            HOWLLog howlLog = new HOWLLog("org.objectweb.howl.log.BlockLogBuffer", 4, true, true, 20, "howl", "log",
+                "benchmark_tx", 200, 10, 2, 2, 10, xidFactory, directory);
+            howlLog.doStart();
+            transactionLog = howlLog;
+        } else {
+            MappedGroupCommitLog mappedLog = new MappedGroupCommitLog();
+            mappedLog.setDirectory(new File(directory, "mapped"));
+            mappedLog.setFileName("benchmark_tx");
+            mappedLog.doStart();
+            transactionLog = mappedLog;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (transactionLog instanceof HOWLLog) {
+            ((HOWLLog) transactionLog).doStop();
+        } else {
+            ((MappedGroupCommitLog) transactionLog).doStop();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object prepareAndCommit1() throws Exception {
+        return prepareAndCommit();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object prepareAndCommit8() throws Exception {
+        return prepareAndCommit();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Object prepareAndCommit64() throws Exception {
+        return prepareAndCommit();
+    }
+
+    private Object prepareAndCommit() throws Exception {
+        Xid xid = xidFactory.createXid();
+        List<TransactionBranchInfo> branches = Arrays.<TransactionBranchInfo>asList(
+            new TransactionBranchInfoImpl(xidFactory.createBranch(xid, 1), "activemq.default"),
+            new TransactionBranchInfoImpl(xidFactory.createBranch(xid, 2), "derby"));
+
+        Object mark = transactionLog.prepare(xid, branches);
+        transactionLog.commit(xid, mark);
+        return mark;
+    }
+}
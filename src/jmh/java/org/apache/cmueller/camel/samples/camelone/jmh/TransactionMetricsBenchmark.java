@@ -0,0 +1,80 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cmueller.camel.samples.camelone.metrics.InstrumentedTransactionManager;
+import org.apache.cmueller.camel.samples.camelone.metrics.TransactionMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+/**
+ * Overhead of the {@link InstrumentedTransactionManager} per transaction (begin and commit), measured against a
+ * transaction manager which does nothing. The difference of both scores must stay below 1µs.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TransactionMetricsBenchmark {
+
+    private final TransactionDefinition definition = new DefaultTransactionDefinition();
+
+    private TransactionMetrics metrics;
+    private PlatformTransactionManager plain;
+    private PlatformTransactionManager instrumented;
+
+    @Setup
+    public void setUp() {
+        metrics = new TransactionMetrics();
+        plain = new NoopTransactionManager();
+        instrumented = new InstrumentedTransactionManager(new NoopTransactionManager(), "noopTransactionManager", metrics);
+    }
+
+    @TearDown
+    public void tearDown() {
+        metrics.stop();
+    }
+
+    @Benchmark
+    public TransactionStatus plain() {
+        TransactionStatus status = plain.getTransaction(definition);
+        plain.commit(status);
+        return status;
+    }
+
+    @Benchmark
+    public TransactionStatus instrumented() {
+        TransactionStatus status = instrumented.getTransaction(definition);
+        instrumented.commit(status);
+        return status;
+    }
+
+    private static class NoopTransactionManager implements PlatformTransactionManager {
+
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        public void commit(TransactionStatus status) {
+        }
+
+        public void rollback(TransactionStatus status) {
+        }
+    }
+}
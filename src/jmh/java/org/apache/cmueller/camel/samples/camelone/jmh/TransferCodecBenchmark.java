@@ -0,0 +1,104 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.util.MarshallingSupport;
+import org.apache.cmueller.camel.samples.camelone.codec.TransferCommand;
+import org.apache.cmueller.camel.samples.camelone.codec.TransferCommandCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CPU cost of the body of a transfer message:
+ * <ul>
+ * <li>{@code objectMessage*}: the current bodies, a Java-serialized {@code Long} as in an {@code ObjectMessage}, with
+ * the accounts and the amount as string properties, marshaled as ActiveMQ marshals message properties</li>
+ * <li>{@code binary*}: the {@link TransferCommandCodec} layout on a reused buffer and a reused command</li>
+ * </ul>
+ * Run with {@code -prof gc}, the binary codec allocates nothing ({@code gc.alloc.rate.norm} of 0). The sizes of both
+ * encodings are printed in the setup. The end-to-end comparison is {@link TransferMessageBenchmark}.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TransferCodecBenchmark {
+
+    private final TransferCommand command = new TransferCommand(0, 1, 100, UUID.randomUUID());
+    private final TransferCommand decoded = new TransferCommand();
+    private final ByteBuffer buffer = ByteBuffer.allocate(TransferCommandCodec.SIZE);
+    private final Long amount = Long.valueOf(100);
+    private final Map<String, Object> properties = new HashMap<String, Object>();
+
+    private byte[] objectMessage;
+
+    @Setup
+    public void setUp() throws IOException {
+        properties.put("debitAccount", "account-0");
+        properties.put("creditAccount", "account-1");
+        properties.put("amount", "100");
+        properties.put("idempotencyKey", UUID.randomUUID().toString());
+
+        objectMessage = objectMessageEncode();
+        TransferCommandCodec.encode(command, buffer);
+
+        System.out.println("ObjectMessage: " + objectMessage.length + " bytes, binary: " + TransferCommandCodec.SIZE + " bytes");
+    }
+
+    @Benchmark
+    public byte[] objectMessageEncode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream properties = new DataOutputStream(bytes);
+        MarshallingSupport.marshalPrimitiveMap(this.properties, properties);
+        properties.flush();
+
+        ObjectOutputStream body = new ObjectOutputStream(bytes);
+        body.writeObject(amount);
+        body.close();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public long objectMessageDecode() throws IOException, ClassNotFoundException {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(objectMessage);
+        Map<String, Object> properties = MarshallingSupport.unmarshalPrimitiveMap(new DataInputStream(bytes));
+
+        ObjectInputStream body = new ObjectInputStream(bytes);
+        long amount = (Long) body.readObject();
+        return amount + Long.parseLong((String) properties.get("amount")) + properties.size();
+    }
+
+    @Benchmark
+    public ByteBuffer binaryEncode() {
+        buffer.clear();
+        TransferCommandCodec.encode(command, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public TransferCommand binaryDecode() {
+        buffer.clear();
+        return TransferCommandCodec.decode(buffer, decoded);
+    }
+}
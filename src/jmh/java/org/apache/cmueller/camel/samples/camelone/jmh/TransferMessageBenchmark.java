@@ -0,0 +1,158 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.spi.DataFormat;
+import org.apache.camel.spring.SpringCamelContext;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.codec.TransferCommand;
+import org.apache.cmueller.camel.samples.camelone.codec.TransferCommandConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * End-to-end throughput of a transfer message through the broker and a route which reads the transfer and forwards it,
+ * without the database:
+ * <ul>
+ * <li>{@code ObjectMessage}: a {@code Long} body with the accounts and the amount as string headers</li>
+ * <li>{@code BytesMessage}: a binary {@link TransferCommand}, unmarshaled and marshaled again by the route</li>
+ * </ul>
+ * An operation ends when the forwarded message is received. Run with {@code -t <threads>} to set the concurrency.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 2, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransferMessageBenchmark {
+
+    @Param({"ObjectMessage", "BytesMessage"})
+    public String body;
+
+    private final ConcurrentMap<String, CountDownLatch> pending = new ConcurrentHashMap<String, CountDownLatch>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private BrokerService broker;
+    private ClassPathXmlApplicationContext applicationContext;
+    private SpringCamelContext context;
+    private ProducerTemplate template;
+
+    @Setup
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        applicationContext = new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcBinaryTransferSampleTest-context.xml");
+        context = new SpringCamelContext(applicationContext);
+        context.getTypeConverterRegistry().addTypeConverters(new TransferCommandConverter());
+        context.addRoutes(createRouteBuilder(applicationContext.getBean("transferCommand", DataFormat.class)));
+        context.start();
+        template = context.createProducerTemplate();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (template != null) {
+            template.stop();
+        }
+        if (context != null) {
+            context.stop();
+        }
+        if (applicationContext != null) {
+            applicationContext.close();
+        }
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Benchmark
+    public void transfer() throws Exception {
+        long id = sequence.incrementAndGet();
+        String correlationId = Long.toString(id);
+        CountDownLatch received = new CountDownLatch(1);
+        pending.put(correlationId, received);
+
+        if ("BytesMessage".equals(body)) {
+            TransferCommand command = new TransferCommand(id % 64, (id + 1) % 64, 100, UUID.randomUUID());
+            template.sendBodyAndHeader("activemq:queue:codec.incoming.bytes", TransferCommandConverter.toBytes(command), "JMSCorrelationID", correlationId);
+        } else {
+            Map<String, Object> headers = new HashMap<String, Object>();
+            headers.put("JMSCorrelationID", correlationId);
+            headers.put("debitAccount", "account-" + id % 64);
+            headers.put("creditAccount", "account-" + (id + 1) % 64);
+            headers.put("amount", "100");
+            headers.put("idempotencyKey", UUID.randomUUID().toString());
+            template.sendBodyAndHeaders("activemq:queue:codec.incoming.object", Long.valueOf(100), headers);
+        }
+
+        if (!received.await(30, TimeUnit.SECONDS)) {
+            pending.remove(correlationId);
+            throw new IllegalStateException("Transfer " + correlationId + " was not received within 30 seconds");
+        }
+    }
+
+    private RouteBuilder createRouteBuilder(final DataFormat transferCommand) {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("activemq:queue:codec.incoming.object")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            // what the sql endpoints would read
+                            exchange.getIn().getHeader("debitAccount", String.class);
+                            exchange.getIn().getHeader("creditAccount", String.class);
+                            exchange.getIn().getHeader("amount", Long.class);
+                            exchange.getIn().getMandatoryBody(Long.class);
+                        }
+                    })
+                    .to("activemq:queue:codec.outgoing");
+
+                from("activemq:queue:codec.incoming.bytes")
+                    .unmarshal(transferCommand)
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            TransferCommand command = exchange.getIn().getMandatoryBody(TransferCommand.class);
+                            command.getDebitAccount();
+                            command.getCreditAccount();
+                            command.getAmount();
+                        }
+                    })
+                    .marshal(transferCommand)
+                    .to("activemq:queue:codec.outgoing");
+
+                from("activemq:queue:codec.outgoing")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            CountDownLatch received = pending.remove(exchange.getIn().getHeader("JMSCorrelationID", String.class));
+                            if (received != null) {
+                                received.countDown();
+                            }
+                        }
+                    });
+            }
+        };
+    }
+}
@@ -0,0 +1,119 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.spring.SpringCamelContext;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * Transacted JMS consumers calling the I/O-bound {@code BusinessService.computeOffer} (100 ms), with the consumers
+ * of the listener container on platform threads ({@code activemqTx}) or on virtual threads
+ * ({@code activemqVirtualTx}), for a growing number of concurrent consumers.
+ * <p>
+ * An invocation sends {@value #MESSAGES} messages and waits until all of them were committed to the outgoing queue.
+ * The virtual thread variant needs a Java 21 runtime. The consumers waiting in the ActiveMQ receive pin their carrier
+ * thread, so the fork raises the carrier cap above the 1000 consumers; with the default of 256, the virtual threads
+ * would be limited to 256 consumers as well.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.virtualThreadScheduler.maxPoolSize=1100")
+@Warmup(iterations = 2, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class VirtualThreadConsumerBenchmark {
+
+    static final int MESSAGES = 1000;
+
+    @Param({"PlatformThreads", "VirtualThreads"})
+    public String threads;
+
+    @Param({"10", "100", "1000"})
+    public int concurrentConsumers;
+
+    private volatile CountDownLatch committed;
+
+    private BrokerService broker;
+    private ClassPathXmlApplicationContext applicationContext;
+    private SpringCamelContext context;
+    private ProducerTemplate template;
+
+    @Setup
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        applicationContext = new ClassPathXmlApplicationContext("META-INF/spring/JmsVirtualThreadTransactionSampleTest-context.xml");
+        context = new SpringCamelContext(applicationContext);
+        context.addRoutes(createRouteBuilder("VirtualThreads".equals(threads) ? "activemqVirtualTx" : "activemqTx"));
+        context.start();
+        template = context.createProducerTemplate();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (template != null) {
+            template.stop();
+        }
+        if (context != null) {
+            context.stop();
+        }
+        if (applicationContext != null) {
+            applicationContext.close();
+        }
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void computeOffers() throws Exception {
+        committed = new CountDownLatch(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            template.sendBodyAndHeader("activemq:queue:transaction.incoming.one", "Camel rocks!", "amount", "100");
+        }
+
+        if (!committed.await(5, TimeUnit.MINUTES)) {
+            throw new IllegalStateException(committed.getCount() + " offers were not committed within 5 minutes");
+        }
+    }
+
+    private RouteBuilder createRouteBuilder(final String component) {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from(component + ":queue:transaction.incoming.one?concurrentConsumers=" + concurrentConsumers
+                        + "&maxConcurrentConsumers=" + concurrentConsumers)
+                    .transacted("PROPAGATION_REQUIRED")
+                    .to("bean:businessService?method=computeOffer")
+                    .to(component + ":queue:transaction.outgoing.one");
+
+                from("activemq:queue:transaction.outgoing.one?concurrentConsumers=4")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            committed.countDown();
+                        }
+                    });
+            }
+        };
+    }
+}
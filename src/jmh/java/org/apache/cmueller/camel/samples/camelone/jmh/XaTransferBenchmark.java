@@ -0,0 +1,168 @@
+package org.apache.cmueller.camel.samples.camelone.jmh;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.spring.SpringCamelContext;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.EmbeddedBrokerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Drives the XA transfer route of {@code BaseJmsAndJdbcXATransactionSampleTest.perfTest()} under each of the four
+ * transaction manager contexts, the Geronimo context with the {@code MappedGroupCommitLog}, the Geronimo context with
+ * the {@code ConnectionAffinityDataSource} ({@code StatementCache}, compare with {@code Geronimo} for the saving per
+ * message) and the last resource commit context.
+ * <p>
+ * An operation is one transfer: the message is sent to {@code transaction.incoming.four} and the benchmark thread
+ * waits until the outgoing message becomes visible on {@code transaction.outgoing.four}, which only happens after the
+ * distributed transaction has committed. Run with {@code -t <threads>} to set the concurrency, {@code -prof gc} to get
+ * the allocation rate per transaction ({@code gc.alloc.rate.norm}).
+ * <p>
+ * Each transaction manager runs against each broker setup of the {@link EmbeddedBrokerFactory}, to separate the share
+ * of the broker store and of the transport in the transaction latency, e.g.
+ * {@code -p transactionManager=Atomikos -p brokerTransport=VM}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 2, timeUnit = TimeUnit.SECONDS)
+public class XaTransferBenchmark {
+
+    static final String CORRELATION_HEADER = "BenchmarkCorrelationId";
+
+    @Param({"Atomikos", "Bitronix", "Geronimo", "GroupCommitLog", "JOTM", "LastResourceCommit", "StatementCache"})
+    public String transactionManager;
+
+    /**
+     * The store of the embedded broker, {@code KAHADB_ASYNC} doesn't force the journal on every write.
+     */
+    @Param({"MEMORY", "KAHADB", "KAHADB_ASYNC", "JDBC"})
+    public String brokerStore;
+
+    @Param({"TCP", "VM"})
+    public String brokerTransport;
+
+    private final ConcurrentMap<String, CountDownLatch> pending = new ConcurrentHashMap<String, CountDownLatch>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private BrokerService broker;
+    private ClassPathXmlApplicationContext applicationContext;
+    private SpringCamelContext context;
+    private ProducerTemplate template;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+
+    @Setup
+    public void setUp() throws Exception {
+        EmbeddedBrokerFactory brokerFactory = new EmbeddedBrokerFactory();
+        brokerFactory.setStore(EmbeddedBrokerFactory.Store.valueOf(brokerStore.replace("_ASYNC", "")));
+        brokerFactory.setAsyncJournal(brokerStore.endsWith("_ASYNC"));
+        brokerFactory.setTransport(EmbeddedBrokerFactory.Transport.valueOf(brokerTransport));
+        System.setProperty(ActiveMQUtil.BROKER_URL_PROPERTY, brokerFactory.getBrokerURL());
+        broker = brokerFactory.createAndStartBroker();
+
+        applicationContext = new ClassPathXmlApplicationContext(
+            "META-INF/spring/JmsAndJdbcXATransactionSampleWith" + transactionManager + "Test-context.xml");
+        context = new SpringCamelContext(applicationContext);
+        context.addRoutes(createRouteBuilder());
+        context.start();
+        template = context.createProducerTemplate();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "jtaTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+
+        if (template != null) {
+            template.stop();
+        }
+        if (context != null) {
+            context.stop();
+        }
+        if (applicationContext != null) {
+            applicationContext.close();
+        }
+
+        ActiveMQUtil.stopBroker(broker);
+        System.clearProperty(ActiveMQUtil.BROKER_URL_PROPERTY);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void transferThroughput() throws Exception {
+        transfer();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void transferCommitLatency() throws Exception {
+        transfer();
+    }
+
+    private void transfer() throws Exception {
+        String id = Long.toString(sequence.incrementAndGet());
+        CountDownLatch committed = new CountDownLatch(1);
+        pending.put(id, committed);
+
+        template.sendBodyAndHeader("activemq:queue:transaction.incoming.four", 1L, CORRELATION_HEADER, id);
+
+        if (!committed.await(30, TimeUnit.SECONDS)) {
+            pending.remove(id);
+            throw new IllegalStateException("Transfer " + id + " was not committed within 30 seconds");
+        }
+    }
+
+    private RouteBuilder createRouteBuilder() {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("activemqXa:queue:transaction.incoming.four")
+                    .transacted("PROPAGATION_REQUIRED")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource")
+                    .to("activemqXa:queue:transaction.outgoing.four");
+
+                // the outgoing message is only visible once the XA transaction has committed
+                from("activemq:queue:transaction.outgoing.four")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            CountDownLatch committed = pending.remove(exchange.getIn().getHeader(CORRELATION_HEADER, String.class));
+                            if (committed != null) {
+                                committed.countDown();
+                            }
+                        }
+                    });
+            }
+        };
+    }
+}
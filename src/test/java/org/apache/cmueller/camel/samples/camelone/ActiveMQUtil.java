@@ -1,25 +1,16 @@
 package org.apache.cmueller.camel.samples.camelone;
 
 import org.apache.activemq.broker.BrokerService;
-import org.apache.activemq.usage.SystemUsage;
-import org.apache.activemq.usage.TempUsage;
 
 public class ActiveMQUtil {
 
-    public static BrokerService createAndStartBroker() throws Exception {
-        BrokerService broker = new BrokerService();
-        broker.setPersistent(false);
-        broker.setUseJmx(false);
-        broker.setBrokerName("localhost");
-        broker.addConnector("tcp://localhost:61616");
-        SystemUsage systemUsage = new SystemUsage();
-        TempUsage tempUsage = new TempUsage();
-        tempUsage.setLimit(52428800L);
-        systemUsage.setTempUsage(tempUsage);
-        broker.setSystemUsage(systemUsage);
-        broker.start();
+    /**
+     * System property with the broker URL of the XA sample contexts, {@code tcp://localhost:61616} if not set.
+     */
+    public static final String BROKER_URL_PROPERTY = "activemq.brokerURL";
 
-        return broker;
+    public static BrokerService createAndStartBroker() throws Exception {
+        return new EmbeddedBrokerFactory().createAndStartBroker();
     }
     
     public static void stopBroker(BrokerService broker) throws Exception {
@@ -27,4 +18,4 @@ public class ActiveMQUtil {
             broker.stop();
         }
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,12 @@
 package org.apache.cmueller.camel.samples.camelone;
 
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.sql.DataSource;
 
 import org.apache.camel.model.ModelCamelContext;
@@ -26,13 +33,31 @@ public class DatabaseUtil {
         transactionTemplate.execute(new TransactionCallbackWithoutResult() {
             @Override
             protected void doInTransactionWithoutResult(TransactionStatus status) {
-                jdbc.execute("CREATE TABLE account (name VARCHAR(50), balance BIGINT)");
-                jdbc.execute("INSERT INTO account VALUES('foo',1000)");
-                jdbc.execute("INSERT INTO account VALUES('bar',1000)");
+                // the version is only maintained by the optimistic transfer, the other samples lock the rows
+                jdbc.execute("CREATE TABLE account (name VARCHAR(50), balance BIGINT, version BIGINT DEFAULT 0 NOT NULL)");
+                jdbc.execute("INSERT INTO account (name, balance) VALUES('foo',1000)");
+                jdbc.execute("INSERT INTO account (name, balance) VALUES('bar',1000)");
+            }
+        });
+    }
+
+    public static void createAccounts(TransactionTemplate transactionTemplate, final JdbcTemplate jdbc, final int count, final long balance) {
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                List<Object[]> accounts = new ArrayList<Object[]>(count);
+                for (int i = 0; i < count; i++) {
+                    accounts.add(new Object[] {accountName(i), balance});
+                }
+                jdbc.batchUpdate("INSERT INTO account (name, balance) VALUES(?,?)", accounts);
             }
         });
     }
 
+    public static String accountName(long index) {
+        return "account-" + index;
+    }
+
     public static void dropDatabase(TransactionTemplate transactionTemplate, final JdbcTemplate jdbc) {
         if (transactionTemplate != null && jdbc != null) {
             transactionTemplate.execute(new TransactionCallbackWithoutResult() {
@@ -52,4 +77,33 @@ public class DatabaseUtil {
             }
         });
     }
+
+    /**
+     * Creates the table with the given DDL outside of any transaction, unless the database already contains it.
+     */
+    public static void createTableIfNecessary(DataSource dataSource, String table, String createTable) throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            ResultSet tables = connection.getMetaData().getTables(null, null, table.toUpperCase(), null);
+            try {
+                if (tables.next()) {
+                    return;
+                }
+            } finally {
+                tables.close();
+            }
+
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute(createTable);
+            } finally {
+                statement.close();
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        } finally {
+            connection.close();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,218 @@
+package org.apache.cmueller.camel.samples.camelone;
+
+import java.io.File;
+
+import org.apache.activemq.RedeliveryPolicy;
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+import org.apache.activemq.broker.region.policy.RedeliveryPolicyMap;
+import org.apache.activemq.broker.util.RedeliveryPlugin;
+import org.apache.activemq.store.jdbc.JDBCPersistenceAdapter;
+import org.apache.activemq.store.kahadb.KahaDBPersistenceAdapter;
+import org.apache.activemq.usage.SystemUsage;
+import org.apache.activemq.usage.TempUsage;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+
+/**
+ * Creates the embedded broker of the samples. The defaults are the broker of {@link ActiveMQUtil}: non-persistent,
+ * without JMX and with a 50 MB temp usage limit. For numbers closer to production, the broker can persist into
+ * KahaDB, optionally without forcing the journal on every write, or into a JDBC store in an embedded Derby database,
+ * with its own memory, store and temp usage limits and producer flow control.
+ * <p>
+ * The broker always listens on {@code tcp://localhost:61616}; with the {@link Transport#VM} transport, the clients
+ * connect in-JVM through {@code vm://localhost} instead. The sample contexts which resolve their broker URL from the
+ * {@value ActiveMQUtil#BROKER_URL_PROPERTY} system property pick it up from {@link #getBrokerURL()}.
+ * <p>
+ * With a {@link #setRedeliveryPolicy(RedeliveryPolicy) redelivery policy}, the broker itself redelivers the messages
+ * which a consumer rolled back, after the delay of the policy. The consumers must give up on a message at once, with
+ * {@code maximumRedeliveries=0} in their own policy, as all sample contexts do. The consumer then continues with the
+ * next message while the scheduler of the broker holds the failed one.
+ */
+public class EmbeddedBrokerFactory {
+
+    public enum Store {
+        MEMORY, KAHADB, JDBC
+    }
+
+    public enum Transport {
+        TCP, VM
+    }
+
+    private Store store = Store.MEMORY;
+    private Transport transport = Transport.TCP;
+    private boolean asyncJournal;
+    private boolean deleteAllMessagesOnStartup = true;
+    private File dataDirectory = new File("target/activemq-data");
+    private long memoryLimit;
+    private long storeLimit;
+    private long tempLimit = 52428800L;
+    private boolean producerFlowControl = true;
+    private RedeliveryPolicy redeliveryPolicy;
+
+    public BrokerService createAndStartBroker() throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setUseJmx(false);
+        broker.setBrokerName("localhost");
+        broker.addConnector("tcp://localhost:61616");
+
+        switch (store) {
+        case KAHADB:
+            KahaDBPersistenceAdapter kahaDB = new KahaDBPersistenceAdapter();
+            kahaDB.setDirectory(new File(dataDirectory, "kahadb"));
+            // the journal is written, but only forced by the periodic checkpoint
+            kahaDB.setEnableJournalDiskSyncs(!asyncJournal);
+            broker.setPersistenceAdapter(kahaDB);
+            broker.setDeleteAllMessagesOnStartup(deleteAllMessagesOnStartup);
+            break;
+        case JDBC:
+            EmbeddedDataSource dataSource = new EmbeddedDataSource();
+            dataSource.setDatabaseName(new File(dataDirectory, "derby").getPath());
+            dataSource.setCreateDatabase("create");
+            JDBCPersistenceAdapter jdbc = new JDBCPersistenceAdapter();
+            jdbc.setDataSource(dataSource);
+            jdbc.setUseLock(false);
+            broker.setPersistenceAdapter(jdbc);
+            broker.setDeleteAllMessagesOnStartup(deleteAllMessagesOnStartup);
+            break;
+        default:
+            broker.setPersistent(false);
+        }
+
+        SystemUsage systemUsage = new SystemUsage();
+        TempUsage tempUsage = new TempUsage();
+        tempUsage.setLimit(tempLimit);
+        systemUsage.setTempUsage(tempUsage);
+        if (memoryLimit > 0) {
+            systemUsage.getMemoryUsage().setLimit(memoryLimit);
+        }
+        if (storeLimit > 0) {
+            systemUsage.getStoreUsage().setLimit(storeLimit);
+        }
+        broker.setSystemUsage(systemUsage);
+
+        if (!producerFlowControl) {
+            PolicyEntry policy = new PolicyEntry();
+            policy.setProducerFlowControl(false);
+            PolicyMap policyMap = new PolicyMap();
+            policyMap.setDefaultEntry(policy);
+            broker.setDestinationPolicy(policyMap);
+        }
+
+        if (redeliveryPolicy != null) {
+            RedeliveryPolicyMap redeliveryPolicyMap = new RedeliveryPolicyMap();
+            redeliveryPolicyMap.setDefaultEntry(redeliveryPolicy);
+            RedeliveryPlugin redelivery = new RedeliveryPlugin();
+            redelivery.setRedeliveryPolicyMap(redeliveryPolicyMap);
+            redelivery.setFallbackToDeadLetter(true);
+            redelivery.setSendToDlqIfMaxRetriesExceeded(true);
+            broker.setPlugins(new BrokerPlugin[] {redelivery});
+            broker.setSchedulerSupport(true);
+            broker.setSchedulerDirectoryFile(new File(dataDirectory, "scheduler"));
+        }
+
+        broker.start();
+
+        return broker;
+    }
+
+    /**
+     * @return the URL for the clients of the broker
+     */
+    public String getBrokerURL() {
+        return transport == Transport.VM ? "vm://localhost?create=false" : "tcp://localhost:61616";
+    }
+
+    public Store getStore() {
+        return store;
+    }
+
+    public void setStore(Store store) {
+        this.store = store;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    public boolean isAsyncJournal() {
+        return asyncJournal;
+    }
+
+    /**
+     * Only applies to {@link Store#KAHADB}.
+     */
+    public void setAsyncJournal(boolean asyncJournal) {
+        this.asyncJournal = asyncJournal;
+    }
+
+    public boolean isDeleteAllMessagesOnStartup() {
+        return deleteAllMessagesOnStartup;
+    }
+
+    /**
+     * Only applies to the persistent stores. Without the deletion, a restarted broker recovers the messages and the
+     * prepared transactions of the previous one.
+     */
+    public void setDeleteAllMessagesOnStartup(boolean deleteAllMessagesOnStartup) {
+        this.deleteAllMessagesOnStartup = deleteAllMessagesOnStartup;
+    }
+
+    public File getDataDirectory() {
+        return dataDirectory;
+    }
+
+    public void setDataDirectory(File dataDirectory) {
+        this.dataDirectory = dataDirectory;
+    }
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    public long getStoreLimit() {
+        return storeLimit;
+    }
+
+    public void setStoreLimit(long storeLimit) {
+        this.storeLimit = storeLimit;
+    }
+
+    public long getTempLimit() {
+        return tempLimit;
+    }
+
+    public void setTempLimit(long tempLimit) {
+        this.tempLimit = tempLimit;
+    }
+
+    public boolean isProducerFlowControl() {
+        return producerFlowControl;
+    }
+
+    public void setProducerFlowControl(boolean producerFlowControl) {
+        this.producerFlowControl = producerFlowControl;
+    }
+
+    public RedeliveryPolicy getRedeliveryPolicy() {
+        return redeliveryPolicy;
+    }
+
+    /**
+     * Enables the scheduled redelivery by the broker, e.g. with an exponential backoff and collision avoidance as
+     * jitter. The {@code maximumRedeliveries} of the policy are the redeliveries before the message is sent to the
+     * dead letter queue.
+     */
+    public void setRedeliveryPolicy(RedeliveryPolicy redeliveryPolicy) {
+        this.redeliveryPolicy = redeliveryPolicy;
+    }
+}
@@ -0,0 +1,335 @@
+package org.apache.cmueller.camel.samples.camelone.batch;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Transacted JMS consumer which transfers up to {@code batchSize} messages, or the messages received within
+ * {@code batchTimeout} milliseconds, in one JMS and one database transaction.
+ * <p>
+ * Both {@code UPDATE account} statements are executed as JDBC batches for all messages of the batch. If the database
+ * transaction fails, the batch is split in halves which are retried separately, until the failing message is alone.
+ * Such a poison message is moved to the dead letter queue in the same JMS transaction, so the other messages of the
+ * batch are still transferred. A transient failure, like a deadlock or a lock timeout, is retried up to
+ * {@code maxTransientRetries} times instead, and then rolls back the whole JMS session for a redelivery.
+ * <p>
+ * Like in the compensation sample, the database commits before the JMS session, and every half of a split batch commits
+ * its own database transaction. The ids of the transferred messages are recorded in the same database transactions,
+ * so a batch which is redelivered after a rollback of the JMS session, e.g. because of a failed send, only sends the
+ * outgoing messages of the transfers which are committed already.
+ */
+public class BatchTransferConsumer implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchTransferConsumer.class);
+
+    static final String LEDGER_TABLE = "batch_transfer_ledger";
+    static final String CREATE_LEDGER_TABLE = "CREATE TABLE " + LEDGER_TABLE + " (message_id VARCHAR(100) NOT NULL PRIMARY KEY)";
+
+    private ConnectionFactory connectionFactory;
+    private DataSource dataSource;
+    private PlatformTransactionManager transactionManager;
+    private String incomingQueue;
+    private String outgoingQueue;
+    private String deadLetterQueue = "ActiveMQ.DLQ";
+    private int batchSize = 100;
+    private long batchTimeout = 100;
+    private int maxTransientRetries = 3;
+
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private Connection connection;
+    private Thread thread;
+    private volatile boolean running;
+
+    public void start() throws Exception {
+        jdbc = new JdbcTemplate(dataSource);
+        DatabaseUtil.createTableIfNecessary(dataSource, LEDGER_TABLE, CREATE_LEDGER_TABLE);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+
+        connection = connectionFactory.createConnection();
+        connection.start();
+
+        running = true;
+        thread = new Thread(this, "BatchTransferConsumer[" + incomingQueue + "]");
+        thread.start();
+    }
+
+    public void stop() throws Exception {
+        running = false;
+        if (thread != null) {
+            thread.join();
+        }
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    public void run() {
+        try {
+            Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+            try {
+                MessageConsumer consumer = session.createConsumer(session.createQueue(incomingQueue));
+                MessageProducer producer = session.createProducer(null);
+                Queue outgoing = session.createQueue(outgoingQueue);
+                Queue deadLetter = session.createQueue(deadLetterQueue);
+
+                while (running) {
+                    List<Message> batch = receiveBatch(consumer);
+                    if (batch.isEmpty()) {
+                        continue;
+                    }
+
+                    try {
+                        transfer(batch, producer, outgoing, deadLetter);
+                        session.commit();
+                    } catch (Exception e) {
+                        LOG.warn("Rolling back batch of " + batch.size() + " messages", e);
+                        session.rollback();
+                    }
+                }
+            } finally {
+                session.close();
+            }
+        } catch (JMSException e) {
+            if (running) {
+                LOG.error("Batch consumer on " + incomingQueue + " terminated", e);
+            }
+        }
+    }
+
+    private List<Message> receiveBatch(MessageConsumer consumer) throws JMSException {
+        List<Message> batch = new ArrayList<Message>(batchSize);
+        long deadline = System.currentTimeMillis() + batchTimeout;
+
+        while (batch.size() < batchSize) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            Message message = consumer.receive(remaining);
+            if (message == null) {
+                break;
+            }
+            batch.add(message);
+        }
+        return batch;
+    }
+
+    private void transfer(List<Message> batch, MessageProducer producer, Queue outgoing, Queue deadLetter) throws JMSException {
+        for (int retries = 0;; retries++) {
+            try {
+                updateBalances(batch, producer, outgoing);
+                return;
+            } catch (SendFailedException e) {
+                // not caused by a message of the batch, so splitting it would not help
+                throw e.getCause();
+            } catch (TransientDataAccessException e) {
+                // neither caused by a message of the batch, the redelivery skips the halves which are committed already
+                if (retries == maxTransientRetries) {
+                    throw e;
+                }
+                LOG.debug("Retrying batch of " + batch.size() + " messages after a transient failure", e);
+            } catch (RuntimeException e) {
+                if (batch.size() == 1) {
+                    LOG.warn("Moving poison message " + batch.get(0).getJMSMessageID() + " to " + deadLetterQueue, e);
+                    producer.send(deadLetter, batch.get(0));
+                    return;
+                }
+
+                int half = batch.size() / 2;
+                transfer(batch.subList(0, half), producer, outgoing, deadLetter);
+                transfer(batch.subList(half, batch.size()), producer, outgoing, deadLetter);
+                return;
+            }
+        }
+    }
+
+    private void updateBalances(final List<Message> batch, final MessageProducer producer, final Queue outgoing) {
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                List<Message> pending = withoutTransferred(batch);
+                if (!pending.isEmpty()) {
+                    List<Object[]> amounts = new ArrayList<Object[]>(pending.size());
+                    List<Object[]> messageIds = new ArrayList<Object[]>(pending.size());
+                    for (Message message : pending) {
+                        amounts.add(new Object[] {getAmount(message)});
+                        messageIds.add(new Object[] {getMessageId(message)});
+                    }
+
+                    jdbc.batchUpdate("UPDATE account SET balance = (SELECT balance from account where name = 'foo') - ? WHERE name = 'foo'", amounts);
+                    jdbc.batchUpdate("UPDATE account SET balance = (SELECT balance from account where name = 'bar') + ? WHERE name = 'bar'", amounts);
+                    jdbc.batchUpdate("INSERT INTO " + LEDGER_TABLE + " (message_id) VALUES (?)", messageIds);
+                }
+
+                // the sends of the transferred messages were rolled back with the JMS session, so all are sent again
+                for (Message message : batch) {
+                    try {
+                        producer.send(outgoing, message);
+                    } catch (JMSException e) {
+                        throw new SendFailedException(e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the messages of the batch whose transfer is not recorded in the ledger by an earlier delivery
+     */
+    private List<Message> withoutTransferred(List<Message> batch) {
+        StringBuilder query = new StringBuilder("SELECT message_id FROM " + LEDGER_TABLE + " WHERE message_id IN (");
+        Object[] messageIds = new Object[batch.size()];
+        for (int i = 0; i < messageIds.length; i++) {
+            query.append(i == 0 ? "?" : ",?");
+            messageIds[i] = getMessageId(batch.get(i));
+        }
+        query.append(')');
+
+        List<String> transferred = jdbc.queryForList(query.toString(), String.class, messageIds);
+        if (transferred.isEmpty()) {
+            return batch;
+        }
+
+        List<Message> pending = new ArrayList<Message>(batch.size() - transferred.size());
+        for (Message message : batch) {
+            if (!transferred.contains(getMessageId(message))) {
+                pending.add(message);
+            }
+        }
+        return pending;
+    }
+
+    private static String getMessageId(Message message) {
+        try {
+            return message.getJMSMessageID();
+        } catch (JMSException e) {
+            throw new IllegalStateException("Cannot read the id of " + message, e);
+        }
+    }
+
+    private static long getAmount(Message message) {
+        try {
+            if (message instanceof ObjectMessage) {
+                Serializable body = ((ObjectMessage) message).getObject();
+                if (body instanceof Number) {
+                    return ((Number) body).longValue();
+                }
+            }
+        } catch (JMSException e) {
+            throw new IllegalArgumentException("Cannot read the amount of " + message, e);
+        }
+        throw new IllegalArgumentException("Not a transfer amount: " + message);
+    }
+
+    public ConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    public void setConnectionFactory(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public PlatformTransactionManager getTransactionManager() {
+        return transactionManager;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public String getIncomingQueue() {
+        return incomingQueue;
+    }
+
+    public void setIncomingQueue(String incomingQueue) {
+        this.incomingQueue = incomingQueue;
+    }
+
+    public String getOutgoingQueue() {
+        return outgoingQueue;
+    }
+
+    public void setOutgoingQueue(String outgoingQueue) {
+        this.outgoingQueue = outgoingQueue;
+    }
+
+    public String getDeadLetterQueue() {
+        return deadLetterQueue;
+    }
+
+    public void setDeadLetterQueue(String deadLetterQueue) {
+        this.deadLetterQueue = deadLetterQueue;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getBatchTimeout() {
+        return batchTimeout;
+    }
+
+    public void setBatchTimeout(long batchTimeout) {
+        this.batchTimeout = batchTimeout;
+    }
+
+    public int getMaxTransientRetries() {
+        return maxTransientRetries;
+    }
+
+    public void setMaxTransientRetries(int maxTransientRetries) {
+        this.maxTransientRetries = maxTransientRetries;
+    }
+
+    /**
+     * Rolls back the database transaction when an outgoing message cannot be sent.
+     */
+    private static class SendFailedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        SendFailedException(JMSException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized JMSException getCause() {
+            return (JMSException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.apache.cmueller.camel.samples.camelone.batch;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.test.spring.CamelSpringTestSupport;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class JmsAndJdbcBatchTransactionSampleTest extends CamelSpringTestSupport {
+
+    private BrokerService broker;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        super.setUp();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "dataSourceTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+
+        super.tearDown();
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Test
+    public void moneyShouldBeTransfered() {
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+
+        for (int i = 0; i < 10; i++) {
+            template.sendBody("activemq:queue:transaction.incoming.batch", 10L);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.batch", 5000);
+            assertNotNull(exchange);
+        }
+
+        assertEquals(900, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1100, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    @Test
+    public void moneyShouldNotTransferedForPoisonMessageOnly() {
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+
+        template.sendBody("activemq:queue:transaction.incoming.batch", 10L);
+        template.sendBody("activemq:queue:transaction.incoming.batch", 10L);
+        template.sendBody("activemq:queue:transaction.incoming.batch", "poison");
+        template.sendBody("activemq:queue:transaction.incoming.batch", 10L);
+        template.sendBody("activemq:queue:transaction.incoming.batch", 10L);
+
+        Exchange exchange = consumer.receive("activemq:queue:ActiveMQ.DLQ", 5000);
+        assertNotNull(exchange);
+        assertEquals("poison", exchange.getIn().getBody(String.class));
+        assertNull(consumer.receive("activemq:queue:ActiveMQ.DLQ", 1000));
+
+        for (int i = 0; i < 4; i++) {
+            exchange = consumer.receive("activemq:queue:transaction.outgoing.batch", 5000);
+            assertNotNull(exchange);
+        }
+
+        assertEquals(960, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1040, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcBatchTransactionSampleTest-context.xml");
+    }
+}
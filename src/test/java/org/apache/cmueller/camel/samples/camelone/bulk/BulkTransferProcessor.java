@@ -0,0 +1,134 @@
+package org.apache.cmueller.camel.samples.camelone.bulk;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Streaming ingestion of a transfer file against the {@code account} table:
+ * <pre>
+ * from("file:settlement?noop=true")
+ *     .split().method("bulkTransferProcessor", "chunks").streaming().stopOnException()
+ *         .to("direct:chunk");
+ *
+ * from("direct:chunk").transacted("PROPAGATION_REQUIRED").to("bean:bulkTransferProcessor?method=process");
+ * </pre>
+ * {@link #chunks(File)} reads the file lazily from the offset committed last, {@link #process(TransferChunk)} applies
+ * a chunk and stores its end offset in the {@code bulk_transfer_checkpoint} table, in the same transaction. After a
+ * crash, the file is read again from the first chunk which didn't commit. The checkpoint is keyed by the name, the size
+ * and the modification time of the file, so a changed file is transferred from its start. The last chunk of a file
+ * deletes its checkpoint.
+ */
+public class BulkTransferProcessor implements InitializingBean {
+
+    static final String CHECKPOINT_TABLE = "bulk_transfer_checkpoint";
+    static final String CREATE_CHECKPOINT_TABLE = "CREATE TABLE " + CHECKPOINT_TABLE + " (file_key VARCHAR(300) NOT NULL PRIMARY KEY, file_offset BIGINT NOT NULL)";
+
+    private DataSource dataSource;
+    private int chunkSize = 1000;
+    private int windowSize = 64 * 1024 * 1024;
+
+    private JdbcTemplate jdbc;
+
+    public void afterPropertiesSet() throws Exception {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("Property 'dataSource' is required");
+        }
+
+        jdbc = new JdbcTemplate(dataSource);
+        DatabaseUtil.createTableIfNecessary(dataSource, CHECKPOINT_TABLE, CREATE_CHECKPOINT_TABLE);
+    }
+
+    public TransferFileReader chunks(File file) throws IOException {
+        return new TransferFileReader(file, getCommittedOffset(file), chunkSize, windowSize);
+    }
+
+    public void process(TransferChunk chunk) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("A chunk must be processed in a transaction, together with its checkpoint");
+        }
+
+        long committedOffset = getCommittedOffset(chunk.getFileKey());
+        if (chunk.getStartOffset() != committedOffset) {
+            throw new IllegalStateException(chunk + " doesn't continue at the committed offset " + committedOffset);
+        }
+
+        // one update per account and chunk, in a fixed order against deadlocks with concurrent transfers
+        Map<String, Long> deltas = new TreeMap<String, Long>();
+        for (Transfer transfer : chunk.getTransfers()) {
+            add(deltas, transfer.getDebitAccount(), -transfer.getAmount());
+            add(deltas, transfer.getCreditAccount(), transfer.getAmount());
+        }
+        List<Object[]> updates = new ArrayList<Object[]>(deltas.size());
+        for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+            updates.add(new Object[] {delta.getValue(), delta.getKey()});
+        }
+        int[] counts = jdbc.batchUpdate("UPDATE account SET balance = balance + ? WHERE name = ?", updates);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                throw new IllegalArgumentException("Unknown account " + updates.get(i)[1] + " in " + chunk);
+            }
+        }
+
+        if (chunk.isLast()) {
+            jdbc.update("DELETE FROM " + CHECKPOINT_TABLE + " WHERE file_key = ?", chunk.getFileKey());
+        } else if (jdbc.update("UPDATE " + CHECKPOINT_TABLE + " SET file_offset = ? WHERE file_key = ?", chunk.getEndOffset(), chunk.getFileKey()) == 0) {
+            jdbc.update("INSERT INTO " + CHECKPOINT_TABLE + " (file_key, file_offset) VALUES (?, ?)", chunk.getFileKey(), chunk.getEndOffset());
+        }
+    }
+
+    /**
+     * @return the offset where the file continues, 0 if it was not started or is completed
+     */
+    public long getCommittedOffset(File file) {
+        return getCommittedOffset(TransferFileReader.fileKey(file));
+    }
+
+    private long getCommittedOffset(String fileKey) {
+        try {
+            return jdbc.queryForObject("SELECT file_offset FROM " + CHECKPOINT_TABLE + " WHERE file_key = ?", Long.class, fileKey);
+        } catch (EmptyResultDataAccessException e) {
+            return 0;
+        }
+    }
+
+    private static void add(Map<String, Long> deltas, String account, long amount) {
+        Long delta = deltas.get(account);
+        deltas.put(account, delta == null ? amount : delta + amount);
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+}
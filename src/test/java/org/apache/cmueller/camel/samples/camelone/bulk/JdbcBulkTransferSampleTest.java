@@ -0,0 +1,201 @@
+package org.apache.cmueller.camel.samples.camelone.bulk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.camel.CamelExecutionException;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.spring.CamelSpringTestSupport;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class JdbcBulkTransferSampleTest extends CamelSpringTestSupport {
+
+    private static final int ACCOUNTS = 64;
+    private static final long BALANCE = 1000000;
+    private static final String UNKNOWN_ACCOUNT = DatabaseUtil.accountName(ACCOUNTS);
+
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private BulkTransferProcessor processor;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "transactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+        DatabaseUtil.createAccounts(transactionTemplate, jdbc, ACCOUNTS, BALANCE);
+        processor = context.getRegistry().lookupByNameAndType("bulkTransferProcessor", BulkTransferProcessor.class);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                jdbc.execute("DROP TABLE " + BulkTransferProcessor.CHECKPOINT_TABLE);
+            }
+        });
+
+        super.tearDown();
+    }
+
+    @Test
+    public void fileShouldBeTransferedInCheckpointedChunks() throws Exception {
+        File file = writeTransferFile("settlement-1.csv", 100000, -1);
+
+        template.sendBody("direct:bulkTransfer", file);
+
+        // the last chunk deleted the checkpoint of the completed file
+        assertEquals(0, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT COUNT(*) FROM " + BulkTransferProcessor.CHECKPOINT_TABLE));
+        assertBalances(100000, -1);
+    }
+
+    @Test
+    public void transferShouldResumeFromLastCommittedChunk() throws Exception {
+        // the unknown account in line 5500 fails the sixth chunk
+        File file = writeTransferFile("settlement-2.csv", 10000, 5500);
+
+        try {
+            template.sendBody("direct:bulkTransfer", file);
+            fail("CamelExecutionException expected");
+        } catch (CamelExecutionException e) {
+            // expected
+        }
+        assertBalances(5000, 5500);
+        long offset = processor.getCommittedOffset(file);
+
+        // the account is opened, the restart continues with the failed chunk of the unchanged file
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                jdbc.update("INSERT INTO account (name, balance) VALUES(?, 0)", UNKNOWN_ACCOUNT);
+            }
+        });
+        TransferFileReader reader = processor.chunks(file);
+        try {
+            assertEquals(offset, reader.next().getStartOffset());
+        } finally {
+            reader.close();
+        }
+
+        template.sendBody("direct:bulkTransfer", file);
+
+        assertEquals(0, processor.getCommittedOffset(file));
+        assertBalances(10000, 5500);
+    }
+
+    @Test
+    public void changedFileShouldBeTransferedFromTheStart() throws Exception {
+        File file = writeTransferFile("settlement-3.csv", 10000, 5500);
+
+        try {
+            template.sendBody("direct:bulkTransfer", file);
+            fail("CamelExecutionException expected");
+        } catch (CamelExecutionException e) {
+            // expected
+        }
+        assertTrue(processor.getCommittedOffset(file) > 0);
+
+        // the next file with the same name doesn't continue at the checkpoint of the previous one
+        file = writeTransferFile("settlement-3.csv", 10000, -1);
+        assertTrue(file.setLastModified(file.lastModified() + 1000));
+        TransferFileReader reader = processor.chunks(file);
+        try {
+            assertEquals(0, reader.next().getStartOffset());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private File writeTransferFile(String name, int transfers, int unknownAccountLine) throws IOException {
+        File file = new File("target/settlement", name);
+        file.getParentFile().mkdirs();
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "US-ASCII");
+        try {
+            for (int i = 0; i < transfers; i++) {
+                String credit = i == unknownAccountLine ? UNKNOWN_ACCOUNT : DatabaseUtil.accountName(credit(i));
+                writer.write(DatabaseUtil.accountName(debit(i)) + "," + credit + "," + amount(i) + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private void assertBalances(int appliedTransfers, int unknownAccountLine) {
+        Map<String, Long> expected = new HashMap<String, Long>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            expected.put(DatabaseUtil.accountName(i), BALANCE);
+        }
+        if (unknownAccountLine >= 0 && unknownAccountLine < appliedTransfers) {
+            expected.put(UNKNOWN_ACCOUNT, 0L);
+        }
+        for (int i = 0; i < appliedTransfers; i++) {
+            String debit = DatabaseUtil.accountName(debit(i));
+            String credit = i == unknownAccountLine ? UNKNOWN_ACCOUNT : DatabaseUtil.accountName(credit(i));
+            expected.put(debit, expected.get(debit) - amount(i));
+            expected.put(credit, expected.get(credit) + amount(i));
+        }
+
+        for (Map.Entry<String, Long> account : expected.entrySet()) {
+            assertEquals(account.getKey(), account.getValue().longValue(),
+                DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = '" + account.getKey() + "'"));
+        }
+        assertEquals(ACCOUNTS * BALANCE, DatabaseUtil.queryForLong(transactionTemplate, jdbc,
+            "SELECT SUM(balance) from account where name LIKE 'account-%'"));
+    }
+
+    private static int debit(int line) {
+        return line % ACCOUNTS;
+    }
+
+    private static int credit(int line) {
+        return (line * 7 + 1) % ACCOUNTS == debit(line) ? (line + 1) % ACCOUNTS : (line * 7 + 1) % ACCOUNTS;
+    }
+
+    private static long amount(int line) {
+        return 1 + line % 10;
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                // the file is split lazily into chunks, every chunk commits in its own transaction
+                from("direct:bulkTransfer")
+                    .split().method("bulkTransferProcessor", "chunks").streaming().stopOnException()
+                        .to("direct:chunk");
+
+                from("direct:chunk")
+                    .transacted("PROPAGATION_REQUIRED")
+                    .to("bean:bulkTransferProcessor?method=process");
+            }
+        };
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JdbcBulkTransferSampleTest-context.xml");
+    }
+}
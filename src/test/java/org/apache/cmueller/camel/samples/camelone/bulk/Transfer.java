@@ -0,0 +1,29 @@
+package org.apache.cmueller.camel.samples.camelone.bulk;
+
+/**
+ * One line {@code <debit account>,<credit account>,<amount>} of a transfer file.
+ */
+public class Transfer {
+
+    private final String debitAccount;
+    private final String creditAccount;
+    private final long amount;
+
+    public Transfer(String debitAccount, String creditAccount, long amount) {
+        this.debitAccount = debitAccount;
+        this.creditAccount = creditAccount;
+        this.amount = amount;
+    }
+
+    public String getDebitAccount() {
+        return debitAccount;
+    }
+
+    public String getCreditAccount() {
+        return creditAccount;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+}
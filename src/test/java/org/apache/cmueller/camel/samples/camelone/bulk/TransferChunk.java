@@ -0,0 +1,63 @@
+package org.apache.cmueller.camel.samples.camelone.bulk;
+
+import java.util.List;
+
+/**
+ * The transfers of a transfer file between two byte offsets, which are committed in one transaction.
+ */
+public class TransferChunk {
+
+    private final String fileName;
+    private final String fileKey;
+    private final long startOffset;
+    private final long endOffset;
+    private final boolean last;
+    private final List<Transfer> transfers;
+
+    public TransferChunk(String fileName, String fileKey, long startOffset, long endOffset, boolean last, List<Transfer> transfers) {
+        this.fileName = fileName;
+        this.fileKey = fileKey;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+        this.last = last;
+        this.transfers = transfers;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return the key of the checkpoint, see {@link TransferFileReader#fileKey(java.io.File)}
+     */
+    public String getFileKey() {
+        return fileKey;
+    }
+
+    public long getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * @return the offset behind the last transfer of this chunk, where a restart continues after this chunk committed
+     */
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * @return whether this chunk ends at the end of the file
+     */
+    public boolean isLast() {
+        return last;
+    }
+
+    public List<Transfer> getTransfers() {
+        return transfers;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferChunk[" + fileName + ", " + startOffset + "-" + endOffset + ", " + transfers.size() + " transfers]";
+    }
+}
@@ -0,0 +1,154 @@
+package org.apache.cmueller.camel.samples.camelone.bulk;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a transfer file lazily as {@link TransferChunk}s, starting at a given byte offset. The file is mapped window
+ * by window, so only one window and the transfers of one chunk are in memory, whatever the size of the file is. A
+ * line which crosses the end of a window is read again from a window starting at the line.
+ */
+public class TransferFileReader implements Iterator<TransferChunk>, Closeable {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private final String fileName;
+    private final String fileKey;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private final int chunkSize;
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+    private TransferChunk next;
+
+    public TransferFileReader(File file, long offset, int chunkSize, int windowSize) throws IOException {
+        this.fileName = file.getName();
+        this.fileKey = fileKey(file);
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.size = channel.size();
+        this.chunkSize = chunkSize;
+        this.windowSize = windowSize;
+        this.position = offset;
+    }
+
+    /**
+     * @return the name, the size and the modification time of the file, so that a new file with the name of an earlier
+     *         one does not continue at its checkpoint
+     */
+    public static String fileKey(File file) {
+        return file.getName() + "-" + file.length() + "-" + file.lastModified();
+    }
+
+    public boolean hasNext() {
+        if (next == null) {
+            next = readChunk();
+        }
+        return next != null;
+    }
+
+    public TransferChunk next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        TransferChunk chunk = next;
+        next = null;
+        return chunk;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private TransferChunk readChunk() {
+        long start = position;
+        List<Transfer> transfers = new ArrayList<Transfer>(chunkSize);
+        while (transfers.size() < chunkSize && position < size) {
+            Transfer transfer = readLine();
+            if (transfer != null) {
+                transfers.add(transfer);
+            }
+        }
+        return transfers.isEmpty() ? null : new TransferChunk(fileName, fileKey, start, position, position >= size, transfers);
+    }
+
+    /**
+     * @return the transfer of the line at the current position, or {@code null} for an empty line
+     */
+    private Transfer readLine() {
+        map(position);
+        int begin = (int) (position - windowStart);
+        int end = indexOfLineEnd(begin);
+        if (end < 0) {
+            if (windowStart + window.limit() < size) {
+                // the line continues in the next window
+                map(position, true);
+                begin = 0;
+                end = indexOfLineEnd(begin);
+                if (end < 0) {
+                    throw new IllegalStateException("Line at offset " + position + " of " + fileName + " is longer than the window");
+                }
+            } else {
+                end = window.limit();
+            }
+        }
+
+        byte[] line = new byte[end - begin];
+        for (int i = 0; i < line.length; i++) {
+            line[i] = window.get(begin + i);
+        }
+        position = windowStart + Math.min(end + 1, window.limit());
+
+        String text = new String(line, US_ASCII).trim();
+        if (text.isEmpty()) {
+            return null;
+        }
+        String[] fields = text.split(",");
+        if (fields.length != 3) {
+            throw new IllegalArgumentException("Invalid transfer '" + text + "' at offset " + (windowStart + begin) + " of " + fileName);
+        }
+        return new Transfer(fields[0].trim(), fields[1].trim(), Long.parseLong(fields[2].trim()));
+    }
+
+    private int indexOfLineEnd(int begin) {
+        for (int i = begin; i < window.limit(); i++) {
+            if (window.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void map(long offset) {
+        map(offset, false);
+    }
+
+    private void map(long offset, boolean force) {
+        if (!force && window != null && offset >= windowStart && offset < windowStart + window.limit()) {
+            return;
+        }
+        try {
+            windowStart = offset;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(windowSize, size - offset));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not map " + fileName + " at offset " + offset, e);
+        }
+    }
+}
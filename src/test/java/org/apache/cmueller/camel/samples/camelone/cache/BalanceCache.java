@@ -0,0 +1,324 @@
+package org.apache.cmueller.camel.samples.camelone.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.cmueller.camel.samples.camelone.metrics.PhaseHistogram;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Read-through cache of committed account balances, for lookups which would otherwise run a transaction and a query
+ * each, and wait for the row locks of the transfers. The transacted routes evict the accounts they update after their
+ * commit, so a reader gets the balance before a transfer until it commits, and never one of a transfer which is rolled
+ * back:
+ * <pre>
+ * from("seda:transaction.incoming.one")
+ *     .transacted("PROPAGATION_REQUIRED")
+ *     .to("sql:UPDATE account ...")
+ *     .process(balanceCache.invalidateOnCommit("foo", "bar"));
+ * </pre>
+ * The evicted balances are read again on the next lookup instead of being updated after the commit, as only the
+ * database knows them then. A load which races with a commit is not cached: every invalidation increments the
+ * generation of the stripe of the account, and the loaded balance is only put if it did not change during the load.
+ * <p>
+ * Lookups within a transaction bypass the cache, they read in the transaction of the caller and see its own updates,
+ * which must not be cached. The cache holds up to {@code maxSize} accounts, split across {@code stripes} LRU maps with
+ * a lock each, so that the lookups of different accounts rarely wait for each other. Each stripe evicts its least
+ * recently used account once it holds its share of {@code maxSize}. For writers which don't invalidate,
+ * {@code maxAgeMillis} bounds how long a balance is served.
+ * <p>
+ * The metrics: the hit rate, the age of the served balances, and the staleness, the time from the update of an
+ * account until its eviction after the commit, during which the readers are served the previous balance.
+ */
+public class BalanceCache implements BalanceCacheMBean, InitializingBean {
+
+    static final String SELECT = "SELECT balance FROM account WHERE name = ?";
+
+    private DataSource dataSource;
+    private PlatformTransactionManager transactionManager;
+    private int maxSize = 10000;
+    private int stripes = 16;
+    private long maxAgeMillis;
+
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private long maxAgeNanos;
+    private Stripe[] balances;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bypasses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final PhaseHistogram servedAge = new PhaseHistogram("cache", "balance", "servedAge");
+    private final PhaseHistogram staleness = new PhaseHistogram("cache", "balance", "staleness");
+
+    public void afterPropertiesSet() throws Exception {
+        if (dataSource == null || transactionManager == null) {
+            throw new IllegalArgumentException("Properties 'dataSource' and 'transactionManager' are required");
+        }
+
+        jdbc = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+
+        // the shares add up to maxSize
+        int count = Math.max(1, Math.min(stripes, maxSize));
+        balances = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            balances[i] = new Stripe(maxSize / count + (i < maxSize % count ? 1 : 0));
+        }
+    }
+
+    /**
+     * @return the committed balance of the account, or within a transaction the balance the transaction sees
+     */
+    public long getBalance(final String account) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            bypasses.incrementAndGet();
+            return load(account);
+        }
+
+        long now = System.nanoTime();
+        Stripe stripe = stripeOf(account);
+        CachedBalance cached;
+        long loadGeneration;
+        synchronized (stripe) {
+            cached = stripe.get(account);
+            loadGeneration = stripe.generation;
+        }
+        if (cached != null && (maxAgeNanos == 0 || now - cached.loadedAt < maxAgeNanos)) {
+            hits.incrementAndGet();
+            servedAge.record(now - cached.loadedAt);
+            return cached.balance;
+        }
+
+        misses.incrementAndGet();
+        long balance = transactionTemplate.execute(new TransactionCallback<Long>() {
+            public Long doInTransaction(TransactionStatus status) {
+                return load(account);
+            }
+        });
+
+        synchronized (stripe) {
+            if (stripe.generation == loadGeneration) {
+                stripe.put(account, new CachedBalance(balance, now));
+            }
+        }
+        return balance;
+    }
+
+    private Stripe stripeOf(String account) {
+        int hash = account.hashCode();
+        return balances[((hash ^ (hash >>> 16)) & 0x7fffffff) % balances.length];
+    }
+
+    private long load(String account) {
+        return jdbc.queryForObject(SELECT, Long.class, account);
+    }
+
+    /**
+     * @return a processor which evicts the accounts after the commit of the transaction of the route
+     */
+    public Processor invalidateOnCommit(final String... accounts) {
+        return new Processor() {
+            public void process(Exchange exchange) throws Exception {
+                registerInvalidation(accounts);
+            }
+        };
+    }
+
+    /**
+     * Evicts the accounts after the commit of the running transaction, nothing happens if it is rolled back.
+     */
+    public void registerInvalidation(final String... accounts) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Invalidations must be registered in the transaction of the balance updates");
+        }
+
+        final long updated = System.nanoTime();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                invalidate(accounts);
+                staleness.record(System.nanoTime() - updated);
+            }
+        });
+    }
+
+    /**
+     * Evicts the accounts at once, for updates outside of a transaction.
+     */
+    public void invalidate(String... accounts) {
+        for (String account : accounts) {
+            Stripe stripe = stripeOf(account);
+            synchronized (stripe) {
+                stripe.generation++;
+                stripe.remove(account);
+            }
+        }
+        invalidations.addAndGet(accounts.length);
+    }
+
+    public void clear() {
+        for (Stripe stripe : balances) {
+            synchronized (stripe) {
+                stripe.generation++;
+                stripe.clear();
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the lookups within a transaction, which read from the database
+     */
+    public long getBypassCount() {
+        return bypasses.get();
+    }
+
+    public double getHitRate() {
+        long hits = this.hits.get();
+        long lookups = hits + misses.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return the accounts evicted because the cache was full
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (Stripe stripe : balances) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    public double getServedAgeP99Micros() {
+        return servedAge.getP99Micros();
+    }
+
+    public double getStalenessMeanMicros() {
+        return staleness.getMeanMicros();
+    }
+
+    public double getStalenessP99Micros() {
+        return staleness.getP99Micros();
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public PlatformTransactionManager getTransactionManager() {
+        return transactionManager;
+    }
+
+    /**
+     * @param transactionManager the transaction manager of the loads, the one of the {@code dataSource}
+     */
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    /**
+     * @param stripes the number of LRU maps with a lock each, at most {@code maxSize}
+     */
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /**
+     * @param maxAgeMillis how long a balance is served, 0 for as long as it is not invalidated
+     */
+    public void setMaxAgeMillis(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * An access-order LRU map of a share of the accounts, guarded by itself, as the access order of a lookup changes
+     * the map.
+     */
+    private final class Stripe extends LinkedHashMap<String, CachedBalance> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private long generation;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedBalance> eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class CachedBalance {
+        private final long balance;
+        private final long loadedAt;
+
+        CachedBalance(long balance, long loadedAt) {
+            this.balance = balance;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
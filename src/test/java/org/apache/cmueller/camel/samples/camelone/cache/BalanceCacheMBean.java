@@ -0,0 +1,28 @@
+package org.apache.cmueller.camel.samples.camelone.cache;
+
+public interface BalanceCacheMBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getBypassCount();
+
+    double getHitRate();
+
+    long getEvictionCount();
+
+    long getInvalidationCount();
+
+    int getSize();
+
+    int getMaxSize();
+
+    double getServedAgeP99Micros();
+
+    double getStalenessMeanMicros();
+
+    double getStalenessP99Micros();
+
+    void clear();
+}
@@ -0,0 +1,154 @@
+package org.apache.cmueller.camel.samples.camelone.cache;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.CamelExecutionException;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.spring.CamelSpringTestSupport;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.ring.RingEndpoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class JdbcBalanceCacheTransactionSampleTest extends CamelSpringTestSupport {
+
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private BalanceCache balanceCache;
+
+    private volatile long balanceWithinTransaction;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "transactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+
+        super.tearDown();
+    }
+
+    @Test
+    public void moneyShouldBeTransfered() throws Exception {
+        assertEquals(1000, balanceCache.getBalance("foo"));
+        assertEquals(1000, balanceCache.getBalance("foo"));
+        assertEquals(1, balanceCache.getHitCount());
+
+        template.requestBody("ring:transaction.incoming.one", 100L);
+
+        // evicted after the commit, and read again
+        assertEquals(900, balanceCache.getBalance("foo"));
+        assertEquals(1100, balanceCache.getBalance("bar"));
+        assertEquals(1, balanceCache.getHitCount());
+        assertEquals(3, balanceCache.getMissCount());
+        assertEquals(2, balanceCache.getInvalidationCount());
+    }
+
+    @Test
+    public void moneyShouldNotTransfered() throws Exception {
+        assertEquals(1000, balanceCache.getBalance("foo"));
+
+        try {
+            template.requestBody("ring:transaction.incoming.two", 100L);
+            fail("CamelExecutionException expected");
+        } catch (CamelExecutionException e) {
+            assertIsInstanceOf(SQLException.class, e.getCause());
+        }
+
+        // the route saw its own update, which was neither cached nor evicted
+        assertEquals(900, balanceWithinTransaction);
+        assertEquals(1, balanceCache.getBypassCount());
+        assertEquals(1000, balanceCache.getBalance("foo"));
+        assertEquals(1, balanceCache.getHitCount());
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+    }
+
+    @Test
+    public void moneyShouldNotTransfered2() throws Exception {
+        assertEquals(1000, balanceCache.getBalance("foo"));
+        assertEquals(1000, balanceCache.getBalance("bar"));
+
+        template.sendBody("ring:transaction.incoming.three", 100L);
+        RingEndpoint endpoint = context.getEndpoint("ring:transaction.incoming.three", RingEndpoint.class);
+        assertTrue(endpoint.awaitCompleted(1, 5, TimeUnit.SECONDS));
+
+        // the invalidation was registered, but the transaction rolled back
+        assertEquals(0, balanceCache.getInvalidationCount());
+        assertEquals(1000, balanceCache.getBalance("foo"));
+        assertEquals(1000, balanceCache.getBalance("bar"));
+        assertEquals(2, balanceCache.getHitCount());
+    }
+
+    @Test
+    public void cacheShouldBeBounded() throws Exception {
+        DatabaseUtil.createAccounts(transactionTemplate, jdbc, 200, 100);
+
+        for (int i = 0; i < 200; i++) {
+            assertEquals(100, balanceCache.getBalance(DatabaseUtil.accountName(i)));
+        }
+
+        assertEquals(100, balanceCache.getSize());
+        assertEquals(100, balanceCache.getEvictionCount());
+        // the least recently used ones of each stripe were evicted, all stripes were full
+        assertEquals(100, balanceCache.getBalance(DatabaseUtil.accountName(199)));
+        assertEquals(100, balanceCache.getBalance(DatabaseUtil.accountName(0)));
+        assertEquals(1, balanceCache.getHitCount());
+        assertEquals(201, balanceCache.getMissCount());
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        balanceCache = context.getRegistry().lookupByNameAndType("balanceCache", BalanceCache.class);
+
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("ring:transaction.incoming.one")
+                    .transacted("PROPAGATION_REQUIRED")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource")
+                    .process(balanceCache.invalidateOnCommit("foo", "bar"));
+
+                from("ring:transaction.incoming.two")
+                    .transacted("PROPAGATION_REQUIRED")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            balanceWithinTransaction = balanceCache.getBalance("foo");
+                        }
+                    })
+                    .throwException(new SQLException("forced exception for test"))
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource")
+                    .process(balanceCache.invalidateOnCommit("foo", "bar"));
+
+                from("ring:transaction.incoming.three")
+                    .transacted("PROPAGATION_REQUIRED")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource")
+                    .process(balanceCache.invalidateOnCommit("foo", "bar"))
+                    .throwException(new SQLException("forced exception for test"));
+            }
+        };
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JdbcBalanceCacheTransactionSampleTest-context.xml");
+    }
+}
@@ -0,0 +1,118 @@
+package org.apache.cmueller.camel.samples.camelone.codec;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.spi.DataFormat;
+import org.apache.camel.test.spring.CamelSpringTestSupport;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class JmsAndJdbcBinaryTransferSampleTest extends CamelSpringTestSupport {
+
+    private BrokerService broker;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        super.setUp();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "dataSourceTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+        DatabaseUtil.createAccounts(transactionTemplate, jdbc, 2, 1000);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+
+        super.tearDown();
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Test
+    public void moneyShouldBeTransfered() {
+        TransferCommand command = new TransferCommand(0, 1, 100, UUID.randomUUID());
+        template.sendBody("activemq:queue:transaction.incoming.one", TransferCommandConverter.toBytes(command));
+
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.one", 5000);
+        assertNotNull(exchange);
+        // a BytesMessage, converted by the type converter
+        assertEquals(command, exchange.getIn().getBody(TransferCommand.class));
+
+        assertEquals(900, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'account-0'"));
+        assertEquals(1100, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'account-1'"));
+    }
+
+    @Test
+    public void commandShouldBeDecodedIntoReusedInstance() {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * TransferCommandCodec.SIZE);
+        TransferCommand first = new TransferCommand(1, 2, 100, UUID.randomUUID());
+        TransferCommand second = new TransferCommand(3, 4, Long.MAX_VALUE, UUID.randomUUID());
+        TransferCommandCodec.encode(first, buffer);
+        TransferCommandCodec.encode(second, buffer);
+        assertEquals(2 * TransferCommandCodec.SIZE, buffer.position());
+
+        buffer.flip();
+        TransferCommand decoded = new TransferCommand();
+        assertSame(decoded, TransferCommandCodec.decode(buffer, decoded));
+        assertEquals(first, decoded);
+        TransferCommandCodec.decode(buffer, decoded);
+        assertEquals(second, decoded);
+        assertEquals(second.getIdempotencyKey(), decoded.getIdempotencyKey());
+    }
+
+    @Test
+    public void accountIdsBeyondIntShouldNotBeTruncated() {
+        TransferCommand command = new TransferCommand(1L << 32, Long.MAX_VALUE, 100, UUID.randomUUID());
+
+        assertEquals("account-4294967296", command.getDebitAccount());
+        assertEquals("account-" + Long.MAX_VALUE, command.getCreditAccount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void otherBytesShouldBeRejected() {
+        TransferCommandConverter.toTransferCommand(new byte[TransferCommandCodec.SIZE]);
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        context.getTypeConverterRegistry().addTypeConverters(new TransferCommandConverter());
+        final DataFormat transferCommand = context.getRegistry().lookupByNameAndType("transferCommand", DataFormat.class);
+
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("activemqTx:queue:transaction.incoming.one")
+                    .unmarshal(transferCommand)
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .to("sql:UPDATE account SET balance = balance - :#${body.amount} WHERE name = :#${body.debitAccount}?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = balance + :#${body.amount} WHERE name = :#${body.creditAccount}?dataSource=dataSource")
+                    .marshal(transferCommand)
+                    .to("activemqTx:queue:transaction.outgoing.one");
+            }
+        };
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcBinaryTransferSampleTest-context.xml");
+    }
+}
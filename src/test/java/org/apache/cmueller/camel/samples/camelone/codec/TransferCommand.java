@@ -0,0 +1,89 @@
+package org.apache.cmueller.camel.samples.camelone.codec;
+
+import java.util.UUID;
+
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+
+/**
+ * A transfer of {@code amount} from the debit to the credit account, identified by its idempotency key. It is mutable,
+ * so that {@link TransferCommandCodec#decode(java.nio.ByteBuffer, TransferCommand)} can reuse an instance.
+ */
+public class TransferCommand {
+
+    private long debitAccountId;
+    private long creditAccountId;
+    private long amount;
+    private long idempotencyKeyHigh;
+    private long idempotencyKeyLow;
+
+    public TransferCommand() {
+    }
+
+    public TransferCommand(long debitAccountId, long creditAccountId, long amount, UUID idempotencyKey) {
+        set(debitAccountId, creditAccountId, amount, idempotencyKey.getMostSignificantBits(), idempotencyKey.getLeastSignificantBits());
+    }
+
+    public TransferCommand set(long debitAccountId, long creditAccountId, long amount, long idempotencyKeyHigh, long idempotencyKeyLow) {
+        this.debitAccountId = debitAccountId;
+        this.creditAccountId = creditAccountId;
+        this.amount = amount;
+        this.idempotencyKeyHigh = idempotencyKeyHigh;
+        this.idempotencyKeyLow = idempotencyKeyLow;
+        return this;
+    }
+
+    public long getDebitAccountId() {
+        return debitAccountId;
+    }
+
+    public long getCreditAccountId() {
+        return creditAccountId;
+    }
+
+    /**
+     * @return the name of the debit account in the {@code account} table, see {@link DatabaseUtil#accountName(long)}
+     */
+    public String getDebitAccount() {
+        return DatabaseUtil.accountName(debitAccountId);
+    }
+
+    public String getCreditAccount() {
+        return DatabaseUtil.accountName(creditAccountId);
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public long getIdempotencyKeyHigh() {
+        return idempotencyKeyHigh;
+    }
+
+    public long getIdempotencyKeyLow() {
+        return idempotencyKeyLow;
+    }
+
+    public UUID getIdempotencyKey() {
+        return new UUID(idempotencyKeyHigh, idempotencyKeyLow);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof TransferCommand)) {
+            return false;
+        }
+        TransferCommand other = (TransferCommand) obj;
+        return debitAccountId == other.debitAccountId && creditAccountId == other.creditAccountId && amount == other.amount
+            && idempotencyKeyHigh == other.idempotencyKeyHigh && idempotencyKeyLow == other.idempotencyKeyLow;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (idempotencyKeyHigh ^ idempotencyKeyLow ^ (idempotencyKeyLow >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "TransferCommand[" + amount + " from " + debitAccountId + " to " + creditAccountId + ", key " + getIdempotencyKey() + "]";
+    }
+}
@@ -0,0 +1,60 @@
+package org.apache.cmueller.camel.samples.camelone.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed binary layout of a {@link TransferCommand}, {@value #SIZE} bytes in big-endian order:
+ * <pre>
+ * 0  short magic 0x5443 ("TC")
+ * 2  byte  version 1
+ * 3  byte  reserved
+ * 4  long  debit account id
+ * 12 long  credit account id
+ * 20 long  amount
+ * 28 long  idempotency key, most significant bits
+ * 36 long  idempotency key, least significant bits
+ * </pre>
+ * Encode and decode work on buffers and commands of the caller and allocate nothing.
+ */
+public final class TransferCommandCodec {
+
+    public static final int SIZE = 44;
+
+    static final short MAGIC = 0x5443;
+    static final byte VERSION = 1;
+
+    private TransferCommandCodec() {
+    }
+
+    /**
+     * Writes the command at the position of the buffer and advances it by {@value #SIZE}.
+     */
+    public static void encode(TransferCommand command, ByteBuffer buffer) {
+        buffer.putShort(MAGIC);
+        buffer.put(VERSION);
+        buffer.put((byte) 0);
+        buffer.putLong(command.getDebitAccountId());
+        buffer.putLong(command.getCreditAccountId());
+        buffer.putLong(command.getAmount());
+        buffer.putLong(command.getIdempotencyKeyHigh());
+        buffer.putLong(command.getIdempotencyKeyLow());
+    }
+
+    /**
+     * Reads the command at the position of the buffer into {@code command} and advances the buffer by {@value #SIZE}.
+     *
+     * @throws IllegalArgumentException if the buffer doesn't hold a transfer command of this version
+     */
+    public static TransferCommand decode(ByteBuffer buffer, TransferCommand command) {
+        if (buffer.remaining() < SIZE) {
+            throw new IllegalArgumentException("A transfer command has " + SIZE + " bytes, not " + buffer.remaining());
+        }
+        short magic = buffer.getShort();
+        byte version = buffer.get();
+        if (magic != MAGIC || version != VERSION) {
+            throw new IllegalArgumentException("Not a transfer command of version " + VERSION + ": magic " + magic + ", version " + version);
+        }
+        buffer.get();
+        return command.set(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+}
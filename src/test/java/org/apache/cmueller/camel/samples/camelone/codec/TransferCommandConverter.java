@@ -0,0 +1,27 @@
+package org.apache.cmueller.camel.samples.camelone.codec;
+
+import java.nio.ByteBuffer;
+
+import org.apache.camel.Converter;
+import org.apache.camel.TypeConverters;
+
+/**
+ * Converts between {@link TransferCommand}s and their binary layout, so a route can take a {@code BytesMessage} body
+ * as {@code TransferCommand}, e.g. {@code ${bodyAs(TransferCommand).amount}}, without an explicit unmarshal. Register
+ * it with {@code context.getTypeConverterRegistry().addTypeConverters(new TransferCommandConverter())}.
+ */
+@Converter
+public class TransferCommandConverter implements TypeConverters {
+
+    @Converter
+    public static TransferCommand toTransferCommand(byte[] bytes) {
+        return TransferCommandCodec.decode(ByteBuffer.wrap(bytes), new TransferCommand());
+    }
+
+    @Converter
+    public static byte[] toBytes(TransferCommand command) {
+        ByteBuffer buffer = ByteBuffer.allocate(TransferCommandCodec.SIZE);
+        TransferCommandCodec.encode(command, buffer);
+        return buffer.array();
+    }
+}
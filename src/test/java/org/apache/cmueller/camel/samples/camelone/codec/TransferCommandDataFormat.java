@@ -0,0 +1,46 @@
+package org.apache.cmueller.camel.samples.camelone.codec;
+
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.spi.DataFormat;
+
+/**
+ * Marshals a {@link TransferCommand} body to the {@value TransferCommandCodec#SIZE} bytes of its binary layout, which
+ * the JMS endpoints send as {@code BytesMessage}, and unmarshals them back:
+ * <pre>
+ * from("activemqTx:queue:transaction.incoming.one")
+ *     .unmarshal(transferCommand)
+ *     ...
+ *     .marshal(transferCommand)
+ *     .to("activemqTx:queue:transaction.outgoing.one");
+ * </pre>
+ * The buffers are reused per thread, only the body itself is allocated.
+ */
+public class TransferCommandDataFormat implements DataFormat {
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(TransferCommandCodec.SIZE);
+        }
+    };
+
+    public void marshal(Exchange exchange, Object graph, OutputStream stream) throws Exception {
+        TransferCommand command = exchange.getContext().getTypeConverter().mandatoryConvertTo(TransferCommand.class, exchange, graph);
+        ByteBuffer buffer = BUFFERS.get();
+        buffer.clear();
+        TransferCommandCodec.encode(command, buffer);
+        stream.write(buffer.array(), 0, buffer.position());
+    }
+
+    public Object unmarshal(Exchange exchange, InputStream stream) throws Exception {
+        ByteBuffer buffer = BUFFERS.get();
+        new DataInputStream(stream).readFully(buffer.array(), 0, TransferCommandCodec.SIZE);
+        buffer.clear();
+        return TransferCommandCodec.decode(buffer, new TransferCommand());
+    }
+}
@@ -0,0 +1,198 @@
+package org.apache.cmueller.camel.samples.camelone.delta;
+
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.test.spring.CamelSpringTestSupport;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.delta.NetDeltaAggregator.Epoch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class JmsAndJdbcNetDeltaTransactionSampleTest extends CamelSpringTestSupport {
+
+    private BrokerService broker;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+
+    private CountDownLatch latch;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        super.setUp();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "dataSourceTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        // created by the aggregator, and dropped in a transaction since the data source does not auto commit
+        if (transactionTemplate != null && jdbc != null) {
+            transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    jdbc.execute("DROP TABLE transfer_ledger");
+                }
+            });
+        }
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+
+        super.tearDown();
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Test
+    public void moneyShouldBeTransfered() {
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+
+        template.sendBody("activemq:queue:transaction.incoming.one", 100L);
+
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.one", 5000);
+        assertNotNull(exchange);
+
+        assertEquals(900, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1100, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    @Test
+    public void moneyShouldNotTransfered() {
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+
+        template.sendBody("activemq:queue:transaction.incoming.two", 100L);
+
+        Exchange exchange = consumer.receive("activemq:queue:ActiveMQ.DLQ", 5000);
+        assertNotNull(exchange);
+
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    @Test
+    public void redeliveredTransferShouldNotBeAppliedTwice() throws Exception {
+        template.sendBody("activemq:queue:transaction.incoming.one", 100L);
+
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.one", 5000);
+        assertNotNull(exchange);
+
+        // the redelivery of the applied message after a crash before its acknowledgement
+        String messageId = jdbc.queryForObject("SELECT message_id FROM transfer_ledger", String.class);
+        Exchange redelivered = new DefaultExchange(context);
+        redelivered.getIn().setBody(100L);
+        redelivered.getIn().setHeader("JMSMessageID", messageId);
+        redelivered.getIn().setHeader("JMSRedelivered", true);
+        context.getRegistry().lookupByNameAndType("netDeltaTransferProcessor", NetDeltaTransferProcessor.class).process(redelivered);
+
+        assertEquals(900, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1100, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    @Test
+    public void transferRedeliveredDuringItsFlushShouldNotBeAppliedTwice() throws Exception {
+        template.sendBody("activemq:queue:transaction.incoming.one", 100L);
+
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.one", 5000);
+        assertNotNull(exchange);
+
+        // the redelivery passed the ledger lookup before the first flush committed, so it joins a later epoch
+        String messageId = jdbc.queryForObject("SELECT message_id FROM transfer_ledger", String.class);
+        NetDeltaAggregator aggregator = context.getRegistry().lookupByNameAndType("netDeltaAggregator", NetDeltaAggregator.class);
+        Epoch redelivered = aggregator.transfer(messageId, true, "foo", "bar", 100L);
+        Epoch other = aggregator.transfer(null, false, "foo", "bar", 10L);
+
+        assertTrue(redelivered.await(5000, TimeUnit.MILLISECONDS));
+        assertTrue(other.await(5000, TimeUnit.MILLISECONDS));
+        assertEquals(890, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1110, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void transferShouldBeRejectedWhenStopped() throws Exception {
+        NetDeltaAggregator aggregator = context.getRegistry().lookupByNameAndType("netDeltaAggregator", NetDeltaAggregator.class);
+        aggregator.stop();
+
+        aggregator.transfer(null, false, "foo", "bar", 100L);
+    }
+
+    @Test
+    public void perfTest() throws Exception {
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+
+        // warm up
+        latch = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            template.sendBody("activemq:queue:transaction.incoming.four", new Long(0));
+        }
+        latch.await();
+
+        latch = new CountDownLatch(1000);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            template.sendBody("activemq:queue:transaction.incoming.four", new Long(1));
+        }
+        latch.await();
+        long end = System.currentTimeMillis();
+
+        System.out.println("duration: " + (end - start) + "ms");
+
+        assertEquals(0, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(2000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("activemqTx:queue:transaction.incoming.one")
+                    .transacted("PROPAGATION_REQUIRED_JMS")
+                    .to("activemqTx:queue:transaction.outgoing.one")
+                    .to("bean:netDeltaTransferProcessor");
+
+                from("activemqTx:queue:transaction.incoming.two")
+                    .transacted("PROPAGATION_REQUIRED_JMS")
+                    .throwException(new SQLException("forced exception for test"))
+                    .to("activemqTx:queue:transaction.outgoing.two")
+                    .to("bean:netDeltaTransferProcessor");
+
+                from("activemqTx:queue:transaction.incoming.four")
+                    .transacted("PROPAGATION_REQUIRED_JMS")
+                    .to("activemqTx:queue:transaction.outgoing.four")
+                    .to("bean:netDeltaTransferProcessor")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            latch.countDown();
+                        }
+                    });
+            }
+        };
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcNetDeltaTransactionSampleTest-context.xml");
+    }
+}
@@ -0,0 +1,438 @@
+package org.apache.cmueller.camel.samples.camelone.delta;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Write-behind stage which accumulates the net balance delta per account and flushes it as one
+ * {@code UPDATE account SET balance = balance + ?} per account.
+ * <p>
+ * The deltas are kept in lock-striped maps of primitive longs. Every transfer belongs to an {@link Epoch}, which
+ * completes once the flush covering it has committed. The flusher runs as soon as the previous flush is done, so the
+ * transfers arriving during a flush are grouped into the next one. Callers wait for their epoch before they
+ * acknowledge the JMS message, which keeps the acknowledgements behind the database commit.
+ * <p>
+ * A crash between the database commit and the acknowledgement redelivers the messages of the epoch. Their ids are
+ * therefore written to the {@code transfer_ledger} table in the same transaction as the deltas, and
+ * {@link #isApplied(String)} tells the redelivered messages which were already applied. A message can also be
+ * redelivered while the flush of its first delivery is still running, so it ends up in two epochs: the flush looks up
+ * the redelivered messages of its epoch in the ledger and takes back the transfers which an earlier flush committed.
+ * The ledger table is created at the start if it is missing. It is not pruned here; rows older than the redelivery
+ * window of the broker can be deleted at any time.
+ */
+public class NetDeltaAggregator implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NetDeltaAggregator.class);
+
+    private DataSource dataSource;
+    private PlatformTransactionManager transactionManager;
+    private int stripes = 16;
+    private String ledgerTable = "transfer_ledger";
+
+    private Stripe[] deltas;
+    private volatile Epoch current;
+    private final Object pending = new Object();
+    private boolean hasPending;
+
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private Thread flusher;
+    private volatile boolean running;
+
+    public void start() throws SQLException {
+        jdbc = new JdbcTemplate(dataSource);
+        DatabaseUtil.createTableIfNecessary(dataSource, ledgerTable, "CREATE TABLE " + ledgerTable + " (message_id VARCHAR(100) NOT NULL PRIMARY KEY)");
+        transactionTemplate = new TransactionTemplate(transactionManager);
+
+        deltas = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            deltas[i] = new Stripe();
+        }
+        current = new Epoch();
+
+        running = true;
+        flusher = new Thread(this, "NetDeltaAggregator");
+        flusher.start();
+    }
+
+    /**
+     * Flushes the pending transfers and fails the transfers which arrive afterwards, so that no caller waits for an
+     * epoch which is never flushed.
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        synchronized (pending) {
+            pending.notifyAll();
+        }
+        if (flusher != null) {
+            flusher.join();
+        }
+        if (deltas != null) {
+            List<Object[]> discarded = new ArrayList<Object[]>();
+            drain(discarded, 0).complete(new IllegalStateException("NetDeltaAggregator is stopped"));
+        }
+    }
+
+    /**
+     * Adds the transfer of {@code amount} from the debit to the credit account. Both deltas always end up in the same
+     * flush. A message which is already pending is not added again.
+     *
+     * @param messageId the id recorded in the ledger, or {@code null} to not record the transfer
+     * @param redelivered whether an earlier flush may have committed the transfer already
+     * @return the epoch which completes when the transfer is committed
+     * @throws IllegalStateException if the aggregator is stopped
+     */
+    public Epoch transfer(String messageId, boolean redelivered, String debitAccount, String creditAccount, long amount) {
+        int debitIndex = stripeIndex(debitAccount);
+        int creditIndex = stripeIndex(creditAccount);
+        Stripe debit = deltas[debitIndex];
+        Stripe credit = deltas[creditIndex];
+        // lock in stripe order, like drain(), to avoid deadlocks between opposite transfers
+        Stripe first = debitIndex <= creditIndex ? debit : credit;
+        Stripe second = debitIndex <= creditIndex ? credit : debit;
+
+        Epoch epoch;
+        synchronized (first) {
+            synchronized (second) {
+                if (!running) {
+                    throw new IllegalStateException("NetDeltaAggregator is stopped");
+                }
+                epoch = current;
+                if (messageId != null && !epoch.messageIds.add(messageId)) {
+                    return epoch;
+                }
+                if (messageId != null && redelivered) {
+                    epoch.redelivered.put(messageId, new Transfer(debitAccount, creditAccount, amount));
+                }
+                debit.add(debitAccount, -amount);
+                credit.add(creditAccount, amount);
+            }
+        }
+
+        synchronized (pending) {
+            hasPending = true;
+            pending.notifyAll();
+        }
+        return epoch;
+    }
+
+    /**
+     * Takes a transfer back out of its epoch, e.g. after the caller timed out, unless the epoch is flushing already.
+     *
+     * @return whether the transfer was taken back, otherwise the outcome of the epoch decides about it
+     */
+    public boolean cancel(Epoch epoch, String messageId, String debitAccount, String creditAccount, long amount) {
+        int debitIndex = stripeIndex(debitAccount);
+        int creditIndex = stripeIndex(creditAccount);
+        Stripe debit = deltas[debitIndex];
+        Stripe credit = deltas[creditIndex];
+        Stripe first = debitIndex <= creditIndex ? debit : credit;
+        Stripe second = debitIndex <= creditIndex ? credit : debit;
+
+        synchronized (first) {
+            synchronized (second) {
+                // drain() holds all stripes to swap the epoch, so it cannot start flushing this one meanwhile
+                if (epoch != current || (messageId != null && !epoch.messageIds.remove(messageId))) {
+                    return false;
+                }
+                if (messageId != null) {
+                    epoch.redelivered.remove(messageId);
+                }
+                debit.add(debitAccount, amount);
+                credit.add(creditAccount, -amount);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return whether the flush of the message has committed, read from the ledger
+     */
+    public boolean isApplied(String messageId) {
+        return jdbc.queryForObject("SELECT COUNT(*) FROM " + ledgerTable + " WHERE message_id = ?", Long.class, messageId) > 0;
+    }
+
+    public void run() {
+        while (running) {
+            synchronized (pending) {
+                while (!hasPending && running) {
+                    try {
+                        pending.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                hasPending = false;
+            }
+            flush();
+        }
+        flush();
+    }
+
+    void flush() {
+        final List<Object[]> updates = new ArrayList<Object[]>();
+        final Epoch epoch = drain(updates, 0);
+        if (updates.isEmpty() && epoch.messageIds.isEmpty()) {
+            epoch.complete(null);
+            return;
+        }
+
+        try {
+            transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    List<Object[]> accountUpdates = updates;
+                    Set<String> newMessageIds = epoch.messageIds;
+                    // the flushes run one after the other, so the ledger holds all transfers of the earlier epochs
+                    List<String> applied = new ArrayList<String>();
+                    for (String messageId : epoch.redelivered.keySet()) {
+                        if (isApplied(messageId)) {
+                            applied.add(messageId);
+                        }
+                    }
+                    if (!applied.isEmpty()) {
+                        accountUpdates = withoutTransfers(updates, epoch, applied);
+                        newMessageIds = new HashSet<String>(epoch.messageIds);
+                        newMessageIds.removeAll(applied);
+                    }
+
+                    if (!accountUpdates.isEmpty()) {
+                        jdbc.batchUpdate("UPDATE account SET balance = balance + ? WHERE name = ?", accountUpdates);
+                    }
+                    if (!newMessageIds.isEmpty()) {
+                        List<Object[]> messageIds = new ArrayList<Object[]>(newMessageIds.size());
+                        for (String messageId : newMessageIds) {
+                            messageIds.add(new Object[] {messageId});
+                        }
+                        jdbc.batchUpdate("INSERT INTO " + ledgerTable + " (message_id) VALUES (?)", messageIds);
+                    }
+                }
+            });
+            epoch.complete(null);
+        } catch (RuntimeException e) {
+            LOG.warn("Flush of " + updates.size() + " account deltas failed", e);
+            epoch.complete(e);
+        }
+    }
+
+    /**
+     * Locks all stripes, so that no transfer is half in the old and half in the new epoch, and swaps the epoch.
+     */
+    private Epoch drain(List<Object[]> updates, int index) {
+        if (index == deltas.length) {
+            Epoch epoch = current;
+            current = new Epoch();
+            for (Stripe stripe : deltas) {
+                stripe.drainTo(updates);
+            }
+            return epoch;
+        }
+        synchronized (deltas[index]) {
+            return drain(updates, index + 1);
+        }
+    }
+
+    /**
+     * @return the account updates without the transfers of the given redelivered messages
+     */
+    private static List<Object[]> withoutTransfers(List<Object[]> updates, Epoch epoch, List<String> messageIds) {
+        Map<String, Long> deltas = new LinkedHashMap<String, Long>();
+        for (Object[] update : updates) {
+            deltas.put((String) update[1], (Long) update[0]);
+        }
+        for (String messageId : messageIds) {
+            Transfer transfer = epoch.redelivered.get(messageId);
+            add(deltas, transfer.debitAccount, transfer.amount);
+            add(deltas, transfer.creditAccount, -transfer.amount);
+        }
+
+        List<Object[]> result = new ArrayList<Object[]>(deltas.size());
+        for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+            if (delta.getValue() != 0) {
+                result.add(new Object[] {delta.getValue(), delta.getKey()});
+            }
+        }
+        return result;
+    }
+
+    private static void add(Map<String, Long> deltas, String account, long amount) {
+        Long delta = deltas.get(account);
+        deltas.put(account, delta == null ? amount : delta + amount);
+    }
+
+    private int stripeIndex(String account) {
+        int hash = account.hashCode();
+        return ((hash ^ (hash >>> 16)) & 0x7fffffff) % deltas.length;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public PlatformTransactionManager getTransactionManager() {
+        return transactionManager;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public String getLedgerTable() {
+        return ledgerTable;
+    }
+
+    public void setLedgerTable(String ledgerTable) {
+        this.ledgerTable = ledgerTable;
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+
+    /**
+     * The transfers covered by one flush.
+     */
+    public static class Epoch {
+
+        private final Set<String> messageIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final Map<String, Transfer> redelivered = new ConcurrentHashMap<String, Transfer>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Exception failure;
+
+        void complete(Exception failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        /**
+         * Waits until the flush of this epoch has committed, or rethrows its failure.
+         *
+         * @return {@code false} if the epoch is not decided within the timeout
+         */
+        public boolean await(long timeout, TimeUnit unit) throws Exception {
+            if (!done.await(timeout, unit)) {
+                return false;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return true;
+        }
+
+        /**
+         * Waits until the flush of this epoch has committed, or rethrows its failure, without a timeout.
+         */
+        public void await() throws Exception {
+            done.await();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * A transfer of a redelivered message, which is taken back if an earlier epoch committed it.
+     */
+    private static final class Transfer {
+
+        private final String debitAccount;
+        private final String creditAccount;
+        private final long amount;
+
+        Transfer(String debitAccount, String creditAccount, long amount) {
+            this.debitAccount = debitAccount;
+            this.creditAccount = creditAccount;
+            this.amount = amount;
+        }
+    }
+
+    /**
+     * Open addressing map from account name to a primitive long delta, guarded by its own monitor.
+     */
+    private static class Stripe {
+
+        private String[] keys = new String[8];
+        private long[] values = new long[8];
+        private int size;
+
+        void add(String account, long delta) {
+            int index = indexOf(keys, account);
+            if (keys[index] == null) {
+                keys[index] = account;
+                if (++size > keys.length / 2) {
+                    resize();
+                    index = indexOf(keys, account);
+                }
+            }
+            values[index] += delta;
+        }
+
+        void drainTo(List<Object[]> updates) {
+            if (size == 0) {
+                return;
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    if (values[i] != 0) {
+                        updates.add(new Object[] {values[i], keys[i]});
+                    }
+                    keys[i] = null;
+                    values[i] = 0;
+                }
+            }
+            size = 0;
+        }
+
+        private void resize() {
+            String[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new String[oldKeys.length * 2];
+            values = new long[oldValues.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int index = indexOf(keys, oldKeys[i]);
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                }
+            }
+        }
+
+        private static int indexOf(String[] keys, String account) {
+            int mask = keys.length - 1;
+            int index = account.hashCode() & mask;
+            while (keys[index] != null && !keys[index].equals(account)) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+    }
+}
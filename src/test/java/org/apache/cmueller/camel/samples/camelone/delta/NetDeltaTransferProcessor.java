@@ -0,0 +1,77 @@
+package org.apache.cmueller.camel.samples.camelone.delta;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.cmueller.camel.samples.camelone.delta.NetDeltaAggregator.Epoch;
+
+/**
+ * Transfers the amount in the message body from the debit to the credit account through the
+ * {@link NetDeltaAggregator} and waits until the transfer is flushed to the database.
+ * <p>
+ * Must be the last step of the transacted route: the JMS transaction commits right after it, so a failure afterwards
+ * would roll back the message of an already committed transfer. A redelivered message whose transfer was already
+ * committed, e.g. after a crash before the acknowledgement, is acknowledged without transferring again.
+ * <p>
+ * If the transfer is not flushed within {@code flushTimeout} milliseconds, it is taken back out of the aggregator and
+ * the message is rolled back. Once its flush is running, the transfer cannot be taken back anymore, and the processor
+ * waits for the outcome of the flush instead.
+ */
+public class NetDeltaTransferProcessor implements Processor {
+
+    private NetDeltaAggregator aggregator;
+    private String debitAccount = "foo";
+    private String creditAccount = "bar";
+    private long flushTimeout = 30000;
+
+    public void process(Exchange exchange) throws Exception {
+        long amount = exchange.getIn().getMandatoryBody(Long.class);
+        String messageId = exchange.getIn().getHeader("JMSMessageID", String.class);
+        boolean redelivered = exchange.getIn().getHeader("JMSRedelivered", false, Boolean.class);
+        // only a redelivered message can have been applied before, the others skip the ledger lookup
+        if (messageId != null && redelivered && aggregator.isApplied(messageId)) {
+            return;
+        }
+
+        Epoch epoch = aggregator.transfer(messageId, redelivered, debitAccount, creditAccount, amount);
+        if (!epoch.await(flushTimeout, TimeUnit.MILLISECONDS)) {
+            if (aggregator.cancel(epoch, messageId, debitAccount, creditAccount, amount)) {
+                throw new IllegalStateException("Transfer was not flushed within " + flushTimeout + "ms");
+            }
+            epoch.await();
+        }
+    }
+
+    public NetDeltaAggregator getAggregator() {
+        return aggregator;
+    }
+
+    public void setAggregator(NetDeltaAggregator aggregator) {
+        this.aggregator = aggregator;
+    }
+
+    public String getDebitAccount() {
+        return debitAccount;
+    }
+
+    public void setDebitAccount(String debitAccount) {
+        this.debitAccount = debitAccount;
+    }
+
+    public String getCreditAccount() {
+        return creditAccount;
+    }
+
+    public void setCreditAccount(String creditAccount) {
+        this.creditAccount = creditAccount;
+    }
+
+    public long getFlushTimeout() {
+        return flushTimeout;
+    }
+
+    public void setFlushTimeout(long flushTimeout) {
+        this.flushTimeout = flushTimeout;
+    }
+}
@@ -0,0 +1,221 @@
+package org.apache.cmueller.camel.samples.camelone.idempotent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.camel.spi.IdempotentRepository;
+import org.apache.camel.support.ServiceSupport;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Idempotent repository which records the processed message ids in the {@code processed_message} table, in the
+ * running JDBC transaction of the route. The id is committed or rolled back together with the balance updates, so a
+ * message which is redelivered because the JMS acknowledge got lost after the database commit is detected as
+ * duplicate, without XA.
+ * <p>
+ * The table is the record, the caches in front of it only save the lookup:
+ * <ul>
+ * <li>a Bloom filter of the ids added by this repository: if it doesn't know an id, which is the common case, the id is
+ * inserted right away. The primary key still rejects the ids processed before a restart.</li>
+ * <li>a LRU cache of the ids committed recently, which are the likely duplicates.</li>
+ * </ul>
+ * The Bloom filter is rotated when full, so that it keeps the false positive rate with a bounded size.
+ * <p>
+ * {@link #remove(String)} does nothing: a failed exchange rolls back the id with the transaction which inserted it, and
+ * a failure after the database commit must not make the message look new again.
+ */
+public class JdbcCachedIdempotentRepository extends ServiceSupport implements IdempotentRepository<String>, InitializingBean {
+
+    static final String TABLE = "processed_message";
+    static final String CREATE_TABLE = "CREATE TABLE " + TABLE + " (message_id VARCHAR(100) NOT NULL PRIMARY KEY, processed_at TIMESTAMP NOT NULL)";
+    static final String INSERT = "INSERT INTO " + TABLE + " (message_id, processed_at) VALUES (?, CURRENT_TIMESTAMP)";
+    static final String SELECT = "SELECT COUNT(*) FROM " + TABLE + " WHERE message_id = ?";
+
+    private DataSource dataSource;
+    private int expectedInsertions = 1000000;
+    private double falsePositiveProbability = 0.01;
+    private int cacheSize = 10000;
+
+    private JdbcTemplate jdbc;
+    private volatile BloomFilter current;
+    private volatile BloomFilter previous;
+    private final Map<String, Boolean> committed = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    private final AtomicLong fastPath = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong databaseLookups = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    public void afterPropertiesSet() throws Exception {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("Property 'dataSource' is required");
+        }
+
+        jdbc = new JdbcTemplate(dataSource);
+        clear();
+        DatabaseUtil.createTableIfNecessary(dataSource, TABLE, CREATE_TABLE);
+    }
+
+    public boolean add(final String key) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Message ids must be added in the transaction of the balance updates");
+        }
+
+        if (mightContain(key)) {
+            if (isCommitted(key)) {
+                cacheHits.incrementAndGet();
+                duplicates.incrementAndGet();
+                return false;
+            }
+            databaseLookups.incrementAndGet();
+            if (jdbc.queryForObject(SELECT, Long.class, key) > 0) {
+                duplicates.incrementAndGet();
+                return false;
+            }
+        } else {
+            fastPath.incrementAndGet();
+        }
+
+        try {
+            jdbc.update(INSERT, key);
+        } catch (DuplicateKeyException e) {
+            // processed before a restart or committed concurrently by another consumer
+            duplicates.incrementAndGet();
+            return false;
+        }
+
+        put(key);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                synchronized (committed) {
+                    committed.put(key, Boolean.TRUE);
+                }
+            }
+        });
+        return true;
+    }
+
+    public boolean contains(String key) {
+        if (!mightContain(key)) {
+            return false;
+        }
+        return isCommitted(key) || jdbc.queryForObject(SELECT, Long.class, key) > 0;
+    }
+
+    public boolean remove(String key) {
+        return false;
+    }
+
+    public boolean confirm(String key) {
+        return true;
+    }
+
+    /**
+     * Clears the in-memory caches. The processed message ids in the database are kept.
+     */
+    public void clear() {
+        current = new BloomFilter(expectedInsertions, falsePositiveProbability);
+        previous = new BloomFilter(expectedInsertions, falsePositiveProbability);
+        synchronized (committed) {
+            committed.clear();
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+    }
+
+    private boolean mightContain(String key) {
+        return current.mightContain(key) || previous.mightContain(key);
+    }
+
+    private boolean isCommitted(String key) {
+        synchronized (committed) {
+            return committed.containsKey(key);
+        }
+    }
+
+    private void put(String key) {
+        BloomFilter filter = current;
+        filter.put(key);
+        if (filter.isFull()) {
+            synchronized (this) {
+                if (current == filter) {
+                    previous = filter;
+                    current = new BloomFilter(expectedInsertions, falsePositiveProbability);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of new ids, which were inserted without a lookup
+     */
+    public long getFastPathCount() {
+        return fastPath.get();
+    }
+
+    public long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    public long getDatabaseLookupCount() {
+        return databaseLookups.get();
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public int getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    public void setExpectedInsertions(int expectedInsertions) {
+        this.expectedInsertions = expectedInsertions;
+    }
+
+    public double getFalsePositiveProbability() {
+        return falsePositiveProbability;
+    }
+
+    public void setFalsePositiveProbability(double falsePositiveProbability) {
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+}
@@ -0,0 +1,140 @@
+package org.apache.cmueller.camel.samples.camelone.idempotent;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.spring.CamelSpringTestSupport;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class JmsAndJdbcIdempotentTransactionSampleTest extends CamelSpringTestSupport {
+
+    private BrokerService broker;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private JdbcCachedIdempotentRepository repository;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        super.setUp();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "dataSourceTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+        repository = context.getRegistry().lookupByNameAndType("idempotentRepository", JdbcCachedIdempotentRepository.class);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                jdbc.execute("DROP TABLE " + JdbcCachedIdempotentRepository.TABLE);
+            }
+        });
+
+        super.tearDown();
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Test
+    public void moneyShouldTransfer() {
+        template.sendBody("activemq:queue:transaction.incoming.one", 100L);
+
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.one", 5000);
+        assertNotNull(exchange);
+
+        assertEquals(900, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1100, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+        assertEquals(1, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT COUNT(*) from " + JdbcCachedIdempotentRepository.TABLE));
+        assertEquals(1, repository.getFastPathCount());
+        assertEquals(0, repository.getDuplicateCount());
+    }
+
+    @Test
+    public void moneyShouldTransferOnceWhenRedeliveredAfterDatabaseCommit() {
+        template.sendBody("activemq:queue:transaction.incoming.two", 100L);
+
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.two", 5000);
+        assertNotNull(exchange);
+        assertNull(consumer.receive("activemq:queue:ActiveMQ.DLQ", 1000));
+
+        // the compensation sample transfers twice here
+        assertEquals(900, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1100, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+        assertEquals(1, repository.getDuplicateCount());
+        assertEquals(1, repository.getCacheHitCount());
+    }
+
+    @Test
+    public void duplicateShouldBeRejectedByTheDatabaseWithoutCache() {
+        assertTrue(addInTransaction("ID:restarted-1"));
+
+        // like a restart: only the processed_message table knows the id
+        repository.clear();
+
+        assertFalse(addInTransaction("ID:restarted-1"));
+        assertEquals(1, repository.getDuplicateCount());
+        assertEquals(1, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT COUNT(*) from " + JdbcCachedIdempotentRepository.TABLE));
+    }
+
+    private boolean addInTransaction(final String messageId) {
+        return transactionTemplate.execute(new TransactionCallback<Boolean>() {
+            @Override
+            public Boolean doInTransaction(TransactionStatus status) {
+                return repository.add(messageId);
+            }
+        });
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("activemqTx:queue:transaction.incoming.one")
+                    .to("direct:transfer")
+                    .to("activemqTx:queue:transaction.outgoing.one");
+
+                from("activemqTx:queue:transaction.incoming.two")
+                    .to("direct:transfer")
+                    // the database transaction is committed, now the JMS transaction fails on the first delivery
+                    .filter(header("JMSRedelivered").isEqualTo(false))
+                        .throwException(new IllegalStateException("forced exception after database commit for test"))
+                    .end()
+                    .to("activemqTx:queue:transaction.outgoing.two");
+
+                // a duplicate skips the updates, but still sends the outgoing message which was rolled back with it
+                from("direct:transfer")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .idempotentConsumer(header("JMSMessageID")).messageIdRepositoryRef("idempotentRepository").skipDuplicate(false)
+                        .filter(exchangeProperty(Exchange.DUPLICATE_MESSAGE).isNotEqualTo(true))
+                            .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                            .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource")
+                        .end()
+                    .end();
+            }
+        };
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcIdempotentTransactionSampleTest-context.xml");
+    }
+}
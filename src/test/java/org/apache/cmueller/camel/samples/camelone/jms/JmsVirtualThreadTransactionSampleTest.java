@@ -0,0 +1,131 @@
+package org.apache.cmueller.camel.samples.camelone.jms;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.spring.CamelSpringTestSupport;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class JmsVirtualThreadTransactionSampleTest extends CamelSpringTestSupport {
+
+    // below the 256 carrier threads the JVM adds for the consumers pinned in the ActiveMQ receive
+    private static final int CONSUMERS = 200;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private BrokerService broker;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        Assume.assumeTrue(VirtualThreadTaskExecutor.isSupported());
+
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        super.setUp();
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        // nothing was started if the JVM has no virtual threads
+        if (broker != null) {
+            super.tearDown();
+
+            ActiveMQUtil.stopBroker(broker);
+        }
+    }
+
+    @Test
+    public void moneyShouldBeTransfered() {
+        template.sendBodyAndHeader("activemq:queue:transaction.incoming.one", "Camel rocks!", "amount", "100");
+
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.one", 5000);
+        assertNotNull(exchange);
+        assertEquals(Boolean.TRUE, exchange.getIn().getHeader("virtualThread"));
+        assertEquals(Boolean.TRUE, exchange.getIn().getHeader("transactionActive"));
+    }
+
+    @Test
+    public void moneyShouldNotTransfered() {
+        template.sendBodyAndHeader("activemq:queue:transaction.incoming.two", "Camel rocks!", "amount", "100");
+
+        Exchange exchange = consumer.receive("activemq:queue:ActiveMQ.DLQ", 5000);
+        assertNotNull(exchange);
+    }
+
+    @Test
+    public void inFlightTransactionsShouldNotBeLimitedByPlatformThreads() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            template.sendBodyAndHeader("activemq:queue:transaction.incoming.three", "Camel rocks!", "amount", "100");
+        }
+        // all consumers find their first message waiting
+        context.startRoute("virtualConsumers");
+
+        for (int i = 0; i < 1000; i++) {
+            assertNotNull(consumer.receive("activemq:queue:transaction.outgoing.three", 30000));
+        }
+        // the consumers were blocked in computeOffer at the same time, far more than the carrier threads
+        assertTrue("at most " + maxInFlight.get() + " transactions were in flight", maxInFlight.get() >= CONSUMERS / 2);
+        assertTrue(maxInFlight.get() > Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("activemqVirtualTx:queue:transaction.incoming.one").transacted("PROPAGATION_REQUIRED")
+                    .to("bean:businessService?method=computeOffer")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            exchange.getIn().setHeader("virtualThread", VirtualThreadTaskExecutor.isVirtual(Thread.currentThread()));
+                            exchange.getIn().setHeader("transactionActive", TransactionSynchronizationManager.isActualTransactionActive());
+                        }
+                    })
+                    .to("activemqVirtualTx:queue:transaction.outgoing.one");
+
+                from("activemqVirtualTx:queue:transaction.incoming.three?concurrentConsumers=" + CONSUMERS)
+                    .routeId("virtualConsumers").autoStartup(false)
+                    .transacted("PROPAGATION_REQUIRED")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            int current = inFlight.incrementAndGet();
+                            int max;
+                            while ((max = maxInFlight.get()) < current && !maxInFlight.compareAndSet(max, current)) {
+                                // retry
+                            }
+                        }
+                    })
+                    .to("bean:businessService?method=computeOffer")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            inFlight.decrementAndGet();
+                        }
+                    })
+                    .to("activemqVirtualTx:queue:transaction.outgoing.three");
+
+                from("activemqVirtualTx:queue:transaction.incoming.two").transacted("PROPAGATION_REQUIRED")
+                    .throwException(new SQLException("forced exception for test"))
+                    .to("activemqVirtualTx:queue:transaction.outgoing.two");
+            }
+        };
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JmsVirtualThreadTransactionSampleTest-context.xml");
+    }
+}
@@ -0,0 +1,70 @@
+package org.apache.cmueller.camel.samples.camelone.jms;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.task.TaskExecutor;
+
+/**
+ * {@link TaskExecutor} which starts every task on a new virtual thread, e.g. for the invokers of a
+ * {@code DefaultMessageListenerContainer}. A consumer receives, processes and commits on its own virtual thread, so
+ * the thread-bound transaction synchronization of Spring works as before, but a consumer blocked in an I/O-bound
+ * business service doesn't hold a platform thread any more.
+ * <p>
+ * Virtual threads need a Java 21 runtime. The thread factory is looked up reflectively, so that the samples still
+ * compile for older JDKs.
+ * <p>
+ * Note that the ActiveMQ client waits for messages in {@code Object.wait}, which pins the carrier thread before Java
+ * 24. The JVM compensates with additional carriers, but only up to {@code jdk.virtualThreadScheduler.maxPoolSize}, 256
+ * by default. More consumers than that wait for a carrier instead of for a message, so either stay below the cap or
+ * raise it, e.g. {@code -Djdk.virtualThreadScheduler.maxPoolSize=1100} for 1000 consumers.
+ */
+public class VirtualThreadTaskExecutor implements TaskExecutor, InitializingBean {
+
+    private String threadNamePrefix = "VirtualThreadTaskExecutor-";
+    private ThreadFactory threadFactory;
+
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    public static boolean isVirtual(Thread thread) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (NoSuchMethodException e) {
+            return false;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        if (!isSupported()) {
+            throw new IllegalStateException("Virtual threads require Java 21, running on " + System.getProperty("java.version"));
+        }
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        Method name = builderClass.getMethod("name", String.class, long.class);
+        Method factory = builderClass.getMethod("factory");
+
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        threadFactory = (ThreadFactory) factory.invoke(name.invoke(builder, threadNamePrefix, 0L));
+    }
+
+    public void execute(Runnable task) {
+        threadFactory.newThread(task).start();
+    }
+
+    public String getThreadNamePrefix() {
+        return threadNamePrefix;
+    }
+
+    public void setThreadNamePrefix(String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+}
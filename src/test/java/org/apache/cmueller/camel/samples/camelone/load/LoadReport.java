@@ -0,0 +1,122 @@
+package org.apache.cmueller.camel.samples.camelone.load;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * The outcome of a {@link TransferLoadGenerator} run.
+ */
+public class LoadReport {
+
+    private final int transfers;
+    private final int committed;
+    private final int aborted;
+    private final long failedAttempts;
+    private final long deadlocks;
+    private final long lockTimeouts;
+    private final long durationMillis;
+    private final Histogram latency;
+    private final long expectedTotal;
+    private final long actualTotal;
+    private final List<String> divergentAccounts;
+
+    LoadReport(int transfers, int committed, int aborted, long failedAttempts, long deadlocks, long lockTimeouts,
+        long durationMillis, Histogram latency, long expectedTotal, long actualTotal, List<String> divergentAccounts) {
+        this.transfers = transfers;
+        this.committed = committed;
+        this.aborted = aborted;
+        this.failedAttempts = failedAttempts;
+        this.deadlocks = deadlocks;
+        this.lockTimeouts = lockTimeouts;
+        this.durationMillis = durationMillis;
+        this.latency = latency;
+        this.expectedTotal = expectedTotal;
+        this.actualTotal = actualTotal;
+        this.divergentAccounts = Collections.unmodifiableList(divergentAccounts);
+    }
+
+    public int getTransfers() {
+        return transfers;
+    }
+
+    /**
+     * @return the transfers whose outgoing message became visible, i.e. which committed
+     */
+    public int getCommitted() {
+        return committed;
+    }
+
+    /**
+     * @return the transfers which failed on their last delivery
+     */
+    public int getAborted() {
+        return aborted;
+    }
+
+    /**
+     * @return the transfers which neither committed nor were aborted within the timeout
+     */
+    public int getUnresolved() {
+        return transfers - committed - aborted;
+    }
+
+    /**
+     * @return the failed deliveries, including the ones which were redelivered
+     */
+    public long getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    public long getDeadlocks() {
+        return deadlocks;
+    }
+
+    public long getLockTimeouts() {
+        return lockTimeouts;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return the committed transfers per second
+     */
+    public double getThroughput() {
+        return durationMillis == 0 ? 0 : committed * 1000.0 / durationMillis;
+    }
+
+    /**
+     * @return the latency from sending a transfer until its commit became visible, in milliseconds
+     */
+    public double getLatencyMillis(double percentile) {
+        return latency.getValueAtPercentile(percentile) / 1e6;
+    }
+
+    public double getMaxLatencyMillis() {
+        return latency.getMaxValue() / 1e6;
+    }
+
+    public boolean isMoneyConserved() {
+        return expectedTotal == actualTotal;
+    }
+
+    /**
+     * @return the accounts whose balance differs from the replay of the committed transfers
+     */
+    public List<String> getDivergentAccounts() {
+        return divergentAccounts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d transfers in %dms: %.1f/s committed, latency p50=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms, "
+            + "%d aborted, %d unresolved, %d failed attempts (%d deadlocks, %d lock timeouts), money %s, %d divergent accounts",
+            transfers, durationMillis, getThroughput(), getLatencyMillis(50), getLatencyMillis(99), getLatencyMillis(99.9),
+            getMaxLatencyMillis(), aborted, getUnresolved(), failedAttempts, deadlocks, lockTimeouts,
+            isMoneyConserved() ? "conserved" : "NOT conserved (" + expectedTotal + " != " + actualTotal + ")",
+            divergentAccounts.size());
+    }
+}
@@ -0,0 +1,397 @@
+package org.apache.cmueller.camel.samples.camelone.load;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Recorder;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.Route;
+import org.apache.camel.spi.RoutePolicy;
+import org.apache.camel.support.RoutePolicySupport;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Drives random transfers between {@code accounts} accounts from {@code producers} concurrent producers and checks
+ * the outcome. The accounts of a transfer are drawn with a Zipfian skew, so a few hot accounts take most transfers.
+ * The transfer route reads the accounts from the {@value #DEBIT_ACCOUNT} and {@value #CREDIT_ACCOUNT} headers and
+ * the amount from the body:
+ * <pre>
+ * from("activemqXa:queue:transaction.incoming.five?concurrentConsumers=4")
+ *     .routePolicy(generator.getRoutePolicy())
+ *     .transacted("PROPAGATION_REQUIRED")
+ *     ...
+ *     .to("activemqXa:queue:transaction.outgoing.five");
+ *
+ * from("activemq:queue:transaction.outgoing.five").process(generator.getCommitProcessor());
+ * </pre>
+ * A transfer counts as committed once its outgoing message became visible, and as aborted if its last delivery
+ * failed, which is why {@code maximumRedeliveries} must be the one of the consumers of the transfer route. After the run, the total of the balances must be the seeded total, and the balance of every account must
+ * be the one of a replay of the committed transfers.
+ */
+public class TransferLoadGenerator {
+
+    public static final String DEBIT_ACCOUNT = "debitAccount";
+    public static final String CREDIT_ACCOUNT = "creditAccount";
+    public static final String TRANSFER_ID = "loadTransferId";
+
+    private static final String DELIVERY_COUNT = "JMSXDeliveryCount";
+    private static final String DEADLOCK_TIMEOUT = "derby.locks.deadlockTimeout";
+
+    private ProducerTemplate template;
+    private String endpointUri;
+    private int accounts = 64;
+    private long initialBalance = 1000;
+    private int producers = 4;
+    private int transfers = 1000;
+    private double skew = 0.99;
+    private int maxAmount = 10;
+    private long seed = 4711;
+    private int maximumRedeliveries;
+    private long timeoutMillis = 120000;
+
+    private final ConcurrentMap<Long, Transfer> pending = new ConcurrentHashMap<Long, Transfer>();
+    private final ConcurrentLinkedQueue<Transfer> committed = new ConcurrentLinkedQueue<Transfer>();
+    private final ConcurrentLinkedQueue<Transfer> aborted = new ConcurrentLinkedQueue<Transfer>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong deadlocks = new AtomicLong();
+    private final AtomicLong lockTimeouts = new AtomicLong();
+    private final Recorder latency = new Recorder(TimeUnit.MINUTES.toNanos(5), 2);
+    private volatile CountDownLatch resolved = new CountDownLatch(0);
+    private boolean seeded;
+    private String previousDeadlockTimeout;
+
+    public TransferLoadGenerator() {
+    }
+
+    public TransferLoadGenerator(ProducerTemplate template, String endpointUri) {
+        this.template = template;
+        this.endpointUri = endpointUri;
+    }
+
+    /**
+     * Creates the accounts, with a unique index on their name, so the updates lock only the rows they update. Derby
+     * looks for deadlocks after one second instead of 20, so a deadlock aborts a transfer instead of stalling the run.
+     * The database property outlives the connections, {@link #restoreDatabaseProperties} resets it after the run.
+     */
+    public void seedAccounts(TransactionTemplate transactionTemplate, final JdbcTemplate jdbc) {
+        DatabaseUtil.createAccounts(transactionTemplate, jdbc, accounts, initialBalance);
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                jdbc.execute("CREATE UNIQUE INDEX account_name ON account (name)");
+                if (!seeded) {
+                    previousDeadlockTimeout = jdbc.queryForObject("VALUES SYSCS_UTIL.SYSCS_GET_DATABASE_PROPERTY(?)", String.class, DEADLOCK_TIMEOUT);
+                    seeded = true;
+                }
+                jdbc.update("CALL SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY(?, ?)", DEADLOCK_TIMEOUT, "1");
+            }
+        });
+    }
+
+    /**
+     * Resets the deadlock timeout of the database to the value it had before {@link #seedAccounts}, which removes it
+     * if it was not set.
+     */
+    public void restoreDatabaseProperties(TransactionTemplate transactionTemplate, final JdbcTemplate jdbc) {
+        if (!seeded) {
+            return;
+        }
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                jdbc.update("CALL SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY(?, ?)", DEADLOCK_TIMEOUT, previousDeadlockTimeout);
+            }
+        });
+        seeded = false;
+        previousDeadlockTimeout = null;
+    }
+
+    /**
+     * Sends the transfers, waits until all of them committed or were aborted, or the timeout elapsed, and checks the
+     * balances.
+     */
+    public LoadReport run(TransactionTemplate transactionTemplate, JdbcTemplate jdbc) throws Exception {
+        pending.clear();
+        committed.clear();
+        aborted.clear();
+        failedAttempts.set(0);
+        deadlocks.set(0);
+        lockTimeouts.set(0);
+        latency.reset();
+        resolved = new CountDownLatch(transfers);
+
+        final ZipfianGenerator zipfian = new ZipfianGenerator(accounts, skew);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> sent = new ArrayList<Future<?>>(producers);
+            for (int p = 0; p < producers; p++) {
+                final int count = transfers / producers + (p < transfers % producers ? 1 : 0);
+                final Random random = new Random(seed + p);
+                sent.add(executor.submit(new Runnable() {
+                    public void run() {
+                        for (int i = 0; i < count; i++) {
+                            send(zipfian, random);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : sent) {
+                future.get();
+            }
+            resolved.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        return check(transactionTemplate, jdbc, durationMillis);
+    }
+
+    private void send(ZipfianGenerator zipfian, Random random) {
+        int debit = zipfian.next(random);
+        int credit = zipfian.next(random);
+        while (credit == debit) {
+            credit = zipfian.next(random);
+        }
+        Transfer transfer = new Transfer(sequence.incrementAndGet(), DatabaseUtil.accountName(debit),
+            DatabaseUtil.accountName(credit), 1 + random.nextInt(maxAmount));
+
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put(TRANSFER_ID, transfer.id);
+        headers.put(DEBIT_ACCOUNT, transfer.debitAccount);
+        headers.put(CREDIT_ACCOUNT, transfer.creditAccount);
+        pending.put(transfer.id, transfer);
+        template.sendBodyAndHeaders(endpointUri, transfer.amount, headers);
+    }
+
+    private LoadReport check(TransactionTemplate transactionTemplate, final JdbcTemplate jdbc, long durationMillis) {
+        // the replay of the committed transfers in any order, the balances are just sums
+        final Map<String, Long> expected = new HashMap<String, Long>();
+        for (int i = 0; i < accounts; i++) {
+            expected.put(DatabaseUtil.accountName(i), initialBalance);
+        }
+        for (Transfer transfer : committed) {
+            expected.put(transfer.debitAccount, expected.get(transfer.debitAccount) - transfer.amount);
+            expected.put(transfer.creditAccount, expected.get(transfer.creditAccount) + transfer.amount);
+        }
+
+        final List<String> divergentAccounts = new ArrayList<String>();
+        final long[] actualTotal = new long[1];
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                jdbc.query("SELECT name, balance FROM account WHERE name LIKE 'account-%'", new RowCallbackHandler() {
+                    public void processRow(ResultSet rs) throws SQLException {
+                        String name = rs.getString(1);
+                        long balance = rs.getLong(2);
+                        actualTotal[0] += balance;
+                        Long expectedBalance = expected.get(name);
+                        if (expectedBalance == null || expectedBalance != balance) {
+                            divergentAccounts.add(name);
+                        }
+                    }
+                });
+            }
+        });
+
+        return new LoadReport(transfers, committed.size(), aborted.size(), failedAttempts.get(), deadlocks.get(),
+            lockTimeouts.get(), durationMillis, latency.getIntervalHistogram(), accounts * initialBalance, actualTotal[0],
+            divergentAccounts);
+    }
+
+    /**
+     * @return the processor for the consumer of the outgoing queue, which records the commits
+     */
+    public Processor getCommitProcessor() {
+        return new Processor() {
+            public void process(Exchange exchange) throws Exception {
+                Transfer transfer = pending.remove(exchange.getIn().getHeader(TRANSFER_ID, Long.class));
+                if (transfer != null) {
+                    latency.recordValue(Math.min(System.nanoTime() - transfer.sentNanos, TimeUnit.MINUTES.toNanos(5)));
+                    committed.add(transfer);
+                    resolved.countDown();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the route policy of the transfer route, which records the failed deliveries
+     */
+    public RoutePolicy getRoutePolicy() {
+        return new RoutePolicySupport() {
+            @Override
+            public void onExchangeDone(Route route, Exchange exchange) {
+                if (!exchange.isFailed() && !exchange.isRollbackOnly()) {
+                    return;
+                }
+
+                failedAttempts.incrementAndGet();
+                String sqlState = sqlState(exchange.getException());
+                if ("40001".equals(sqlState)) {
+                    deadlocks.incrementAndGet();
+                } else if ("40XL1".equals(sqlState)) {
+                    lockTimeouts.incrementAndGet();
+                }
+
+                if (exchange.getIn().getHeader(DELIVERY_COUNT, 1, Integer.class) > maximumRedeliveries) {
+                    Transfer transfer = pending.remove(exchange.getIn().getHeader(TRANSFER_ID, Long.class));
+                    if (transfer != null) {
+                        aborted.add(transfer);
+                        resolved.countDown();
+                    }
+                }
+            }
+        };
+    }
+
+    private static String sqlState(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                // the innermost exception has the state of the database
+                SQLException sqlException = (SQLException) cause;
+                while (sqlException.getNextException() != null) {
+                    sqlException = sqlException.getNextException();
+                }
+                if (sqlException.getSQLState() != null) {
+                    return sqlException.getSQLState();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static final class Transfer {
+
+        final long id;
+        final String debitAccount;
+        final String creditAccount;
+        final long amount;
+        final long sentNanos = System.nanoTime();
+
+        Transfer(long id, String debitAccount, String creditAccount, long amount) {
+            this.id = id;
+            this.debitAccount = debitAccount;
+            this.creditAccount = creditAccount;
+            this.amount = amount;
+        }
+    }
+
+    public ProducerTemplate getTemplate() {
+        return template;
+    }
+
+    public void setTemplate(ProducerTemplate template) {
+        this.template = template;
+    }
+
+    public String getEndpointUri() {
+        return endpointUri;
+    }
+
+    public void setEndpointUri(String endpointUri) {
+        this.endpointUri = endpointUri;
+    }
+
+    public int getAccounts() {
+        return accounts;
+    }
+
+    public void setAccounts(int accounts) {
+        this.accounts = accounts;
+    }
+
+    public long getInitialBalance() {
+        return initialBalance;
+    }
+
+    public void setInitialBalance(long initialBalance) {
+        this.initialBalance = initialBalance;
+    }
+
+    public int getProducers() {
+        return producers;
+    }
+
+    public void setProducers(int producers) {
+        this.producers = producers;
+    }
+
+    public int getTransfers() {
+        return transfers;
+    }
+
+    public void setTransfers(int transfers) {
+        this.transfers = transfers;
+    }
+
+    public double getSkew() {
+        return skew;
+    }
+
+    /**
+     * @param skew the exponent of the Zipfian distribution of the accounts, 0 for uniformly distributed transfers
+     */
+    public void setSkew(double skew) {
+        this.skew = skew;
+    }
+
+    public int getMaxAmount() {
+        return maxAmount;
+    }
+
+    public void setMaxAmount(int maxAmount) {
+        this.maxAmount = maxAmount;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getMaximumRedeliveries() {
+        return maximumRedeliveries;
+    }
+
+    /**
+     * @param maximumRedeliveries the redeliveries of a failed transfer before it is aborted, those of the redelivery
+     *        policy of the consumers of the transfer route
+     */
+    public void setMaximumRedeliveries(int maximumRedeliveries) {
+        this.maximumRedeliveries = maximumRedeliveries;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+}
@@ -0,0 +1,38 @@
+package org.apache.cmueller.camel.samples.camelone.load;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Draws the indexes {@code 0..items-1} with a Zipfian distribution: the probability of index {@code i} is
+ * proportional to {@code 1 / (i + 1)^skew}. A skew of 0 is the uniform distribution, the higher the skew, the more the
+ * draws concentrate on the first indexes.
+ */
+public class ZipfianGenerator {
+
+    private final double[] cumulativeProbabilities;
+
+    public ZipfianGenerator(int items, double skew) {
+        if (items < 1) {
+            throw new IllegalArgumentException("At least one item is required");
+        }
+
+        cumulativeProbabilities = new double[items];
+        double sum = 0;
+        for (int i = 0; i < items; i++) {
+            sum += 1 / Math.pow(i + 1, skew);
+            cumulativeProbabilities[i] = sum;
+        }
+        for (int i = 0; i < items; i++) {
+            cumulativeProbabilities[i] /= sum;
+        }
+    }
+
+    public int next(Random random) {
+        int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return Math.min(index, cumulativeProbabilities.length - 1);
+    }
+}
@@ -0,0 +1,18 @@
+package org.apache.cmueller.camel.samples.camelone.metrics;
+
+import org.springframework.transaction.support.ResourceTransactionManager;
+
+/**
+ * {@link InstrumentedTransactionManager} for resource transaction managers, like the {@code JmsTransactionManager},
+ * so that the listener containers still detect that the transaction manager drives their own connection factory.
+ */
+public class InstrumentedResourceTransactionManager extends InstrumentedTransactionManager implements ResourceTransactionManager {
+
+    public InstrumentedResourceTransactionManager(ResourceTransactionManager delegate, String name, TransactionMetrics metrics) {
+        super(delegate, name, metrics);
+    }
+
+    public Object getResourceFactory() {
+        return ((ResourceTransactionManager) getDelegate()).getResourceFactory();
+    }
+}
@@ -0,0 +1,57 @@
+package org.apache.cmueller.camel.samples.camelone.metrics;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+
+/**
+ * Records the duration of begin, commit and rollback of the wrapped transaction manager. The commit of a JTA
+ * transaction manager covers the whole two-phase commit, with the prepare of every resource and the log force. The
+ * resources record their own prepare and commit if their factories are wrapped by {@link InstrumentedXAResources}.
+ */
+public class InstrumentedTransactionManager implements PlatformTransactionManager {
+
+    private final PlatformTransactionManager delegate;
+    private final PhaseHistogram begin;
+    private final PhaseHistogram commit;
+    private final PhaseHistogram rollback;
+
+    public InstrumentedTransactionManager(PlatformTransactionManager delegate, String name, TransactionMetrics metrics) {
+        this.delegate = delegate;
+        this.begin = metrics.histogram("transactionManager", name, "begin");
+        this.commit = metrics.histogram("transactionManager", name, "commit");
+        this.rollback = metrics.histogram("transactionManager", name, "rollback");
+    }
+
+    public PlatformTransactionManager getDelegate() {
+        return delegate;
+    }
+
+    public TransactionStatus getTransaction(TransactionDefinition definition) throws TransactionException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getTransaction(definition);
+        } finally {
+            begin.record(System.nanoTime() - start);
+        }
+    }
+
+    public void commit(TransactionStatus status) throws TransactionException {
+        long start = System.nanoTime();
+        try {
+            delegate.commit(status);
+        } finally {
+            commit.record(System.nanoTime() - start);
+        }
+    }
+
+    public void rollback(TransactionStatus status) throws TransactionException {
+        long start = System.nanoTime();
+        try {
+            delegate.rollback(status);
+        } finally {
+            rollback.record(System.nanoTime() - start);
+        }
+    }
+}
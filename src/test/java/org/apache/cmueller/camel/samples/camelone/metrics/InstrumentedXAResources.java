@@ -0,0 +1,100 @@
+package org.apache.cmueller.camel.samples.camelone.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.transaction.xa.XAResource;
+
+import org.springframework.util.ClassUtils;
+
+/**
+ * Wraps a {@code javax.sql.XADataSource} or {@code javax.jms.XAConnectionFactory}, so that the {@link XAResource}s of
+ * its connections and sessions record the duration of their {@code prepare}, {@code commit}, {@code onePhaseCommit} and
+ * {@code rollback} in the {@code xaResource} scope. The {@code commit} of an {@link InstrumentedTransactionManager}
+ * around a JTA transaction manager covers both phases of all resources, these histograms split it per resource and
+ * phase.
+ * <p>
+ * The transaction manager enlists the wrapped resources. They are unwrapped again where they are passed as arguments,
+ * so that {@link XAResource#isSameRM(XAResource)} still recognizes the resources of the same resource manager.
+ */
+public final class InstrumentedXAResources {
+
+    private InstrumentedXAResources() {
+    }
+
+    /**
+     * @param factory the XA data source or connection factory
+     * @param name    the bean name of the factory, the name of its histograms
+     */
+    public static Object wrap(Object factory, String name, TransactionMetrics metrics) {
+        return proxy(factory, new Handler(factory, name, metrics));
+    }
+
+    private static Object proxy(Object target, InvocationHandler handler) {
+        return Proxy.newProxyInstance(target.getClass().getClassLoader(), ClassUtils.getAllInterfaces(target), handler);
+    }
+
+    private static Object unwrap(Object object) {
+        if (object != null && Proxy.isProxyClass(object.getClass()) && Proxy.getInvocationHandler(object) instanceof Handler) {
+            return ((Handler) Proxy.getInvocationHandler(object)).target;
+        }
+        return object;
+    }
+
+    private static boolean isConnectionOrSession(Object object) {
+        return object instanceof javax.sql.XAConnection || object instanceof javax.jms.XAConnection || object instanceof javax.jms.XASession;
+    }
+
+    private static final class Handler implements InvocationHandler {
+
+        private final Object target;
+        private final String name;
+        private final TransactionMetrics metrics;
+
+        Handler(Object target, String name, TransactionMetrics metrics) {
+            this.target = target;
+            this.name = name;
+            this.metrics = metrics;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (args != null) {
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = unwrap(args[i]);
+                }
+            }
+
+            String phase = target instanceof XAResource ? phase(method, args) : null;
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                if (phase != null) {
+                    metrics.histogram("xaResource", name, phase).record(System.nanoTime() - start);
+                }
+            }
+
+            if (result instanceof XAResource || isConnectionOrSession(result)) {
+                return proxy(result, new Handler(result, name, metrics));
+            }
+            return result;
+        }
+
+        private static String phase(Method method, Object[] args) {
+            String methodName = method.getName();
+            if ("commit".equals(methodName) && Boolean.TRUE.equals(args[1])) {
+                // a single resource skips the prepare
+                return "onePhaseCommit";
+            }
+            if ("prepare".equals(methodName) || "commit".equals(methodName) || "rollback".equals(methodName)) {
+                return methodName;
+            }
+            return null;
+        }
+    }
+}
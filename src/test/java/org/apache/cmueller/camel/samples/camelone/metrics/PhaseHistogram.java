@@ -0,0 +1,99 @@
+package org.apache.cmueller.camel.samples.camelone.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency histogram of one transaction phase. Recording is wait-free and allocation-free, readers fold the recorded
+ * interval into a cumulative histogram.
+ * <p>
+ * The MBean attributes are read from the cumulative histogram in place, which is folded at most every
+ * {@value #MAX_AGE_MILLIS}ms: a JMX client reading all attributes at once neither copies the histogram nor folds it
+ * once per attribute.
+ */
+public class PhaseHistogram implements PhaseHistogramMBean {
+
+    static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    static final long MAX_AGE_MILLIS = 50;
+
+    private final String scope;
+    private final String name;
+    private final String phase;
+
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_NANOS, 2);
+    private final Histogram accumulated = new Histogram(HIGHEST_TRACKABLE_NANOS, 2);
+    private Histogram interval;
+    private long foldedNanos;
+
+    public PhaseHistogram(String scope, String name, String phase) {
+        this.scope = scope;
+        this.name = name;
+        this.phase = phase;
+    }
+
+    public void record(long nanos) {
+        recorder.recordValue(Math.min(Math.max(nanos, 0), HIGHEST_TRACKABLE_NANOS));
+    }
+
+    /**
+     * @return a copy of all values recorded so far, in nanoseconds
+     */
+    public synchronized Histogram snapshot() {
+        fold();
+        return accumulated.copy();
+    }
+
+    private void fold() {
+        interval = recorder.getIntervalHistogram(interval);
+        accumulated.add(interval);
+        foldedNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the cumulative histogram, only to be read while holding the lock
+     */
+    private Histogram current() {
+        if (System.nanoTime() - foldedNanos >= TimeUnit.MILLISECONDS.toNanos(MAX_AGE_MILLIS)) {
+            fold();
+        }
+        return accumulated;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public synchronized long getCount() {
+        return current().getTotalCount();
+    }
+
+    public synchronized double getMeanMicros() {
+        return current().getMean() / 1000;
+    }
+
+    public synchronized double getP50Micros() {
+        return current().getValueAtPercentile(50) / 1000d;
+    }
+
+    public synchronized double getP99Micros() {
+        return current().getValueAtPercentile(99) / 1000d;
+    }
+
+    public synchronized double getP999Micros() {
+        return current().getValueAtPercentile(99.9) / 1000d;
+    }
+
+    public synchronized double getMaxMicros() {
+        return current().getMaxValue() / 1000d;
+    }
+}
@@ -0,0 +1,22 @@
+package org.apache.cmueller.camel.samples.camelone.metrics;
+
+public interface PhaseHistogramMBean {
+
+    String getScope();
+
+    String getName();
+
+    String getPhase();
+
+    long getCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+}
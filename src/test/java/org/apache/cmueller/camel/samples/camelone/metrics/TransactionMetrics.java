@@ -0,0 +1,160 @@
+package org.apache.cmueller.camel.samples.camelone.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Registry of the {@link PhaseHistogram}s per transaction manager and per route.
+ * <p>
+ * Every histogram is published as an MBean in the {@value #JMX_DOMAIN} domain. If a {@code port} is set, the
+ * histograms are also served at {@code http://localhost:<port>/metrics} in the Prometheus text format. Port 0 picks a
+ * free port, {@link #getPort()} returns it after the start.
+ */
+public class TransactionMetrics {
+
+    public static final String JMX_DOMAIN = "org.apache.cmueller.camel.samples.camelone";
+
+    private static final Logger LOG = LoggerFactory.getLogger(TransactionMetrics.class);
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final ConcurrentMap<String, PhaseHistogram> histograms = new ConcurrentHashMap<String, PhaseHistogram>();
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+    private MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    private int port = -1;
+
+    private HttpServer server;
+
+    public void start() throws IOException {
+        if (port >= 0) {
+            server = HttpServer.create(new InetSocketAddress(port), 0);
+            port = server.getAddress().getPort();
+            server.createContext("/metrics", new HttpHandler() {
+                public void handle(HttpExchange exchange) throws IOException {
+                    byte[] body = toText().getBytes("UTF-8");
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    try {
+                        out.write(body);
+                    } finally {
+                        out.close();
+                    }
+                }
+            });
+            server.start();
+        }
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+        synchronized (registered) {
+            for (ObjectName name : registered) {
+                try {
+                    mbeanServer.unregisterMBean(name);
+                } catch (Exception e) {
+                    LOG.debug("Could not unregister " + name, e);
+                }
+            }
+            registered.clear();
+        }
+    }
+
+    /**
+     * @param scope {@code transactionManager}, {@code xaResource} or {@code route}
+     * @param name  the bean name of the transaction manager or of the XA resource factory, or the route id
+     */
+    public PhaseHistogram histogram(String scope, String name, String phase) {
+        String key = scope + '/' + name + '/' + phase;
+        PhaseHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            PhaseHistogram created = new PhaseHistogram(scope, name, phase);
+            histogram = histograms.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+                register(created);
+            }
+        }
+        return histogram;
+    }
+
+    public Collection<PhaseHistogram> getHistograms() {
+        return histograms.values();
+    }
+
+    /**
+     * @return all histograms as Prometheus summaries, in seconds
+     */
+    public String toText() {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        out.println("# TYPE transaction_phase_seconds summary");
+        for (PhaseHistogram histogram : histograms.values()) {
+            Histogram snapshot = histogram.snapshot();
+            String labels = "scope=\"" + histogram.getScope() + "\",name=\"" + histogram.getName() + "\",phase=\"" + histogram.getPhase() + "\"";
+            for (double quantile : QUANTILES) {
+                out.println("transaction_phase_seconds{" + labels + ",quantile=\"" + quantile + "\"} "
+                    + snapshot.getValueAtPercentile(quantile * 100) / 1e9);
+            }
+            out.println("transaction_phase_seconds_count{" + labels + "} " + snapshot.getTotalCount());
+            out.println("transaction_phase_seconds_sum{" + labels + "} " + snapshot.getMean() * snapshot.getTotalCount() / 1e9);
+        }
+        out.flush();
+        return text.toString();
+    }
+
+    private void register(PhaseHistogram histogram) {
+        try {
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=TransactionMetrics"
+                + ",scope=" + ObjectName.quote(histogram.getScope())
+                + ",name=" + ObjectName.quote(histogram.getName())
+                + ",phase=" + ObjectName.quote(histogram.getPhase()));
+            mbeanServer.registerMBean(histogram, name);
+            synchronized (registered) {
+                registered.add(name);
+            }
+        } catch (Exception e) {
+            LOG.warn("Could not register the MBean of " + histogram.getScope() + " " + histogram.getName() + " " + histogram.getPhase(), e);
+        }
+    }
+
+    public MBeanServer getMbeanServer() {
+        return mbeanServer;
+    }
+
+    public void setMbeanServer(MBeanServer mbeanServer) {
+        this.mbeanServer = mbeanServer;
+    }
+
+    /**
+     * @return the port of the HTTP endpoint, -1 if there is none
+     */
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+}
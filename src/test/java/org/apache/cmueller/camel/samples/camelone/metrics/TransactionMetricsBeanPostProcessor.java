@@ -0,0 +1,69 @@
+package org.apache.cmueller.camel.samples.camelone.metrics;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.jms.XAConnectionFactory;
+import javax.sql.XADataSource;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.ResourceTransactionManager;
+
+/**
+ * Wraps the named {@link PlatformTransactionManager} beans, e.g. {@code jtaTransactionManager},
+ * {@code jmsTransactionManager} or {@code dataSourceTransactionManager}, into an
+ * {@link InstrumentedTransactionManager}, and the named {@link XADataSource} and {@link XAConnectionFactory} beans
+ * with {@link InstrumentedXAResources}. Beans which are injected as their concrete class can't be wrapped.
+ */
+public class TransactionMetricsBeanPostProcessor implements BeanPostProcessor {
+
+    private TransactionMetrics metrics;
+    private List<String> transactionManagerNames = Collections.emptyList();
+    private List<String> xaResourceFactoryNames = Collections.emptyList();
+
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        return bean;
+    }
+
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        if (xaResourceFactoryNames.contains(beanName) && (bean instanceof XADataSource || bean instanceof XAConnectionFactory)) {
+            return InstrumentedXAResources.wrap(bean, beanName, metrics);
+        }
+        if (!transactionManagerNames.contains(beanName) || bean instanceof InstrumentedTransactionManager) {
+            return bean;
+        }
+        if (bean instanceof ResourceTransactionManager) {
+            return new InstrumentedResourceTransactionManager((ResourceTransactionManager) bean, beanName, metrics);
+        }
+        if (bean instanceof PlatformTransactionManager) {
+            return new InstrumentedTransactionManager((PlatformTransactionManager) bean, beanName, metrics);
+        }
+        return bean;
+    }
+
+    public TransactionMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(TransactionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public List<String> getTransactionManagerNames() {
+        return transactionManagerNames;
+    }
+
+    public void setTransactionManagerNames(List<String> transactionManagerNames) {
+        this.transactionManagerNames = transactionManagerNames;
+    }
+
+    public List<String> getXaResourceFactoryNames() {
+        return xaResourceFactoryNames;
+    }
+
+    public void setXaResourceFactoryNames(List<String> xaResourceFactoryNames) {
+        this.xaResourceFactoryNames = xaResourceFactoryNames;
+    }
+}
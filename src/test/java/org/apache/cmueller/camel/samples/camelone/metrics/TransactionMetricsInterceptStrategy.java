@@ -0,0 +1,83 @@
+package org.apache.cmueller.camel.samples.camelone.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.model.ProcessorDefinition;
+import org.apache.camel.model.ToDefinition;
+import org.apache.camel.processor.DelegateAsyncProcessor;
+import org.apache.camel.spi.InterceptStrategy;
+
+/**
+ * Records the duration of every {@code to(...)} of a route, per route and endpoint scheme, e.g. the {@code sql} updates
+ * and the {@code activemqXa} send of the transfer routes. Exchanges which were not created by a route, e.g. by a
+ * producer template, are recorded under the route id {@value #UNKNOWN_ROUTE_ID}.
+ */
+public class TransactionMetricsInterceptStrategy implements InterceptStrategy {
+
+    public static final String UNKNOWN_ROUTE_ID = "unknown";
+
+    private TransactionMetrics metrics;
+
+    public TransactionMetricsInterceptStrategy() {
+    }
+
+    public TransactionMetricsInterceptStrategy(TransactionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Processor wrapProcessorInInterceptors(CamelContext context, ProcessorDefinition<?> definition, Processor target, Processor nextTarget) throws Exception {
+        if (!(definition instanceof ToDefinition)) {
+            return target;
+        }
+
+        String uri = ((ToDefinition) definition).getUri();
+        String phase = uri != null && uri.indexOf(':') > 0 ? uri.substring(0, uri.indexOf(':')) : definition.getLabel();
+        return new TimingProcessor(target, phase);
+    }
+
+    public TransactionMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(TransactionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private class TimingProcessor extends DelegateAsyncProcessor {
+
+        private final String phase;
+        private final ConcurrentMap<String, PhaseHistogram> histograms = new ConcurrentHashMap<String, PhaseHistogram>();
+
+        TimingProcessor(Processor processor, String phase) {
+            super(processor);
+            this.phase = phase;
+        }
+
+        @Override
+        public boolean process(final Exchange exchange, final AsyncCallback callback) {
+            String routeId = exchange.getFromRouteId();
+            final PhaseHistogram histogram = histogram(routeId != null ? routeId : UNKNOWN_ROUTE_ID);
+            final long start = System.nanoTime();
+            return super.process(exchange, new AsyncCallback() {
+                public void done(boolean doneSync) {
+                    histogram.record(System.nanoTime() - start);
+                    callback.done(doneSync);
+                }
+            });
+        }
+
+        private PhaseHistogram histogram(String routeId) {
+            PhaseHistogram histogram = histograms.get(routeId);
+            if (histogram == null) {
+                histogram = metrics.histogram("route", routeId, phase);
+                histograms.putIfAbsent(routeId, histogram);
+            }
+            return histogram;
+        }
+    }
+}
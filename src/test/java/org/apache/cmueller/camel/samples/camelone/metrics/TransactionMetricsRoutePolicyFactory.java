@@ -0,0 +1,54 @@
+package org.apache.cmueller.camel.samples.camelone.metrics;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Route;
+import org.apache.camel.model.RouteDefinition;
+import org.apache.camel.spi.RoutePolicy;
+import org.apache.camel.spi.RoutePolicyFactory;
+import org.apache.camel.support.RoutePolicySupport;
+
+/**
+ * Records the total duration of every exchange per route, from the begin of the exchange until it is done. This
+ * includes the commit of a {@code transacted(...)} policy, but not of a transaction started by a JMS listener
+ * container, which commits after the exchange and is recorded by the {@link InstrumentedTransactionManager}.
+ */
+public class TransactionMetricsRoutePolicyFactory implements RoutePolicyFactory {
+
+    private static final String START = "TransactionMetricsStart";
+
+    private TransactionMetrics metrics;
+
+    public TransactionMetricsRoutePolicyFactory() {
+    }
+
+    public TransactionMetricsRoutePolicyFactory(TransactionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public RoutePolicy createRoutePolicy(CamelContext camelContext, String routeId, RouteDefinition route) {
+        final PhaseHistogram total = metrics.histogram("route", routeId, "total");
+        return new RoutePolicySupport() {
+            @Override
+            public void onExchangeBegin(Route route, Exchange exchange) {
+                exchange.setProperty(START, System.nanoTime());
+            }
+
+            @Override
+            public void onExchangeDone(Route route, Exchange exchange) {
+                Long start = exchange.getProperty(START, Long.class);
+                if (start != null) {
+                    total.record(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    public TransactionMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(TransactionMetrics metrics) {
+        this.metrics = metrics;
+    }
+}
@@ -0,0 +1,166 @@
+package org.apache.cmueller.camel.samples.camelone.optimistic;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.test.spring.CamelSpringTestSupport;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class JmsAndJdbcOptimisticTransactionSampleTest extends CamelSpringTestSupport {
+
+    private static final int TRANSFERS = 1000;
+    private static final int CONSUMERS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    private BrokerService broker;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private OptimisticTransferProcessor processor;
+
+    private CountDownLatch latch;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        super.setUp();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "dataSourceTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+        processor = context.getRegistry().lookupByNameAndType("optimisticTransferProcessor", OptimisticTransferProcessor.class);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        // created by the processor
+        if (transactionTemplate != null && jdbc != null) {
+            transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    jdbc.execute("DROP TABLE " + OptimisticTransferProcessor.LEDGER_TABLE);
+                }
+            });
+        }
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+
+        super.tearDown();
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Test
+    public void moneyShouldBeTransfered() {
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+
+        template.sendBody("activemq:queue:transaction.incoming.one", 100L);
+
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.one", 5000);
+        assertNotNull(exchange);
+
+        assertEquals(900, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1100, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+        assertEquals(1, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT version from account where name = 'foo'"));
+        assertEquals(1, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT version from account where name = 'bar'"));
+    }
+
+    @Test
+    public void redeliveredTransferShouldNotBeAppliedTwice() throws Exception {
+        template.sendBody("activemq:queue:transaction.incoming.one", 100L);
+
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.one", 5000);
+        assertNotNull(exchange);
+
+        // the redelivery of the applied message after a failure later in the route
+        String messageId = jdbc.queryForObject("SELECT message_id FROM " + OptimisticTransferProcessor.LEDGER_TABLE, String.class);
+        Exchange redelivered = new DefaultExchange(context);
+        redelivered.getIn().setBody(100L);
+        redelivered.getIn().setHeader("JMSMessageID", messageId);
+        processor.process(redelivered);
+
+        assertEquals(1, processor.getDuplicateCount());
+        assertEquals(900, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1100, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void transferToTheSameAccountShouldBeRejected() throws Exception {
+        Exchange exchange = new DefaultExchange(context);
+        exchange.getIn().setBody(100L);
+        exchange.getIn().setHeader(OptimisticTransferProcessor.DEBIT_ACCOUNT, "foo");
+        exchange.getIn().setHeader(OptimisticTransferProcessor.CREDIT_ACCOUNT, "foo");
+
+        processor.process(exchange);
+    }
+
+    @Test
+    public void hotAccountLoadTest() throws Exception {
+        latch = new CountDownLatch(TRANSFERS);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < TRANSFERS; i++) {
+            // all consumers compete for the same two rows, in both directions
+            Map<String, Object> headers = new HashMap<String, Object>();
+            headers.put(OptimisticTransferProcessor.DEBIT_ACCOUNT, i % 2 == 0 ? "foo" : "bar");
+            headers.put(OptimisticTransferProcessor.CREDIT_ACCOUNT, i % 2 == 0 ? "bar" : "foo");
+            template.sendBodyAndHeaders("activemq:queue:transaction.incoming.hot", Long.valueOf(1), headers);
+        }
+        assertTrue(latch.await(60, TimeUnit.SECONDS));
+
+        System.out.println(CONSUMERS + " consumers: " + (System.currentTimeMillis() - start) + "ms, "
+            + processor.getConflictCount() + " conflicts for " + processor.getTransferCount() + " transfers");
+
+        // the conflicts were retried without rolling back a JMS message
+        assertNull(consumer.receive("activemq:queue:ActiveMQ.DLQ", 1000));
+        assertEquals(0, processor.getFailureCount());
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+        // no update was lost
+        assertEquals(TRANSFERS, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT version from account where name = 'foo'"));
+        assertEquals(TRANSFERS, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT version from account where name = 'bar'"));
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                // only the JMS transaction spans the route, the processor commits its own JDBC transactions
+                from("activemqTx:queue:transaction.incoming.one")
+                    .to("bean:optimisticTransferProcessor")
+                    .to("activemqTx:queue:transaction.outgoing.one");
+
+                from("activemqTx:queue:transaction.incoming.hot?concurrentConsumers=" + CONSUMERS)
+                    .to("bean:optimisticTransferProcessor")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            latch.countDown();
+                        }
+                    });
+            }
+        };
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcOptimisticTransactionSampleTest-context.xml");
+    }
+}
@@ -0,0 +1,226 @@
+package org.apache.cmueller.camel.samples.camelone.optimistic;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Transfers the amount in the message body from the account in the {@value #DEBIT_ACCOUNT} header to the account in
+ * the {@value #CREDIT_ACCOUNT} header with compare-and-set updates on the {@code version} column of the accounts:
+ * <pre>
+ * from("activemqTx:queue:transaction.incoming.hot?concurrentConsumers=8")
+ *     .to("bean:optimisticTransferProcessor")
+ *     .to("activemqTx:queue:transaction.outgoing.hot");
+ * </pre>
+ * Each attempt reads both accounts and writes them back in its own short JDBC transaction, which only holds the row
+ * locks between the updates and the commit, and not for the whole JMS transaction. If another transfer changed one of
+ * the accounts in between, the attempt is rolled back and retried after an exponential backoff with jitter. Only when
+ * all attempts failed, an {@link OptimisticLockingFailureException} rolls back the JMS message.
+ * <p>
+ * The JDBC transaction commits before the JMS transaction, so a crash or a failure later in the route redelivers an
+ * applied transfer. The JMS message id is therefore recorded in the {@value #LEDGER_TABLE} table in the same JDBC
+ * transaction as the balances, and a message which is already recorded is skipped. A transfer from an account to
+ * itself is rejected, it would not change the balances. All writers of the accounts must increment the version, the
+ * other samples don't.
+ */
+public class OptimisticTransferProcessor implements Processor {
+
+    public static final String DEBIT_ACCOUNT = "debitAccount";
+    public static final String CREDIT_ACCOUNT = "creditAccount";
+
+    static final String LEDGER_TABLE = "optimistic_transfer_ledger";
+    static final String CREATE_LEDGER_TABLE = "CREATE TABLE " + LEDGER_TABLE + " (message_id VARCHAR(100) NOT NULL PRIMARY KEY)";
+
+    private DataSource dataSource;
+    private PlatformTransactionManager transactionManager;
+    private int maxAttempts = 16;
+    private long initialBackoff = 1;
+    private long maxBackoff = 50;
+
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+
+    private final AtomicLong transfers = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    public void init() throws SQLException {
+        jdbc = new JdbcTemplate(dataSource);
+        DatabaseUtil.createTableIfNecessary(dataSource, LEDGER_TABLE, CREATE_LEDGER_TABLE);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        // independent of a JDBC transaction around the processor, which would hold the locks again
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+    }
+
+    public void process(Exchange exchange) throws Exception {
+        String debitAccount = exchange.getIn().getHeader(DEBIT_ACCOUNT, "foo", String.class);
+        String creditAccount = exchange.getIn().getHeader(CREDIT_ACCOUNT, "bar", String.class);
+        long amount = exchange.getIn().getMandatoryBody(Long.class);
+        String messageId = exchange.getIn().getHeader("JMSMessageID", String.class);
+        if (debitAccount.equals(creditAccount)) {
+            // both compare-and-sets would expect the same version, so the second one could never succeed
+            throw new IllegalArgumentException("Transfer from account " + debitAccount + " to itself");
+        }
+
+        for (int attempt = 1;; attempt++) {
+            Boolean transferred = tryTransfer(messageId, debitAccount, creditAccount, amount);
+            if (transferred == null) {
+                duplicates.incrementAndGet();
+                return;
+            }
+            if (transferred) {
+                transfers.incrementAndGet();
+                return;
+            }
+            conflicts.incrementAndGet();
+            if (attempt >= maxAttempts) {
+                failures.incrementAndGet();
+                throw new OptimisticLockingFailureException("Transfer from " + debitAccount + " to " + creditAccount
+                    + " conflicted with concurrent transfers " + attempt + " times");
+            }
+            Thread.sleep(backoff(attempt));
+        }
+    }
+
+    /**
+     * @return whether the transfer committed, or {@code null} if the ledger holds the message already
+     */
+    private Boolean tryTransfer(final String messageId, final String debitAccount, final String creditAccount, final long amount) {
+        return transactionTemplate.execute(new TransactionCallback<Boolean>() {
+            public Boolean doInTransaction(TransactionStatus status) {
+                if (messageId != null && jdbc.queryForObject("SELECT COUNT(*) FROM " + LEDGER_TABLE + " WHERE message_id = ?", Long.class, messageId) > 0) {
+                    return null;
+                }
+
+                Map<String, Object> debit = read(debitAccount);
+                Map<String, Object> credit = read(creditAccount);
+
+                // in a fixed order, so two opposite transfers wait for each other instead of deadlocking
+                boolean updated;
+                if (debitAccount.compareTo(creditAccount) < 0) {
+                    updated = compareAndSet(debit, -amount) && compareAndSet(credit, amount);
+                } else {
+                    updated = compareAndSet(credit, amount) && compareAndSet(debit, -amount);
+                }
+                if (!updated) {
+                    status.setRollbackOnly();
+                } else if (messageId != null) {
+                    jdbc.update("INSERT INTO " + LEDGER_TABLE + " (message_id) VALUES (?)", messageId);
+                }
+                return updated;
+            }
+        });
+    }
+
+    private Map<String, Object> read(String account) {
+        try {
+            return jdbc.queryForMap("SELECT name, balance, version FROM account WHERE name = ?", account);
+        } catch (EmptyResultDataAccessException e) {
+            throw new IllegalArgumentException("Unknown account " + account, e);
+        }
+    }
+
+    private boolean compareAndSet(Map<String, Object> account, long amount) {
+        long balance = ((Number) account.get("BALANCE")).longValue();
+        long version = ((Number) account.get("VERSION")).longValue();
+        return jdbc.update("UPDATE account SET balance = ?, version = ? WHERE name = ? AND version = ?",
+            balance + amount, version + 1, account.get("NAME"), version) == 1;
+    }
+
+    /**
+     * @return a random backoff between the half and the whole of the exponential backoff of the attempt, so the
+     *         conflicting transfers don't retry in lockstep
+     */
+    private long backoff(int attempt) {
+        long backoff = Math.min(maxBackoff, initialBackoff << Math.min(attempt - 1, 30));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * @return the number of committed transfers
+     */
+    public long getTransferCount() {
+        return transfers.get();
+    }
+
+    /**
+     * @return the number of attempts which were rolled back because of a concurrent transfer
+     */
+    public long getConflictCount() {
+        return conflicts.get();
+    }
+
+    /**
+     * @return the number of transfers which gave up after {@link #getMaxAttempts()} attempts
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * @return the number of redelivered messages which were skipped, since their transfer was committed already
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public PlatformTransactionManager getTransactionManager() {
+        return transactionManager;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    /**
+     * @param initialBackoff the backoff after the first conflict in milliseconds, doubled for every further conflict
+     */
+    public void setInitialBackoff(long initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public void setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+}
@@ -0,0 +1,185 @@
+package org.apache.cmueller.camel.samples.camelone.outbox;
+
+import java.sql.SQLException;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.spring.CamelSpringTestSupport;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class JmsAndJdbcOutboxTransactionSampleTest extends CamelSpringTestSupport {
+
+    private static final int TRANSFERS = 200;
+
+    private BrokerService broker;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private OutboxRelay relay;
+    private OutboxWriter outbox;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        super.setUp();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "dataSourceTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+        relay = context.getRegistry().lookupByNameAndType("outboxRelay", OutboxRelay.class);
+        outbox = context.getRegistry().lookupByNameAndType("outboxWriter", OutboxWriter.class);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        relay.stop();
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                jdbc.execute("DROP TABLE " + OutboxWriter.TABLE);
+                jdbc.execute("DROP TABLE " + OutboxWriter.RECEIVED_TABLE);
+            }
+        });
+
+        super.tearDown();
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Test
+    public void moneyShouldBeTransfered() throws Exception {
+        template.sendBody("activemq:queue:transaction.incoming.one", 100L);
+
+        // relayed after the commit of the balance updates
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.one", 5000);
+        assertNotNull(exchange);
+        assertEquals("100", exchange.getIn().getBody(String.class));
+        assertNotNull(exchange.getIn().getHeader(OutboxRelay.OUTBOX_ID));
+
+        assertEquals(900, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1100, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+        assertBacklogDrained();
+    }
+
+    @Test
+    public void moneyShouldNotTransfered() throws Exception {
+        template.sendBody("activemq:queue:transaction.incoming.two", 100L);
+
+        Exchange exchange = consumer.receive("activemq:queue:ActiveMQ.DLQ", 5000);
+        assertNotNull(exchange);
+
+        // the outgoing message was rolled back with the balance updates
+        assertNull(consumer.receive("activemq:queue:transaction.outgoing.two", 1000));
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+        assertEquals(0, relay.getRelayedCount());
+        assertEquals(0, relay.getBacklog());
+    }
+
+    @Test
+    public void messagesShouldBeRelayedInOrderOfTheirKey() throws Exception {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < TRANSFERS; i++) {
+            template.sendBodyAndHeader("activemq:queue:transaction.incoming.three", 1L, "account", i % 2 == 0 ? "foo" : "bar");
+        }
+
+        long[] lastIds = new long[2];
+        for (int i = 0; i < TRANSFERS; i++) {
+            Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.three", 5000);
+            assertNotNull(exchange);
+            String key = exchange.getIn().getHeader(OutboxRelay.GROUP_ID, String.class);
+            long id = exchange.getIn().getHeader(OutboxRelay.OUTBOX_ID, Long.class);
+            int k = "foo".equals(key) ? 0 : 1;
+            assertTrue(id > lastIds[k]);
+            lastIds[k] = id;
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        System.out.println(TRANSFERS + " transfers relayed in " + duration + "ms, " + relay.getBatchCount() + " batches, lag mean "
+            + relay.getLagMeanMicros() + "us p99 " + relay.getLagP99Micros() + "us");
+
+        assertEquals(1000 - TRANSFERS, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1000 + TRANSFERS, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+        assertBacklogDrained();
+    }
+
+    @Test
+    public void redeliveredMessageShouldNotBeTransferedTwice() throws Exception {
+        // the consumer died after the JDBC commit, before the acknowledge
+        template.sendBodyAndHeader("direct:redelivered", 100L, OutboxWriter.JMS_MESSAGE_ID, "ID:crashed-1");
+        template.sendBodyAndHeader("direct:redelivered", 100L, OutboxWriter.JMS_MESSAGE_ID, "ID:crashed-1");
+
+        assertNotNull(consumer.receive("activemq:queue:transaction.outgoing.four", 5000));
+        assertNull(consumer.receive("activemq:queue:transaction.outgoing.four", 1000));
+        assertEquals(900, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1100, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+        assertEquals(1, outbox.getDuplicateCount());
+        assertBacklogDrained();
+    }
+
+    private void assertBacklogDrained() throws InterruptedException {
+        // the relay deletes a batch after its JMS commit
+        for (int i = 0; i < 50 && relay.getBacklog() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, relay.getBacklog());
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        final OutboxWriter outbox = context.getRegistry().lookupByNameAndType("outboxWriter", OutboxWriter.class);
+
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("activemqTx:queue:transaction.incoming.one")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .process(outbox.receive())
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource")
+                    .process(outbox.to("transaction.outgoing.one"));
+
+                from("activemqTx:queue:transaction.incoming.two")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .process(outbox.receive())
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .process(outbox.to("transaction.outgoing.two"))
+                    .throwException(new SQLException("forced exception for test"))
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource");
+
+                from("activemqTx:queue:transaction.incoming.three")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .process(outbox.receive())
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource")
+                    .process(outbox.to("transaction.outgoing.three"));
+
+                from("direct:redelivered")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .process(outbox.receive())
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource")
+                    .process(outbox.to("transaction.outgoing.four"));
+            }
+        };
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcOutboxTransactionSampleTest-context.xml");
+    }
+}
@@ -0,0 +1,301 @@
+package org.apache.cmueller.camel.samples.camelone.outbox;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.sql.DataSource;
+
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.metrics.PhaseHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Drains the {@code outbox} table of the {@link OutboxWriter} to the broker, on a thread of its own:
+ * <ol>
+ * <li>reads up to {@code batchSize} committed messages in the order of their ids</li>
+ * <li>sends them in one local JMS transaction, with their id in the {@value #OUTBOX_ID} property and their ordering
+ * key as {@code JMSXGroupID}, so the broker hands the messages of one key to one consumer in order</li>
+ * <li>deletes them with one statement</li>
+ * </ol>
+ * The delivery is at-least-once: if the relay fails between the JMS commit and the delete, the batch is sent again,
+ * consumers which must not see it twice can use the {@value #OUTBOX_ID} as message id. Two transfers of the same
+ * account serialize on the lock of its row, so the message of the later one gets the higher id and the messages of an
+ * ordering key are relayed in the order of their commits.
+ * <p>
+ * The relay polls every {@code pollInterval} milliseconds and is woken up by the writer after each commit.
+ */
+public class OutboxRelay implements OutboxRelayMBean {
+
+    public static final String OUTBOX_ID = "OutboxId";
+    public static final String GROUP_ID = "JMSXGroupID";
+
+    static final String SELECT = "SELECT id, destination, ordering_key, body, created_at FROM " + OutboxWriter.TABLE + " ORDER BY id";
+    static final String DELETE = "DELETE FROM " + OutboxWriter.TABLE + " WHERE id IN ";
+
+    private static final Logger LOG = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private DataSource dataSource;
+    private ConnectionFactory connectionFactory;
+    private int batchSize = 100;
+    private long pollInterval = 100;
+
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private Thread thread;
+    private volatile boolean running;
+    private final Object signal = new Object();
+    private boolean signalled;
+
+    private final AtomicLong relayed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final PhaseHistogram lag = new PhaseHistogram("outbox", "relay", "lag");
+
+    public synchronized void start() throws SQLException {
+        if (dataSource == null || connectionFactory == null) {
+            throw new IllegalArgumentException("Properties 'dataSource' and 'connectionFactory' are required");
+        }
+        if (running) {
+            return;
+        }
+
+        // the relay may start before the writer
+        DatabaseUtil.createTableIfNecessary(dataSource, OutboxWriter.TABLE, OutboxWriter.CREATE_TABLE);
+        jdbc = new JdbcTemplate(dataSource);
+        jdbc.setMaxRows(batchSize);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        running = true;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                relay();
+            }
+        }, "OutboxRelay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() throws InterruptedException {
+        Thread relayThread;
+        synchronized (this) {
+            running = false;
+            relayThread = thread;
+            thread = null;
+        }
+        if (relayThread != null) {
+            signal();
+            relayThread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * Wakes the relay up, e.g. after a message was committed.
+     */
+    public void signal() {
+        synchronized (signal) {
+            signalled = true;
+            signal.notify();
+        }
+    }
+
+    private void relay() {
+        while (running) {
+            int relayedBatch;
+            try {
+                relayedBatch = relayBatch();
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                LOG.warn("Could not relay the outbox, retrying in " + pollInterval + "ms", e);
+                relayedBatch = 0;
+            }
+
+            // a full batch means there are more messages
+            if (relayedBatch < batchSize) {
+                awaitSignal();
+            }
+        }
+    }
+
+    private void awaitSignal() {
+        synchronized (signal) {
+            try {
+                if (!signalled && running) {
+                    signal.wait(pollInterval);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            signalled = false;
+        }
+    }
+
+    /**
+     * @return the number of messages relayed
+     */
+    int relayBatch() throws JMSException {
+        final List<OutboxMessage> messages = transactionTemplate.execute(new TransactionCallback<List<OutboxMessage>>() {
+            @Override
+            public List<OutboxMessage> doInTransaction(TransactionStatus status) {
+                return jdbc.query(SELECT, new RowMapper<OutboxMessage>() {
+                    public OutboxMessage mapRow(ResultSet rs, int rowNum) throws SQLException {
+                        return new OutboxMessage(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getLong(5));
+                    }
+                });
+            }
+        });
+        if (messages.isEmpty()) {
+            return 0;
+        }
+
+        send(messages);
+
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                jdbc.update(deleteStatement(messages));
+            }
+        });
+
+        long now = System.currentTimeMillis();
+        for (OutboxMessage message : messages) {
+            lag.record(TimeUnit.MILLISECONDS.toNanos(now - message.createdAt));
+        }
+        relayed.addAndGet(messages.size());
+        batches.incrementAndGet();
+        return messages.size();
+    }
+
+    private void send(List<OutboxMessage> messages) throws JMSException {
+        Connection connection = connectionFactory.createConnection();
+        try {
+            Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+            try {
+                MessageProducer producer = session.createProducer(null);
+                for (OutboxMessage message : messages) {
+                    TextMessage jmsMessage = session.createTextMessage(message.body);
+                    jmsMessage.setLongProperty(OUTBOX_ID, message.id);
+                    if (message.orderingKey != null) {
+                        jmsMessage.setStringProperty(GROUP_ID, message.orderingKey);
+                    }
+                    producer.send(session.createQueue(message.destination), jmsMessage);
+                }
+                session.commit();
+            } finally {
+                session.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static String deleteStatement(List<OutboxMessage> messages) {
+        // the ids are numbers read from the table, no parameters needed
+        List<Long> ids = new ArrayList<Long>(messages.size());
+        for (OutboxMessage message : messages) {
+            ids.add(message.id);
+        }
+        String list = ids.toString();
+        return DELETE + "(" + list.substring(1, list.length() - 1) + ")";
+    }
+
+    public long getRelayedCount() {
+        return relayed.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * @return the number of committed messages which are not relayed yet
+     */
+    public long getBacklog() {
+        return new JdbcTemplate(dataSource).queryForObject("SELECT COUNT(*) FROM " + OutboxWriter.TABLE, Long.class);
+    }
+
+    /**
+     * @return the histogram of the time from writing a message until it was relayed
+     */
+    public PhaseHistogram getLag() {
+        return lag;
+    }
+
+    public double getLagMeanMicros() {
+        return lag.getMeanMicros();
+    }
+
+    public double getLagP99Micros() {
+        return lag.getP99Micros();
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public ConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    public void setConnectionFactory(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    private static final class OutboxMessage {
+        private final long id;
+        private final String destination;
+        private final String orderingKey;
+        private final String body;
+        private final long createdAt;
+
+        OutboxMessage(long id, String destination, String orderingKey, String body, long createdAt) {
+            this.id = id;
+            this.destination = destination;
+            this.orderingKey = orderingKey;
+            this.body = body;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.apache.cmueller.camel.samples.camelone.outbox;
+
+public interface OutboxRelayMBean {
+
+    long getRelayedCount();
+
+    long getBatchCount();
+
+    long getFailureCount();
+
+    long getBacklog();
+
+    double getLagMeanMicros();
+
+    double getLagP99Micros();
+}
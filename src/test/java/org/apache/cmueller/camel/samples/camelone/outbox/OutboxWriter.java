@@ -0,0 +1,156 @@
+package org.apache.cmueller.camel.samples.camelone.outbox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Writes outgoing messages to the {@code outbox} table, in the running JDBC transaction of the route, instead of
+ * sending them to the broker. The message is committed or rolled back together with the balance updates, so the
+ * outgoing leg doesn't need XA. The {@link OutboxRelay} sends the committed messages to the broker later.
+ * <p>
+ * The incoming message is still acknowledged after the JDBC commit. If the consumer dies in between, the broker
+ * redelivers a message whose transfer is already applied, and without XA this can only be detected in the database.
+ * {@link #receive()} therefore records the id of the incoming message in the same JDBC transaction, and stops the
+ * route for a message it has already recorded. A route which doesn't start with it must keep XA:
+ * <pre>
+ * from("activemqTx:queue:transaction.incoming.one")
+ *     .transacted("PROPAGATION_REQUIRED_JDBC")
+ *     .process(outboxWriter.receive())
+ *     .to("sql:UPDATE account ...")
+ *     .process(outboxWriter.to("transaction.outgoing.one"));
+ * </pre>
+ * The body is stored as text. If {@code orderingKeyHeader} is set, the value of this header is stored as the ordering
+ * key of the message, which the relay sends as message group.
+ */
+public class OutboxWriter implements InitializingBean {
+
+    static final String TABLE = "outbox";
+    static final String CREATE_TABLE = "CREATE TABLE " + TABLE + " (id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY, "
+        + "destination VARCHAR(255) NOT NULL, ordering_key VARCHAR(255), body VARCHAR(4000), created_at BIGINT NOT NULL)";
+    static final String INSERT = "INSERT INTO " + TABLE + " (destination, ordering_key, body, created_at) VALUES (?, ?, ?, ?)";
+    static final String RECEIVED_TABLE = "outbox_received";
+    static final String CREATE_RECEIVED_TABLE = "CREATE TABLE " + RECEIVED_TABLE + " (message_id VARCHAR(100) PRIMARY KEY, "
+        + "received_at BIGINT NOT NULL)";
+    static final String JMS_MESSAGE_ID = "JMSMessageID";
+
+    private DataSource dataSource;
+    private String orderingKeyHeader;
+    private OutboxRelay relay;
+
+    private JdbcTemplate jdbc;
+    private final AtomicLong duplicates = new AtomicLong();
+
+    public void afterPropertiesSet() throws Exception {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("Property 'dataSource' is required");
+        }
+
+        jdbc = new JdbcTemplate(dataSource);
+        DatabaseUtil.createTableIfNecessary(dataSource, TABLE, CREATE_TABLE);
+        DatabaseUtil.createTableIfNecessary(dataSource, RECEIVED_TABLE, CREATE_RECEIVED_TABLE);
+    }
+
+    /**
+     * @return a processor which records the id of the incoming message, and stops the route if it was already recorded
+     */
+    public Processor receive() {
+        return new Processor() {
+            public void process(Exchange exchange) throws Exception {
+                if (!receive(exchange)) {
+                    exchange.setProperty(Exchange.ROUTE_STOP, Boolean.TRUE);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a processor which writes the body of the exchange to the outbox, for the queue {@code destination}
+     */
+    public Processor to(final String destination) {
+        return new Processor() {
+            public void process(Exchange exchange) throws Exception {
+                write(destination, exchange);
+            }
+        };
+    }
+
+    boolean receive(Exchange exchange) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Incoming messages must be recorded in the transaction of the balance updates");
+        }
+
+        String messageId = exchange.getIn().getHeader(JMS_MESSAGE_ID, String.class);
+        if (messageId == null) {
+            throw new IllegalArgumentException("Incoming message has no " + JMS_MESSAGE_ID);
+        }
+
+        if (jdbc.queryForObject("SELECT COUNT(*) FROM " + RECEIVED_TABLE + " WHERE message_id = ?", Long.class, messageId) > 0) {
+            duplicates.incrementAndGet();
+            return false;
+        }
+        // a concurrent redelivery fails on the primary key and rolls back, its next delivery is skipped
+        jdbc.update("INSERT INTO " + RECEIVED_TABLE + " (message_id, received_at) VALUES (?, ?)", messageId, System.currentTimeMillis());
+        return true;
+    }
+
+    void write(String destination, Exchange exchange) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Outgoing messages must be written in the transaction of the balance updates");
+        }
+
+        String orderingKey = orderingKeyHeader != null ? exchange.getIn().getHeader(orderingKeyHeader, String.class) : null;
+        jdbc.update(INSERT, destination, orderingKey, exchange.getIn().getBody(String.class), System.currentTimeMillis());
+
+        if (relay != null) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    relay.signal();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the number of redelivered messages which were skipped because their transfer was already applied
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public String getOrderingKeyHeader() {
+        return orderingKeyHeader;
+    }
+
+    public void setOrderingKeyHeader(String orderingKeyHeader) {
+        this.orderingKeyHeader = orderingKeyHeader;
+    }
+
+    public OutboxRelay getRelay() {
+        return relay;
+    }
+
+    /**
+     * @param relay the relay which is woken up after each commit, instead of waiting for its next poll
+     */
+    public void setRelay(OutboxRelay relay) {
+        this.relay = relay;
+    }
+}
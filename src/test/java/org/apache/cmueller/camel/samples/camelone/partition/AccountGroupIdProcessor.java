@@ -0,0 +1,19 @@
+package org.apache.cmueller.camel.samples.camelone.partition;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+
+/**
+ * Puts a transfer into the JMS message group of its debit account, before it is sent to the partitioned queue. The
+ * broker delivers all messages of a group to one consumer, so the transfers from an account are processed in the
+ * order they were sent, while the groups are spread over the concurrent consumers.
+ */
+public class AccountGroupIdProcessor implements Processor {
+
+    public static final String GROUP_ID = "JMSXGroupID";
+
+    public void process(Exchange exchange) throws Exception {
+        String debitAccount = exchange.getIn().getHeader(StripedTransferProcessor.DEBIT_ACCOUNT, "foo", String.class);
+        exchange.getIn().setHeader(GROUP_ID, debitAccount);
+    }
+}
@@ -0,0 +1,173 @@
+package org.apache.cmueller.camel.samples.camelone.partition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.spring.CamelSpringTestSupport;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class JmsAndJdbcPartitionedTransactionSampleTest extends CamelSpringTestSupport {
+
+    private static final int ACCOUNTS = 64;
+    private static final int TRANSFERS = 2000;
+    private static final int CONSUMERS = Runtime.getRuntime().availableProcessors();
+
+    private BrokerService broker;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+
+    private CountDownLatch latch;
+    private final ConcurrentMap<String, List<Integer>> processed = new ConcurrentHashMap<String, List<Integer>>();
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        super.setUp();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "dataSourceTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+        DatabaseUtil.createAccounts(transactionTemplate, jdbc, ACCOUNTS, 1000);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+
+        super.tearDown();
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Test
+    public void moneyShouldBeTransfered() {
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+
+        template.sendBody("activemq:queue:transaction.incoming.one", 100L);
+
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.one", 5000);
+        assertNotNull(exchange);
+
+        assertEquals(900, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1100, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    @Test
+    public void multiAccountLoadTest() throws Exception {
+        long total = DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT SUM(balance) from account");
+
+        long serial = transferRandomly("activemq:queue:transaction.incoming.serial");
+        long partitioned = transferRandomly("direct:partitioned");
+
+        // the speedup is measured by the PartitionedTransferBenchmark, a single run is too noisy to assert it
+        System.out.println("1 consumer: " + serial + "ms, " + CONSUMERS + " consumers: " + partitioned + "ms");
+
+        // no transfer was rolled back because of a deadlock and the money is conserved
+        assertNull(consumer.receive("activemq:queue:ActiveMQ.DLQ", 1000));
+        assertEquals(total, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT SUM(balance) from account"));
+    }
+
+    @Test
+    public void transfersFromAnAccountShouldBeProcessedInOrder() throws Exception {
+        transferRandomly("direct:partitioned");
+
+        assertEquals(ACCOUNTS, processed.size());
+        for (Map.Entry<String, List<Integer>> entry : processed.entrySet()) {
+            List<Integer> sorted = new ArrayList<Integer>(entry.getValue());
+            Collections.sort(sorted);
+            assertEquals("transfers from " + entry.getKey(), sorted, entry.getValue());
+        }
+    }
+
+    private long transferRandomly(String endpointUri) throws InterruptedException {
+        Random random = new Random(4711);
+
+        latch = new CountDownLatch(TRANSFERS);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < TRANSFERS; i++) {
+            int debit = random.nextInt(ACCOUNTS);
+            int credit = (debit + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+
+            Map<String, Object> headers = new HashMap<String, Object>();
+            headers.put(StripedTransferProcessor.DEBIT_ACCOUNT, DatabaseUtil.accountName(debit));
+            headers.put(StripedTransferProcessor.CREDIT_ACCOUNT, DatabaseUtil.accountName(credit));
+            headers.put("sequence", i);
+            template.sendBodyAndHeaders(endpointUri, Long.valueOf(1), headers);
+        }
+        latch.await();
+        return System.currentTimeMillis() - start;
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                Processor countDown = new Processor() {
+                    public void process(Exchange exchange) throws Exception {
+                        latch.countDown();
+                    }
+                };
+
+                from("activemqTx:queue:transaction.incoming.one")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .to("bean:stripedTransferProcessor")
+                    .to("activemqTx:queue:transaction.outgoing.one");
+
+                from("activemqTx:queue:transaction.incoming.serial")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .to("bean:stripedTransferProcessor")
+                    .process(countDown);
+
+                from("direct:partitioned")
+                    .process(new AccountGroupIdProcessor())
+                    .to("activemq:queue:transaction.incoming.partitioned");
+
+                // the consumers are cached, so that a message group sticks to its consumer
+                from("activemqTx:queue:transaction.incoming.partitioned?concurrentConsumers=" + CONSUMERS + "&cacheLevelName=CACHE_CONSUMER")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .to("bean:stripedTransferProcessor")
+                    .process(new Processor() {
+                        public void process(Exchange exchange) throws Exception {
+                            String debitAccount = exchange.getIn().getHeader(StripedTransferProcessor.DEBIT_ACCOUNT, String.class);
+                            List<Integer> sequences = processed.get(debitAccount);
+                            if (sequences == null) {
+                                processed.putIfAbsent(debitAccount, Collections.synchronizedList(new ArrayList<Integer>()));
+                                sequences = processed.get(debitAccount);
+                            }
+                            sequences.add(exchange.getIn().getHeader("sequence", Integer.class));
+                        }
+                    })
+                    .process(countDown);
+            }
+        };
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcPartitionedTransactionSampleTest-context.xml");
+    }
+}
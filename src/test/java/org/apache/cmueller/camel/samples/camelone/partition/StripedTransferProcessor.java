@@ -0,0 +1,104 @@
+package org.apache.cmueller.camel.samples.camelone.partition;
+
+import java.util.concurrent.Semaphore;
+
+import javax.sql.DataSource;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.support.SynchronizationAdapter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Transfers the amount in the message body from the account in the {@value #DEBIT_ACCOUNT} header to the account in
+ * the {@value #CREDIT_ACCOUNT} header, so that the route can run with concurrent consumers.
+ * <p>
+ * The accounts are hashed onto a fixed number of stripes. A transfer holds the stripes of both of its accounts until
+ * the exchange is done, which is after the transaction has committed. Transfers touching the same accounts are
+ * serialized, unrelated transfers run in parallel. The stripes are acquired, and the rows updated, in a fixed order,
+ * so two opposite transfers can never deadlock on the Derby row locks.
+ * <p>
+ * The stripes are fair, a transfer waiting for a stripe gets it before the transfers arriving later. This doesn't
+ * order the transfers of an account across the consumers though, which receive them independently: the sender groups
+ * them with the {@link AccountGroupIdProcessor}, so that the broker delivers all transfers from an account to the same
+ * consumer, in order.
+ */
+public class StripedTransferProcessor implements Processor {
+
+    public static final String DEBIT_ACCOUNT = "debitAccount";
+    public static final String CREDIT_ACCOUNT = "creditAccount";
+
+    private DataSource dataSource;
+    private int stripes = 64;
+
+    private JdbcTemplate jdbc;
+    private Semaphore[] locks;
+
+    public void init() {
+        jdbc = new JdbcTemplate(dataSource);
+        locks = new Semaphore[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new Semaphore(1, true);
+        }
+    }
+
+    public void process(Exchange exchange) throws Exception {
+        String debitAccount = exchange.getIn().getHeader(DEBIT_ACCOUNT, "foo", String.class);
+        String creditAccount = exchange.getIn().getHeader(CREDIT_ACCOUNT, "bar", String.class);
+        long amount = exchange.getIn().getMandatoryBody(Long.class);
+
+        int debitStripe = stripe(debitAccount);
+        int creditStripe = stripe(creditAccount);
+        final Semaphore first = locks[Math.min(debitStripe, creditStripe)];
+        final Semaphore second = debitStripe == creditStripe ? null : locks[Math.max(debitStripe, creditStripe)];
+
+        first.acquire();
+        if (second != null) {
+            try {
+                second.acquire();
+            } catch (InterruptedException e) {
+                first.release();
+                throw e;
+            }
+        }
+        // a semaphore, other than a lock, may be released by the thread completing the exchange
+        exchange.addOnCompletion(new SynchronizationAdapter() {
+            @Override
+            public void onDone(Exchange exchange) {
+                if (second != null) {
+                    second.release();
+                }
+                first.release();
+            }
+        });
+
+        if (debitAccount.compareTo(creditAccount) < 0) {
+            jdbc.update("UPDATE account SET balance = balance - ? WHERE name = ?", amount, debitAccount);
+            jdbc.update("UPDATE account SET balance = balance + ? WHERE name = ?", amount, creditAccount);
+        } else {
+            jdbc.update("UPDATE account SET balance = balance + ? WHERE name = ?", amount, creditAccount);
+            jdbc.update("UPDATE account SET balance = balance - ? WHERE name = ?", amount, debitAccount);
+        }
+    }
+
+    private int stripe(String account) {
+        int hash = account.hashCode();
+        return ((hash ^ (hash >>> 16)) & 0x7fffffff) % stripes;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+}
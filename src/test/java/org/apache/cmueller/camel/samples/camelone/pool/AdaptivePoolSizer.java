@@ -0,0 +1,201 @@
+package org.apache.cmueller.camel.samples.camelone.pool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+
+/**
+ * Sizes a pool against a target checkout wait. Every {@code intervalMillis}, the 99th percentile of the waits of the
+ * interval is compared with {@code targetWaitMicros}:
+ * <ul>
+ * <li>above the target, the pool grows by half of its size, up to {@code maxSize}</li>
+ * <li>below the target, while at most half of the connections were checked out at the same time, the pool shrinks by
+ * one, down to {@code minSize}</li>
+ * </ul>
+ * It grows fast and shrinks slowly, so a stepped load doesn't make the size oscillate. The size is set on the
+ * {@code sizeProperties} of the {@code target}, e.g. {@code maxActive} and {@code maxIdle} of a DBCP data source, which
+ * apply a new size to the running pool. The pool must block a checkout while all of its connections are in use,
+ * otherwise there is no wait to size it by.
+ */
+public class AdaptivePoolSizer implements AdaptivePoolSizerMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptivePoolSizer.class);
+
+    private InstrumentedPool pool;
+    private Object target;
+    private List<String> sizeProperties = new ArrayList<String>();
+    private int minSize = 1;
+    private int maxSize = 32;
+    private long targetWaitMicros = 1000;
+    private long intervalMillis = 500;
+
+    private volatile int size;
+    private volatile double lastWaitP99Micros;
+    private volatile double utilization;
+    private final AtomicLong grows = new AtomicLong();
+    private final AtomicLong shrinks = new AtomicLong();
+
+    private Histogram previousWait;
+    private ScheduledExecutorService executor;
+
+    public synchronized void start() {
+        BeanWrapper wrapper = new BeanWrapperImpl(target);
+        size = ((Number) wrapper.getPropertyValue(sizeProperties.get(0))).intValue();
+        size = Math.min(Math.max(size, minSize), maxSize);
+        resize(size);
+        previousWait = pool.getStatistics().getWait().snapshot();
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AdaptivePoolSizer-" + pool.getStatistics().getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    adjust();
+                } catch (RuntimeException e) {
+                    LOG.warn("Could not adjust the size of pool '" + pool.getStatistics().getName() + "'", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Compares the checkouts since the last call with the target and resizes the pool.
+     */
+    public synchronized void adjust() {
+        PoolStatistics statistics = pool.getStatistics();
+        Histogram wait = statistics.getWait().snapshot();
+        Histogram interval = wait.copy();
+        interval.subtract(previousWait);
+        previousWait = wait;
+        int peak = statistics.resetPeakActive();
+
+        utilization = (double) peak / size;
+        if (interval.getTotalCount() == 0) {
+            return;
+        }
+        lastWaitP99Micros = interval.getValueAtPercentile(99) / 1000d;
+
+        if (lastWaitP99Micros > targetWaitMicros && size < maxSize) {
+            int newSize = Math.min(maxSize, size + Math.max(1, size / 2));
+            LOG.info("Growing pool '{}' from {} to {}: p99 wait {}us, peak {} active", statistics.getName(), size, newSize, lastWaitP99Micros, peak);
+            resize(newSize);
+            grows.incrementAndGet();
+        } else if (lastWaitP99Micros <= targetWaitMicros && peak <= size / 2 && size > minSize) {
+            LOG.info("Shrinking pool '{}' from {} to {}: p99 wait {}us, peak {} active", statistics.getName(), size, size - 1, lastWaitP99Micros, peak);
+            resize(size - 1);
+            shrinks.incrementAndGet();
+        }
+    }
+
+    private void resize(int newSize) {
+        BeanWrapper wrapper = new BeanWrapperImpl(target);
+        for (String property : sizeProperties) {
+            wrapper.setPropertyValue(property, newSize);
+        }
+        size = newSize;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the most connections checked out at the same time in the last interval, relative to the size
+     */
+    public double getUtilization() {
+        return utilization;
+    }
+
+    public double getLastWaitP99Micros() {
+        return lastWaitP99Micros;
+    }
+
+    public long getGrowCount() {
+        return grows.get();
+    }
+
+    public long getShrinkCount() {
+        return shrinks.get();
+    }
+
+    public InstrumentedPool getPool() {
+        return pool;
+    }
+
+    public void setPool(InstrumentedPool pool) {
+        this.pool = pool;
+    }
+
+    public Object getTarget() {
+        return target;
+    }
+
+    /**
+     * @param target the pool whose {@code sizeProperties} are set
+     */
+    public void setTarget(Object target) {
+        this.target = target;
+    }
+
+    public List<String> getSizeProperties() {
+        return sizeProperties;
+    }
+
+    public void setSizeProperties(List<String> sizeProperties) {
+        this.sizeProperties = sizeProperties;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getTargetWaitMicros() {
+        return targetWaitMicros;
+    }
+
+    public void setTargetWaitMicros(long targetWaitMicros) {
+        this.targetWaitMicros = targetWaitMicros;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+}
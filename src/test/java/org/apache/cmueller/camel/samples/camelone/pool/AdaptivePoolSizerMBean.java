@@ -0,0 +1,20 @@
+package org.apache.cmueller.camel.samples.camelone.pool;
+
+public interface AdaptivePoolSizerMBean {
+
+    int getSize();
+
+    int getMinSize();
+
+    int getMaxSize();
+
+    long getTargetWaitMicros();
+
+    double getLastWaitP99Micros();
+
+    double getUtilization();
+
+    long getGrowCount();
+
+    long getShrinkCount();
+}
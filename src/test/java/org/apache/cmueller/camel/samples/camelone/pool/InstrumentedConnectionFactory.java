@@ -0,0 +1,96 @@
+package org.apache.cmueller.camel.samples.camelone.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+
+/**
+ * Records the checkouts of the JMS connection pool behind it, from {@code createConnection()} until {@code close()}.
+ * Under XA, the listener containers don't cache their connections, so there is one checkout per received message.
+ * <p>
+ * An ActiveMQ {@code PooledConnectionFactory} never blocks in {@code createConnection()}, it shares its connections
+ * round robin. The recorded wait is the cost of the checkout, not a wait for a free connection, and is no signal for
+ * the {@link AdaptivePoolSizer}.
+ */
+public class InstrumentedConnectionFactory implements ConnectionFactory, InstrumentedPool {
+
+    private ConnectionFactory targetConnectionFactory;
+    private PoolStatistics statistics = new PoolStatistics("connectionFactory");
+
+    public InstrumentedConnectionFactory() {
+    }
+
+    public InstrumentedConnectionFactory(ConnectionFactory targetConnectionFactory) {
+        this.targetConnectionFactory = targetConnectionFactory;
+    }
+
+    public Connection createConnection() throws JMSException {
+        long start = System.nanoTime();
+        Connection connection = targetConnectionFactory.createConnection();
+        return checkedOut(connection, start);
+    }
+
+    public Connection createConnection(String userName, String password) throws JMSException {
+        long start = System.nanoTime();
+        Connection connection = targetConnectionFactory.createConnection(userName, password);
+        return checkedOut(connection, start);
+    }
+
+    private Connection checkedOut(final Connection target, long start) {
+        final long checkedOut = System.nanoTime();
+        statistics.checkedOut(checkedOut - start);
+
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class}, new InvocationHandler() {
+            private boolean closed;
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("equals".equals(name)) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(name)) {
+                    return System.identityHashCode(proxy);
+                }
+                if ("close".equals(name)) {
+                    synchronized (this) {
+                        if (closed) {
+                            return null;
+                        }
+                        closed = true;
+                    }
+                    statistics.returned(System.nanoTime() - checkedOut);
+                }
+
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getTargetException();
+                }
+            }
+        });
+    }
+
+    public PoolStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @param name the name of the pool in the statistics
+     */
+    public void setName(String name) {
+        this.statistics = new PoolStatistics(name);
+    }
+
+    public ConnectionFactory getTargetConnectionFactory() {
+        return targetConnectionFactory;
+    }
+
+    public void setTargetConnectionFactory(ConnectionFactory targetConnectionFactory) {
+        this.targetConnectionFactory = targetConnectionFactory;
+    }
+}
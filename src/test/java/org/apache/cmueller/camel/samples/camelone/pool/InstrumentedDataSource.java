@@ -0,0 +1,86 @@
+package org.apache.cmueller.camel.samples.camelone.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Records the checkouts of the connection pool behind it, from {@code getConnection()} until {@code close()}.
+ */
+public class InstrumentedDataSource extends DelegatingDataSource implements InstrumentedPool {
+
+    private PoolStatistics statistics = new PoolStatistics("dataSource");
+
+    public InstrumentedDataSource() {
+    }
+
+    public InstrumentedDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = getTargetDataSource().getConnection();
+        return checkedOut(connection, start);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = getTargetDataSource().getConnection(username, password);
+        return checkedOut(connection, start);
+    }
+
+    private Connection checkedOut(final Connection target, long start) {
+        final long checkedOut = System.nanoTime();
+        statistics.checkedOut(checkedOut - start);
+
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class}, new InvocationHandler() {
+            private boolean closed;
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("equals".equals(name)) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(name)) {
+                    return System.identityHashCode(proxy);
+                }
+                if ("close".equals(name)) {
+                    synchronized (this) {
+                        if (closed) {
+                            return null;
+                        }
+                        closed = true;
+                    }
+                    statistics.returned(System.nanoTime() - checkedOut);
+                }
+
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getTargetException();
+                }
+            }
+        });
+    }
+
+    public PoolStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @param name the name of the pool in the statistics
+     */
+    public void setName(String name) {
+        this.statistics = new PoolStatistics(name);
+    }
+}
@@ -0,0 +1,9 @@
+package org.apache.cmueller.camel.samples.camelone.pool;
+
+/**
+ * A pool, or the wrapper of a pool, which records its checkouts.
+ */
+public interface InstrumentedPool {
+
+    PoolStatistics getStatistics();
+}
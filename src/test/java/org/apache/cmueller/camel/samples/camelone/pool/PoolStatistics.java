@@ -0,0 +1,84 @@
+package org.apache.cmueller.camel.samples.camelone.pool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cmueller.camel.samples.camelone.metrics.PhaseHistogram;
+
+/**
+ * Checkouts of a pool: the wait until the pool handed out a connection, the duration until the connection was
+ * returned, and the number of connections checked out at the same time.
+ */
+public class PoolStatistics implements PoolStatisticsMBean {
+
+    private final String name;
+    private final PhaseHistogram wait;
+    private final PhaseHistogram checkout;
+    private final AtomicLong checkouts = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+
+    public PoolStatistics(String name) {
+        this.name = name;
+        this.wait = new PhaseHistogram("pool", name, "wait");
+        this.checkout = new PhaseHistogram("pool", name, "checkout");
+    }
+
+    void checkedOut(long waitNanos) {
+        wait.record(waitNanos);
+        checkouts.incrementAndGet();
+        int current = active.incrementAndGet();
+        int peak;
+        do {
+            peak = peakActive.get();
+        } while (current > peak && !peakActive.compareAndSet(peak, current));
+    }
+
+    void returned(long checkoutNanos) {
+        checkout.record(checkoutNanos);
+        active.decrementAndGet();
+    }
+
+    /**
+     * @return the most connections checked out at the same time since the last call
+     */
+    public int resetPeakActive() {
+        return peakActive.getAndSet(active.get());
+    }
+
+    public PhaseHistogram getWait() {
+        return wait;
+    }
+
+    public PhaseHistogram getCheckout() {
+        return checkout;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCheckoutCount() {
+        return checkouts.get();
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public double getWaitMeanMicros() {
+        return wait.getMeanMicros();
+    }
+
+    public double getWaitP99Micros() {
+        return wait.getP99Micros();
+    }
+
+    public double getCheckoutMeanMicros() {
+        return checkout.getMeanMicros();
+    }
+
+    public double getCheckoutP99Micros() {
+        return checkout.getP99Micros();
+    }
+}
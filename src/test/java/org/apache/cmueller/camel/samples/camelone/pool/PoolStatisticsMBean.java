@@ -0,0 +1,18 @@
+package org.apache.cmueller.camel.samples.camelone.pool;
+
+public interface PoolStatisticsMBean {
+
+    String getName();
+
+    long getCheckoutCount();
+
+    int getActiveCount();
+
+    double getWaitMeanMicros();
+
+    double getWaitP99Micros();
+
+    double getCheckoutMeanMicros();
+
+    double getCheckoutP99Micros();
+}
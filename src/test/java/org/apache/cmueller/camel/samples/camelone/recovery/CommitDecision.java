@@ -0,0 +1,23 @@
+package org.apache.cmueller.camel.samples.camelone.recovery;
+
+import javax.transaction.xa.Xid;
+
+/**
+ * The outcome of the in-doubt branches of one transaction manager, from its log. The {@link ParallelRecoveryCoordinator}
+ * only resolves the branches the decision is responsible for, and rolls back those which are not logged as committed
+ * (presumed abort). The branches of other transaction managers stay in doubt.
+ */
+public interface CommitDecision {
+
+    /**
+     * Reads the decisions, before each recovery.
+     */
+    void refresh() throws Exception;
+
+    /**
+     * @return whether the branch was started by the transaction manager of this decision
+     */
+    boolean isResponsible(Xid xid);
+
+    boolean isCommitted(Xid xid);
+}
@@ -0,0 +1,62 @@
+package org.apache.cmueller.camel.samples.camelone.recovery;
+
+import java.sql.SQLException;
+
+import javax.sql.XAConnection;
+import javax.sql.XADataSource;
+import javax.transaction.xa.XAResource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The branches of a JDBC {@link XADataSource}, e.g. {@code EmbeddedXADataSource40}.
+ */
+public class JdbcRecoverableResource implements RecoverableResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcRecoverableResource.class);
+
+    private String name;
+    private XADataSource xaDataSource;
+
+    public JdbcRecoverableResource() {
+    }
+
+    public JdbcRecoverableResource(String name, XADataSource xaDataSource) {
+        this.name = name;
+        this.xaDataSource = xaDataSource;
+    }
+
+    public Connection connect() throws SQLException {
+        final XAConnection connection = xaDataSource.getXAConnection();
+        return new Connection() {
+            public XAResource getXAResource() throws SQLException {
+                return connection.getXAResource();
+            }
+
+            public void close() {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    LOG.debug("Could not close the recovery connection of " + name, e);
+                }
+            }
+        };
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public XADataSource getXaDataSource() {
+        return xaDataSource;
+    }
+
+    public void setXaDataSource(XADataSource xaDataSource) {
+        this.xaDataSource = xaDataSource;
+    }
+}
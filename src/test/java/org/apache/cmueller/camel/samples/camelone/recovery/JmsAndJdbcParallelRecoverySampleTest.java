@@ -0,0 +1,288 @@
+package org.apache.cmueller.camel.samples.camelone.recovery;
+
+import java.nio.ByteBuffer;
+import java.io.File;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import javax.jms.MessageProducer;
+import javax.jms.XAConnection;
+import javax.jms.XAConnectionFactory;
+import javax.jms.XASession;
+import javax.sql.XADataSource;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.spring.CamelSpringTestSupport;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.EmbeddedBrokerFactory;
+import org.apache.geronimo.transaction.log.HOWLLog;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.TransactionLog;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class JmsAndJdbcParallelRecoverySampleTest extends CamelSpringTestSupport {
+
+    // the format id of another transaction manager, whose branches must stay in doubt
+    private static final int FOREIGN_FORMAT_ID = 4712;
+    private static final int FOREIGN_BRANCHES = 10;
+    // prepared transactions per crash, with a branch in the broker and one in the database
+    private static final int BRANCHES = 1000;
+    private static final String QUEUE = "transaction.outgoing.recovery";
+    private static final String CONTEXT = "META-INF/spring/JmsAndJdbcParallelRecoverySampleTest-context.xml";
+    private static final String RESOLVER_THREADS = "recovery.resolverThreads";
+
+    private final EmbeddedBrokerFactory brokerFactory = new EmbeddedBrokerFactory();
+    private BrokerService broker;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private ParallelRecoveryCoordinator coordinator;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        // the prepared transactions must survive the restart of the broker
+        brokerFactory.setStore(EmbeddedBrokerFactory.Store.KAHADB);
+        brokerFactory.setDataDirectory(new File("target/activemq-recovery"));
+        broker = brokerFactory.createAndStartBroker();
+        brokerFactory.setDeleteAllMessagesOnStartup(false);
+
+        super.setUp();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "dataSourceTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+
+        coordinator = lookup("recoveryCoordinator", ParallelRecoveryCoordinator.class);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+
+        super.tearDown();
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Test
+    public void inDoubtBranchesShouldBeResolvedInParallel() throws Exception {
+        prepareForeignBranches();
+
+        // the transaction manager of the test crashes, the restarted one recovers and crashes again
+        AbstractApplicationContext restarted = crashAndRestart(applicationContext, 0, 1);
+        AbstractApplicationContext restartedAgain;
+        long serial;
+        try {
+            serial = assertRecovered(restarted);
+            restartedAgain = crashAndRestart(restarted, 1, 8);
+        } finally {
+            restarted.close();
+        }
+
+        try {
+            long parallel = assertRecovered(restartedAgain);
+
+            System.out.println(2 * BRANCHES + " in-doubt branches, time to ready with 1 resolver thread per resource: " + serial
+                + "ms, with 8: " + parallel + "ms " + restartedAgain.getBean("recoveryCoordinator", ParallelRecoveryCoordinator.class).getDurations());
+
+            // the transfers with an even id were logged as committed by the transaction manager
+            assertEquals(BRANCHES, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT COUNT(*) from account where name LIKE 'prepared-%'"));
+            assertEquals(BRANCHES, broker.getDestination(new ActiveMQQueue(QUEUE)).getDestinationStatistics().getMessages().getCount());
+
+            assertEquals(FOREIGN_BRANCHES, rollbackForeignBranches());
+        } finally {
+            restartedAgain.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void recoveryWithoutDecisionShouldBeRefused() throws Exception {
+        ParallelRecoveryCoordinator withoutDecision = new ParallelRecoveryCoordinator();
+        withoutDecision.setResources(coordinator.getResources());
+        withoutDecision.recover();
+    }
+
+    /**
+     * Prepares the transfers of the crash with the transaction manager of the {@code crashing} context, which dies
+     * and releases its log. The restarted transaction manager, with a new {@code XidFactory} and {@code HOWLLog},
+     * recovers the in-doubt branches at its startup.
+     */
+    private AbstractApplicationContext crashAndRestart(AbstractApplicationContext crashing, int crash, int resolverThreads) throws Exception {
+        prepareTransfers(crashing, crash);
+        crashing.getBean("howlLog", HOWLLog.class).doStop();
+        restartBrokerAndDatabase();
+
+        System.setProperty(RESOLVER_THREADS, Integer.toString(resolverThreads));
+        try {
+            return new ClassPathXmlApplicationContext(CONTEXT);
+        } finally {
+            System.clearProperty(RESOLVER_THREADS);
+        }
+    }
+
+    private long assertRecovered(AbstractApplicationContext restarted) {
+        ParallelRecoveryCoordinator coordinator = restarted.getBean("recoveryCoordinator", ParallelRecoveryCoordinator.class);
+        assertTrue(coordinator.isReady());
+        assertEquals(2, coordinator.getScannedResourceCount());
+        assertEquals(2 * BRANCHES, coordinator.getInDoubtCount());
+        assertEquals(FOREIGN_BRANCHES, coordinator.getSkippedCount());
+        assertEquals(BRANCHES, coordinator.getCommittedCount());
+        assertEquals(BRANCHES, coordinator.getRolledBackCount());
+        assertEquals(0, coordinator.getFailedCount());
+        assertEquals(0, coordinator.getPendingCount());
+        return coordinator.getTimeToReadyMillis();
+    }
+
+    /**
+     * Prepares a JMS and a JDBC branch of {@value #BRANCHES} transfers of the transaction manager, which logs every
+     * second one as committed before it dies.
+     */
+    private void prepareTransfers(AbstractApplicationContext crashing, int crash) throws Exception {
+        XidFactory xidFactory = crashing.getBean("xidFactoryImpl", XidFactory.class);
+        TransactionLog transactionLog = crashing.getBean("howlLog", TransactionLog.class);
+
+        XAConnection jmsConnection = crashing.getBean("jmsXaConnectionFactory", XAConnectionFactory.class).createXAConnection();
+        javax.sql.XAConnection jdbcConnection = crashing.getBean("xaDataSource", XADataSource.class).getXAConnection();
+        try {
+            XASession session = jmsConnection.createXASession();
+            XAResource jmsResource = session.getXAResource();
+            MessageProducer producer = session.createProducer(session.createQueue(QUEUE));
+
+            XAResource jdbcResource = jdbcConnection.getXAResource();
+            PreparedStatement statement = jdbcConnection.getConnection().prepareStatement("INSERT INTO account (name, balance) VALUES(?,?)");
+
+            for (int i = 0; i < BRANCHES; i++) {
+                long id = crash * BRANCHES + i;
+                Xid xid = xidFactory.createXid();
+
+                Xid jmsXid = xidFactory.createBranch(xid, 1);
+                jmsResource.start(jmsXid, XAResource.TMNOFLAGS);
+                producer.send(session.createTextMessage("prepared-" + id));
+                jmsResource.end(jmsXid, XAResource.TMSUCCESS);
+                assertEquals(XAResource.XA_OK, jmsResource.prepare(jmsXid));
+
+                Xid jdbcXid = xidFactory.createBranch(xid, 2);
+                jdbcResource.start(jdbcXid, XAResource.TMNOFLAGS);
+                statement.setString(1, "prepared-" + id);
+                statement.setLong(2, 1);
+                statement.executeUpdate();
+                jdbcResource.end(jdbcXid, XAResource.TMSUCCESS);
+                assertEquals(XAResource.XA_OK, jdbcResource.prepare(jdbcXid));
+
+                if (id % 2 == 0) {
+                    // the commit decision, the transaction manager dies before the second phase
+                    transactionLog.prepare(xid, Arrays.<TransactionBranchInfo>asList(
+                        new TransactionBranchInfoImpl(jmsXid, "activemq.default"),
+                        new TransactionBranchInfoImpl(jdbcXid, "derby.testdb")));
+                }
+            }
+            statement.close();
+        } finally {
+            jmsConnection.close();
+            jdbcConnection.close();
+        }
+    }
+
+    /**
+     * The crash: the broker and the database are stopped with the prepared branches, and recover them at the restart.
+     */
+    private void restartBrokerAndDatabase() throws Exception {
+        ActiveMQUtil.stopBroker(broker);
+        broker = brokerFactory.createAndStartBroker();
+
+        try {
+            DriverManager.getConnection("jdbc:derby:target/testdb;shutdown=true");
+            fail("Derby did not shut down the database");
+        } catch (SQLException e) {
+            // the database is booted again with the next connection
+            assertEquals("08006", e.getSQLState());
+        }
+    }
+
+    private void prepareForeignBranches() throws Exception {
+        XAConnection jmsConnection = lookup("jmsXaConnectionFactory", XAConnectionFactory.class).createXAConnection();
+        try {
+            XASession session = jmsConnection.createXASession();
+            XAResource jmsResource = session.getXAResource();
+            MessageProducer producer = session.createProducer(session.createQueue(QUEUE));
+            for (int i = 0; i < FOREIGN_BRANCHES; i++) {
+                Xid xid = createForeignXid(i);
+                jmsResource.start(xid, XAResource.TMNOFLAGS);
+                producer.send(session.createTextMessage("foreign-" + i));
+                jmsResource.end(xid, XAResource.TMSUCCESS);
+                assertEquals(XAResource.XA_OK, jmsResource.prepare(xid));
+            }
+        } finally {
+            jmsConnection.close();
+        }
+    }
+
+    private int rollbackForeignBranches() throws Exception {
+        XAConnection jmsConnection = lookup("jmsXaConnectionFactory", XAConnectionFactory.class).createXAConnection();
+        try {
+            XAResource jmsResource = jmsConnection.createXASession().getXAResource();
+            int rolledBack = 0;
+            for (Xid xid : jmsResource.recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN)) {
+                if (xid.getFormatId() == FOREIGN_FORMAT_ID) {
+                    jmsResource.rollback(xid);
+                    rolledBack++;
+                }
+            }
+            return rolledBack;
+        } finally {
+            jmsConnection.close();
+        }
+    }
+
+    private <T> T lookup(String name, Class<T> type) {
+        return context.getRegistry().lookupByNameAndType(name, type);
+    }
+
+    private static Xid createForeignXid(long id) {
+        final byte[] globalTransactionId = ByteBuffer.allocate(8).putLong(id).array();
+        final byte[] branchQualifier = {1};
+        return new Xid() {
+            public int getFormatId() {
+                return FOREIGN_FORMAT_ID;
+            }
+
+            public byte[] getGlobalTransactionId() {
+                return globalTransactionId;
+            }
+
+            public byte[] getBranchQualifier() {
+                return branchQualifier;
+            }
+        };
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+            }
+        };
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext(CONTEXT);
+    }
+}
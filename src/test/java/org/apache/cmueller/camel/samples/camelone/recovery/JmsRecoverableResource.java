@@ -0,0 +1,91 @@
+package org.apache.cmueller.camel.samples.camelone.recovery;
+
+import javax.jms.JMSException;
+import javax.jms.XAConnection;
+import javax.jms.XAConnectionFactory;
+import javax.jms.XASession;
+import javax.transaction.xa.XAResource;
+
+import org.apache.activemq.pool.ActiveMQResourceManager;
+import org.apache.activemq.pool.PooledConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The branches of a JMS {@link XAConnectionFactory}. It can be taken from the {@link ActiveMQResourceManager} of a
+ * transaction manager context, which then leaves its own {@code recoverResource} to this coordinator.
+ */
+public class JmsRecoverableResource implements RecoverableResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JmsRecoverableResource.class);
+
+    private String name;
+    private XAConnectionFactory xaConnectionFactory;
+
+    public JmsRecoverableResource() {
+    }
+
+    public JmsRecoverableResource(String name, XAConnectionFactory xaConnectionFactory) {
+        this.name = name;
+        this.xaConnectionFactory = xaConnectionFactory;
+    }
+
+    public Connection connect() throws JMSException {
+        final XAConnection connection = xaConnectionFactory.createXAConnection();
+        try {
+            connection.start();
+        } catch (JMSException e) {
+            connection.close();
+            throw e;
+        }
+        return new Connection() {
+            private XASession session;
+
+            public XAResource getXAResource() throws JMSException {
+                if (session == null) {
+                    session = connection.createXASession();
+                }
+                return session.getXAResource();
+            }
+
+            public void close() {
+                try {
+                    connection.close();
+                } catch (JMSException e) {
+                    LOG.debug("Could not close the recovery connection of " + name, e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Takes the name and the XA connection factory of the resource manager, bypassing its pool.
+     */
+    public void setResourceManager(ActiveMQResourceManager resourceManager) {
+        this.name = resourceManager.getResourceName();
+        Object connectionFactory = resourceManager.getConnectionFactory();
+        if (connectionFactory instanceof PooledConnectionFactory) {
+            connectionFactory = ((PooledConnectionFactory) connectionFactory).getConnectionFactory();
+        }
+        if (!(connectionFactory instanceof XAConnectionFactory)) {
+            throw new IllegalArgumentException("The connection factory of resource manager '" + name + "' is no XAConnectionFactory");
+        }
+        this.xaConnectionFactory = (XAConnectionFactory) connectionFactory;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public XAConnectionFactory getXaConnectionFactory() {
+        return xaConnectionFactory;
+    }
+
+    public void setXaConnectionFactory(XAConnectionFactory xaConnectionFactory) {
+        this.xaConnectionFactory = xaConnectionFactory;
+    }
+}
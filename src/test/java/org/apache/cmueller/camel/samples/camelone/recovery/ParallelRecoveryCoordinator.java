@@ -0,0 +1,311 @@
+package org.apache.cmueller.camel.samples.camelone.recovery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the in-doubt branches of all {@code resources} after a crash, in parallel instead of one resource after the
+ * other:
+ * <ul>
+ * <li>{@code XAResource.recover} is called on all resources at the same time, each on a thread of its own</li>
+ * <li>the in-doubt branches of a resource are split over {@code resolverThreads} connections, which commit or roll
+ * back their share concurrently</li>
+ * </ul>
+ * The {@code decision} of the transaction manager, e.g. a {@link TransactionLogCommitDecision}, is mandatory. Only the
+ * branches it is responsible for are resolved: committed if it logged them as committed, otherwise rolled back
+ * (presumed abort). The branches of other transaction managers are skipped and stay in doubt. If {@code formatIds} are
+ * set, only the branches with one of these format ids are resolved. A branch which is already gone ({@code XAER_NOTA})
+ * counts as resolved.
+ * <p>
+ * The progress is published as counters, the in-doubt branches which are not resolved yet are
+ * {@link #getPendingCount()}. The time to ready is the duration of {@link #recover()}, until the resources can take
+ * new transactions without waiting for the recovery.
+ */
+public class ParallelRecoveryCoordinator implements ParallelRecoveryCoordinatorMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelRecoveryCoordinator.class);
+
+    private List<RecoverableResource> resources = new ArrayList<RecoverableResource>();
+    private int resolverThreads = 4;
+    private CommitDecision decision;
+    private Set<Integer> formatIds = Collections.emptySet();
+
+    private volatile boolean ready;
+    private volatile long timeToReadyMillis;
+    private final AtomicInteger scannedResources = new AtomicInteger();
+    private final AtomicLong inDoubt = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong rolledBack = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Map<String, Long> durations = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Resolves the in-doubt branches of all resources and returns when all of them are done.
+     *
+     * @throws IllegalStateException if there is no decision, or if the recovery of a resource failed, the other
+     *         resources are still recovered
+     */
+    public synchronized void recover() throws Exception {
+        if (decision == null) {
+            throw new IllegalStateException("No commit decision, the branches which the transaction manager committed would be rolled back");
+        }
+        reset();
+        long start = System.nanoTime();
+        decision.refresh();
+
+        ExecutorService scanners = Executors.newFixedThreadPool(Math.max(1, resources.size()), threadFactory("RecoveryScanner"));
+        final ExecutorService resolvers = Executors.newFixedThreadPool(Math.max(1, resources.size() * resolverThreads), threadFactory("RecoveryResolver"));
+        try {
+            List<Future<?>> scans = new ArrayList<Future<?>>(resources.size());
+            for (final RecoverableResource resource : resources) {
+                scans.add(scanners.submit(new Runnable() {
+                    public void run() {
+                        long resourceStart = System.nanoTime();
+                        try {
+                            recover(resource, resolvers);
+                        } catch (RuntimeException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            throw new IllegalStateException("Recovery of resource '" + resource.getName() + "' failed", e);
+                        } finally {
+                            durations.put(resource.getName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - resourceStart));
+                        }
+                    }
+                }));
+            }
+
+            List<Throwable> failures = new ArrayList<Throwable>();
+            for (Future<?> scan : scans) {
+                try {
+                    scan.get();
+                } catch (ExecutionException e) {
+                    failures.add(e.getCause());
+                }
+            }
+            if (!failures.isEmpty()) {
+                for (Throwable failure : failures) {
+                    LOG.error("Recovery failed", failure);
+                }
+                throw new IllegalStateException(failures.size() + " of " + resources.size() + " resources could not be recovered", failures.get(0));
+            }
+        } finally {
+            scanners.shutdownNow();
+            resolvers.shutdownNow();
+            timeToReadyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+
+        ready = true;
+        LOG.info("Recovered {} resources in {}ms: {} in-doubt branches, {} committed, {} rolled back, {} failed, {} skipped",
+            new Object[] {resources.size(), timeToReadyMillis, inDoubt.get(), committed.get(), rolledBack.get(), failed.get(), skipped.get()});
+    }
+
+    private void recover(RecoverableResource resource, ExecutorService resolvers) throws Exception {
+        RecoverableResource.Connection scanConnection = resource.connect();
+        try {
+            XAResource xaResource = scanConnection.getXAResource();
+            Xid[] recovered = xaResource.recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN);
+            List<Xid> xids = filter(recovered);
+            inDoubt.addAndGet(xids.size());
+            scannedResources.incrementAndGet();
+            LOG.info("Resource '{}' has {} in-doubt branches of the transaction manager", resource.getName(), xids.size());
+            if (xids.isEmpty()) {
+                return;
+            }
+
+            int slices = Math.min(resolverThreads, xids.size());
+            List<Future<?>> resolved = new ArrayList<Future<?>>(slices);
+            for (int slice = 1; slice < slices; slice++) {
+                resolved.add(resolvers.submit(resolveSlice(resource, null, xids, slice, slices)));
+            }
+            // the scan connection resolves the first slice
+            resolveSlice(resource, xaResource, xids, 0, slices).call();
+
+            for (Future<?> future : resolved) {
+                future.get();
+            }
+        } finally {
+            scanConnection.close();
+        }
+    }
+
+    private Callable<Void> resolveSlice(final RecoverableResource resource, final XAResource scanResource,
+                                        final List<Xid> xids, final int slice, final int slices) {
+        return new Callable<Void>() {
+            public Void call() throws Exception {
+                RecoverableResource.Connection connection = scanResource == null ? resource.connect() : null;
+                try {
+                    XAResource xaResource = scanResource != null ? scanResource : connection.getXAResource();
+                    for (int i = slice; i < xids.size(); i += slices) {
+                        resolve(resource, xaResource, xids.get(i));
+                    }
+                } finally {
+                    if (connection != null) {
+                        connection.close();
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    private void resolve(RecoverableResource resource, XAResource xaResource, Xid xid) {
+        boolean commit = decision.isCommitted(xid);
+        try {
+            if (commit) {
+                xaResource.commit(xid, false);
+                committed.incrementAndGet();
+            } else {
+                xaResource.rollback(xid);
+                rolledBack.incrementAndGet();
+            }
+        } catch (XAException e) {
+            if (e.errorCode == XAException.XAER_NOTA) {
+                // resolved in the meantime, e.g. by the transaction manager
+                (commit ? committed : rolledBack).incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+                LOG.warn("Could not " + (commit ? "commit" : "roll back") + " in-doubt branch " + xid + " of resource '"
+                    + resource.getName() + "', error code " + e.errorCode, e);
+            }
+        }
+    }
+
+    private List<Xid> filter(Xid[] recovered) {
+        if (recovered == null) {
+            return Collections.emptyList();
+        }
+        List<Xid> xids = new ArrayList<Xid>(recovered.length);
+        for (Xid xid : recovered) {
+            if ((formatIds.isEmpty() || formatIds.contains(xid.getFormatId())) && decision.isResponsible(xid)) {
+                xids.add(xid);
+            } else {
+                skipped.incrementAndGet();
+            }
+        }
+        return xids;
+    }
+
+    private void reset() {
+        ready = false;
+        timeToReadyMillis = 0;
+        scannedResources.set(0);
+        inDoubt.set(0);
+        skipped.set(0);
+        committed.set(0);
+        rolledBack.set(0);
+        failed.set(0);
+        durations.clear();
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int getResourceCount() {
+        return resources.size();
+    }
+
+    public int getScannedResourceCount() {
+        return scannedResources.get();
+    }
+
+    public long getInDoubtCount() {
+        return inDoubt.get();
+    }
+
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    public long getCommittedCount() {
+        return committed.get();
+    }
+
+    public long getRolledBackCount() {
+        return rolledBack.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getPendingCount() {
+        return inDoubt.get() - committed.get() - rolledBack.get() - failed.get();
+    }
+
+    public long getTimeToReadyMillis() {
+        return timeToReadyMillis;
+    }
+
+    /**
+     * @return the duration of the recovery of each resource in milliseconds, for the resources which are done
+     */
+    public Map<String, Long> getDurations() {
+        return Collections.unmodifiableMap(durations);
+    }
+
+    public List<RecoverableResource> getResources() {
+        return resources;
+    }
+
+    public void setResources(List<RecoverableResource> resources) {
+        this.resources = resources;
+    }
+
+    public int getResolverThreads() {
+        return resolverThreads;
+    }
+
+    public void setResolverThreads(int resolverThreads) {
+        this.resolverThreads = resolverThreads;
+    }
+
+    public CommitDecision getDecision() {
+        return decision;
+    }
+
+    public void setDecision(CommitDecision decision) {
+        this.decision = decision;
+    }
+
+    public Set<Integer> getFormatIds() {
+        return formatIds;
+    }
+
+    public void setFormatIds(Set<Integer> formatIds) {
+        this.formatIds = formatIds;
+    }
+}
@@ -0,0 +1,24 @@
+package org.apache.cmueller.camel.samples.camelone.recovery;
+
+public interface ParallelRecoveryCoordinatorMBean {
+
+    boolean isReady();
+
+    int getResourceCount();
+
+    int getScannedResourceCount();
+
+    long getInDoubtCount();
+
+    long getSkippedCount();
+
+    long getCommittedCount();
+
+    long getRolledBackCount();
+
+    long getFailedCount();
+
+    long getPendingCount();
+
+    long getTimeToReadyMillis();
+}
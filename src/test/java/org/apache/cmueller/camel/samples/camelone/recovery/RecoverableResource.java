@@ -0,0 +1,22 @@
+package org.apache.cmueller.camel.samples.camelone.recovery;
+
+import javax.transaction.xa.XAResource;
+
+/**
+ * An XA resource manager whose in-doubt branches the {@link ParallelRecoveryCoordinator} resolves. Every
+ * {@link #connect()} opens a connection of its own, so the branches can be resolved over several connections at the
+ * same time.
+ */
+public interface RecoverableResource {
+
+    String getName();
+
+    Connection connect() throws Exception;
+
+    interface Connection {
+
+        XAResource getXAResource() throws Exception;
+
+        void close();
+    }
+}
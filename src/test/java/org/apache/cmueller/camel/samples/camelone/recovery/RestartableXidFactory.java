@@ -0,0 +1,55 @@
+package org.apache.cmueller.camel.samples.camelone.recovery;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.xa.Xid;
+
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.apache.geronimo.transaction.manager.XidFactoryImpl;
+import org.apache.geronimo.transaction.manager.XidImpl;
+
+/**
+ * An {@link XidFactoryImpl} with a fixed {@code tmId}, which still recognizes its branches after a restart. The default
+ * {@code XidFactoryImpl()} derives its base id from the identity hash code and random bytes, so a restarted transaction
+ * manager, and a {@link TransactionLogCommitDecision}, would skip all of its in-doubt branches.
+ * <p>
+ * The {@code XidFactoryImpl} counts the global ids from 1 again after every restart, which would reuse the ids of
+ * transactions still held by the transaction log. This factory continues with a counter that starts at the current
+ * time in microseconds.
+ */
+public class RestartableXidFactory implements XidFactory {
+
+    private final XidFactory delegate;
+    private final AtomicLong count = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    public RestartableXidFactory(byte[] tmId) {
+        delegate = new XidFactoryImpl(tmId);
+    }
+
+    public Xid createXid() {
+        Xid xid = delegate.createXid();
+        byte[] globalId = xid.getGlobalTransactionId().clone();
+        long id = count.incrementAndGet();
+        // the first 8 bytes are the counter, the tmId follows
+        for (int i = 0; i < 8; i++) {
+            globalId[i] = (byte) (id >>> (i * 8));
+        }
+        return new XidImpl(xid.getFormatId(), globalId, xid.getBranchQualifier());
+    }
+
+    public Xid createBranch(Xid globalId, int branch) {
+        return delegate.createBranch(globalId, branch);
+    }
+
+    public boolean matchesGlobalId(byte[] globalTransactionId) {
+        return delegate.matchesGlobalId(globalTransactionId);
+    }
+
+    public boolean matchesBranchId(byte[] branchQualifier) {
+        return delegate.matchesBranchId(branchQualifier);
+    }
+
+    public Xid recover(int formatId, byte[] globalTransactionid, byte[] branchQualifier) {
+        return delegate.recover(formatId, globalTransactionid, branchQualifier);
+    }
+}
@@ -0,0 +1,56 @@
+package org.apache.cmueller.camel.samples.camelone.recovery;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.transaction.xa.Xid;
+
+import org.apache.geronimo.transaction.manager.LogException;
+import org.apache.geronimo.transaction.manager.Recovery;
+import org.apache.geronimo.transaction.manager.TransactionLog;
+import org.apache.geronimo.transaction.manager.XidFactory;
+
+/**
+ * The decisions of a Geronimo transaction manager from its {@link TransactionLog}, e.g. the {@code HOWLLog}. The log
+ * holds a record for every transaction whose branches all prepared, until all of them are committed: these are the
+ * committed in-doubt branches. The branches of the transaction manager are recognized by its {@link XidFactory}.
+ * <p>
+ * The transaction manager still holds the logged transactions after the coordinator committed their branches. Its own
+ * recovery of the resources, e.g. {@code ActiveMQResourceManager.recoverResource}, then finds nothing left to do.
+ */
+public class TransactionLogCommitDecision implements CommitDecision {
+
+    private final TransactionLog transactionLog;
+    private final XidFactory xidFactory;
+    private volatile Set<ByteBuffer> committed = Collections.emptySet();
+
+    public TransactionLogCommitDecision(TransactionLog transactionLog, XidFactory xidFactory) {
+        this.transactionLog = transactionLog;
+        this.xidFactory = xidFactory;
+    }
+
+    public void refresh() throws LogException {
+        Set<ByteBuffer> globalIds = new HashSet<ByteBuffer>();
+        for (Recovery.XidBranchesPair pair : transactionLog.recover(xidFactory)) {
+            globalIds.add(ByteBuffer.wrap(pair.getXid().getGlobalTransactionId()));
+        }
+        committed = globalIds;
+    }
+
+    public boolean isResponsible(Xid xid) {
+        return xidFactory.matchesGlobalId(xid.getGlobalTransactionId()) && xidFactory.matchesBranchId(xid.getBranchQualifier());
+    }
+
+    public boolean isCommitted(Xid xid) {
+        return committed.contains(ByteBuffer.wrap(xid.getGlobalTransactionId()));
+    }
+
+    /**
+     * @return the number of transactions logged as committed at the last {@link #refresh()}
+     */
+    public int getCommittedCount() {
+        return committed.size();
+    }
+}
@@ -0,0 +1,197 @@
+package org.apache.cmueller.camel.samples.camelone.redelivery;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.RedeliveryPolicy;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.spring.CamelSpringTestSupport;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.EmbeddedBrokerFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.config.PropertyPlaceholderConfigurer;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class JmsAndJdbcScheduledRedeliveryTransactionSampleTest extends CamelSpringTestSupport {
+
+    // of the broker's redelivery policy, and the ${maximumRedeliveries} of the route policy factory in the context
+    private static final int MAXIMUM_REDELIVERIES = 3;
+    private static final int TRANSFERS = 1000;
+
+    private BrokerService broker;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private ScheduledRedeliveryRoutePolicyFactory redeliveryStatistics;
+
+    private CountDownLatch latch;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        RedeliveryPolicy redeliveryPolicy = new RedeliveryPolicy();
+        redeliveryPolicy.setMaximumRedeliveries(MAXIMUM_REDELIVERIES);
+        redeliveryPolicy.setInitialRedeliveryDelay(100);
+        redeliveryPolicy.setUseExponentialBackOff(true);
+        redeliveryPolicy.setBackOffMultiplier(2);
+        redeliveryPolicy.setMaximumRedeliveryDelay(1000);
+        // +/- 20% jitter, so the messages failed together are not redelivered together
+        redeliveryPolicy.setUseCollisionAvoidance(true);
+        redeliveryPolicy.setCollisionAvoidancePercent((short) 20);
+
+        EmbeddedBrokerFactory brokerFactory = new EmbeddedBrokerFactory();
+        brokerFactory.setRedeliveryPolicy(redeliveryPolicy);
+        broker = brokerFactory.createAndStartBroker();
+
+        super.setUp();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "dataSourceTransactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+
+        super.tearDown();
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Test
+    public void moneyShouldBeTransferedAfterScheduledRedelivery() {
+        template.sendBody("activemq:queue:transaction.incoming.one", 100L);
+
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.one", 5000);
+        assertNotNull(exchange);
+
+        assertEquals(900, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1100, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+
+        RedeliveryStatistics statistics = redeliveryStatistics.getStatistics("transferOne");
+        assertEquals(2, statistics.getDeliveryCount());
+        assertEquals(1, statistics.getRedeliveryCount());
+        assertEquals(1, statistics.getRescheduleCount());
+        assertEquals(0, statistics.getDeadLetterCount());
+    }
+
+    @Test
+    public void messageShouldBeDeadLetteredAfterMaximumRedeliveries() {
+        template.sendBody("activemq:queue:transaction.incoming.two", 100L);
+
+        // 100 + 200 + 400ms of backoff, +/- 20%
+        Exchange exchange = consumer.receive("activemq:queue:ActiveMQ.DLQ", 10000);
+        assertNotNull(exchange);
+        assertEquals(100L, exchange.getIn().getBody(Long.class).longValue());
+
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+
+        RedeliveryStatistics statistics = redeliveryStatistics.getStatistics("transferTwo");
+        assertEquals(MAXIMUM_REDELIVERIES + 1, statistics.getDeliveryCount());
+        assertEquals(MAXIMUM_REDELIVERIES, statistics.getRescheduleCount());
+        assertEquals(1, statistics.getDeadLetterCount());
+    }
+
+    @Test
+    public void throughputShouldBeKeptUnderTransientFailures() throws Exception {
+        long reliable = transfer("activemq:queue:transaction.incoming.reliable");
+        long faulty = transfer("activemq:queue:transaction.incoming.faulty");
+
+        RedeliveryStatistics statistics = redeliveryStatistics.getStatistics("transferFaulty");
+        System.out.println("reliable: " + reliable + "ms, 5% transient failures: " + faulty + "ms, "
+            + statistics.getRescheduleCount() + " rescheduled, " + statistics.getRedeliveryCount() + " redelivered");
+
+        assertTrue(statistics.getRescheduleCount() > 0);
+        assertEquals(0, statistics.getDeadLetterCount());
+        assertNull(consumer.receive("activemq:queue:ActiveMQ.DLQ", 1000));
+        assertEquals(1000 - 2 * TRANSFERS, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1000 + 2 * TRANSFERS, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+
+        // with redelivery in the consumer, its single thread would have waited 100ms for each failed message alone
+        assertTrue(faulty < 2 * reliable + 2000);
+    }
+
+    private long transfer(String endpointUri) throws InterruptedException {
+        latch = new CountDownLatch(TRANSFERS);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < TRANSFERS; i++) {
+            template.sendBody(endpointUri, 1L);
+        }
+        assertTrue(latch.await(60, TimeUnit.SECONDS));
+        return System.currentTimeMillis() - start;
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        redeliveryStatistics = context.getRegistry().lookupByNameAndType("scheduledRedeliveryRoutePolicyFactory", ScheduledRedeliveryRoutePolicyFactory.class);
+        context.addRoutePolicyFactory(redeliveryStatistics);
+
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                Processor countDown = new Processor() {
+                    public void process(Exchange exchange) throws Exception {
+                        latch.countDown();
+                    }
+                };
+
+                // fails the first delivery only
+                from("activemqTx:queue:transaction.incoming.one").routeId("transferOne")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .filter(header("JMSRedelivered").isEqualTo(false))
+                        .throwException(new CannotAcquireLockException("Injected lock timeout"))
+                    .end()
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource")
+                    .to("activemqTx:queue:transaction.outgoing.one");
+
+                // fails every delivery
+                from("activemqTx:queue:transaction.incoming.two").routeId("transferTwo")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .throwException(new CannotAcquireLockException("Injected lock timeout"));
+
+                from("activemqTx:queue:transaction.incoming.reliable").routeId("transferReliable")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource")
+                    .process(countDown);
+
+                // the failures between the updates roll back the first one
+                from("activemqTx:queue:transaction.incoming.faulty").routeId("transferFaulty")
+                    .transacted("PROPAGATION_REQUIRED_JDBC")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .to("bean:transientFailureInjector")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource")
+                    .process(countDown);
+            }
+        };
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        Properties properties = new Properties();
+        properties.setProperty("maximumRedeliveries", String.valueOf(MAXIMUM_REDELIVERIES));
+        PropertyPlaceholderConfigurer placeholderConfigurer = new PropertyPlaceholderConfigurer();
+        placeholderConfigurer.setProperties(properties);
+
+        ClassPathXmlApplicationContext applicationContext = new ClassPathXmlApplicationContext(
+            new String[] {"META-INF/spring/JmsAndJdbcScheduledRedeliveryTransactionSampleTest-context.xml"}, false);
+        applicationContext.addBeanFactoryPostProcessor(placeholderConfigurer);
+        applicationContext.refresh();
+        return applicationContext;
+    }
+}
@@ -0,0 +1,63 @@
+package org.apache.cmueller.camel.samples.camelone.redelivery;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivery counters of one route with scheduled redelivery by the broker.
+ */
+public class RedeliveryStatistics implements RedeliveryStatisticsMBean {
+
+    private final String routeId;
+    private final AtomicLong deliveries = new AtomicLong();
+    private final AtomicLong redeliveries = new AtomicLong();
+    private final AtomicLong reschedules = new AtomicLong();
+    private final AtomicLong deadLetters = new AtomicLong();
+
+    public RedeliveryStatistics(String routeId) {
+        this.routeId = routeId;
+    }
+
+    void delivered(boolean redelivered) {
+        deliveries.incrementAndGet();
+        if (redelivered) {
+            redeliveries.incrementAndGet();
+        }
+    }
+
+    void failed(boolean deadLettered) {
+        if (deadLettered) {
+            deadLetters.incrementAndGet();
+        } else {
+            reschedules.incrementAndGet();
+        }
+    }
+
+    public String getRouteId() {
+        return routeId;
+    }
+
+    public long getDeliveryCount() {
+        return deliveries.get();
+    }
+
+    /**
+     * @return the deliveries of messages which had failed before
+     */
+    public long getRedeliveryCount() {
+        return redeliveries.get();
+    }
+
+    /**
+     * @return the failed deliveries which the broker redelivers later
+     */
+    public long getRescheduleCount() {
+        return reschedules.get();
+    }
+
+    /**
+     * @return the failed deliveries which the broker sends to the dead letter queue
+     */
+    public long getDeadLetterCount() {
+        return deadLetters.get();
+    }
+}
@@ -0,0 +1,14 @@
+package org.apache.cmueller.camel.samples.camelone.redelivery;
+
+public interface RedeliveryStatisticsMBean {
+
+    String getRouteId();
+
+    long getDeliveryCount();
+
+    long getRedeliveryCount();
+
+    long getRescheduleCount();
+
+    long getDeadLetterCount();
+}
@@ -0,0 +1,143 @@
+package org.apache.cmueller.camel.samples.camelone.redelivery;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Route;
+import org.apache.camel.component.jms.JmsMessage;
+import org.apache.camel.model.RouteDefinition;
+import org.apache.camel.spi.RoutePolicy;
+import org.apache.camel.spi.RoutePolicyFactory;
+import org.apache.camel.support.RoutePolicySupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts the deliveries, redeliveries and failures of the JMS routes whose failed messages the broker redelivers
+ * (see {@code EmbeddedBrokerFactory#setRedeliveryPolicy}). A failed delivery is rescheduled by the broker, until the
+ * message was delivered {@code maximumRedeliveries} + 1 times, then it is sent to the dead letter queue. The
+ * {@code maximumRedeliveries} must therefore be the ones of the broker's redelivery policy.
+ * <p>
+ * The {@link RedeliveryStatistics} of every route are published as MBeans in the
+ * {@code org.apache.cmueller.camel.samples.camelone} domain.
+ */
+public class ScheduledRedeliveryRoutePolicyFactory implements RoutePolicyFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScheduledRedeliveryRoutePolicyFactory.class);
+    private static final String DELIVERY_COUNT = "JMSXDeliveryCount";
+
+    private final ConcurrentMap<String, RedeliveryStatistics> statistics = new ConcurrentHashMap<String, RedeliveryStatistics>();
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+    private MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    private int maximumRedeliveries = 6;
+
+    public RoutePolicy createRoutePolicy(CamelContext camelContext, String routeId, RouteDefinition route) {
+        final RedeliveryStatistics routeStatistics = getStatistics(routeId);
+        return new RoutePolicySupport() {
+            @Override
+            public void onExchangeBegin(Route route, Exchange exchange) {
+                int deliveryCount = deliveryCount(exchange);
+                exchange.setProperty(DELIVERY_COUNT, deliveryCount);
+                routeStatistics.delivered(deliveryCount > 1);
+            }
+
+            @Override
+            public void onExchangeDone(Route route, Exchange exchange) {
+                // the listener container rolls back the JMS transaction after the exchange is done
+                if (exchange.isFailed() || exchange.isRollbackOnly()) {
+                    routeStatistics.failed(exchange.getProperty(DELIVERY_COUNT, 1, Integer.class) > maximumRedeliveries);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the statistics of the route, created if the route didn't start yet
+     */
+    public RedeliveryStatistics getStatistics(String routeId) {
+        RedeliveryStatistics routeStatistics = statistics.get(routeId);
+        if (routeStatistics == null) {
+            RedeliveryStatistics created = new RedeliveryStatistics(routeId);
+            routeStatistics = statistics.putIfAbsent(routeId, created);
+            if (routeStatistics == null) {
+                routeStatistics = created;
+                register(created);
+            }
+        }
+        return routeStatistics;
+    }
+
+    public Collection<RedeliveryStatistics> getStatistics() {
+        return statistics.values();
+    }
+
+    public void stop() {
+        synchronized (registered) {
+            for (ObjectName name : registered) {
+                try {
+                    mbeanServer.unregisterMBean(name);
+                } catch (Exception e) {
+                    LOG.debug("Could not unregister " + name, e);
+                }
+            }
+            registered.clear();
+        }
+    }
+
+    private static int deliveryCount(Exchange exchange) {
+        if (exchange.getIn() instanceof JmsMessage) {
+            Message message = ((JmsMessage) exchange.getIn()).getJmsMessage();
+            if (message != null) {
+                try {
+                    if (message.propertyExists(DELIVERY_COUNT)) {
+                        return message.getIntProperty(DELIVERY_COUNT);
+                    }
+                    return message.getJMSRedelivered() ? 2 : 1;
+                } catch (JMSException e) {
+                    LOG.debug("Could not read the delivery count of " + exchange, e);
+                }
+            }
+        }
+        return exchange.getIn().getHeader(DELIVERY_COUNT, 1, Integer.class);
+    }
+
+    private void register(RedeliveryStatistics routeStatistics) {
+        try {
+            ObjectName name = new ObjectName("org.apache.cmueller.camel.samples.camelone:type=RedeliveryStatistics,name="
+                + ObjectName.quote(routeStatistics.getRouteId()));
+            mbeanServer.registerMBean(routeStatistics, name);
+            synchronized (registered) {
+                registered.add(name);
+            }
+        } catch (Exception e) {
+            LOG.warn("Could not register the MBean of route " + routeStatistics.getRouteId(), e);
+        }
+    }
+
+    public MBeanServer getMbeanServer() {
+        return mbeanServer;
+    }
+
+    public void setMbeanServer(MBeanServer mbeanServer) {
+        this.mbeanServer = mbeanServer;
+    }
+
+    public int getMaximumRedeliveries() {
+        return maximumRedeliveries;
+    }
+
+    public void setMaximumRedeliveries(int maximumRedeliveries) {
+        this.maximumRedeliveries = maximumRedeliveries;
+    }
+}
@@ -0,0 +1,37 @@
+package org.apache.cmueller.camel.samples.camelone.redelivery;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.springframework.dao.CannotAcquireLockException;
+
+/**
+ * Fails the given fraction of the exchanges with the exception of a Derby lock timeout.
+ */
+public class TransientFailureInjector implements Processor {
+
+    private double failureRate = 0.05;
+
+    private final AtomicLong failures = new AtomicLong();
+
+    public void process(Exchange exchange) throws Exception {
+        if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+            failures.incrementAndGet();
+            throw new CannotAcquireLockException("Injected lock timeout");
+        }
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public double getFailureRate() {
+        return failureRate;
+    }
+
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+}
@@ -0,0 +1,116 @@
+package org.apache.cmueller.camel.samples.camelone.ring;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.camel.Exchange;
+
+/**
+ * Bounded ring of exchanges for many producers and one consumer. The slots are allocated once: a producer claims the
+ * next sequence with a compare-and-set, fills the slot and publishes it by writing the sequence into the slot. The
+ * consumer drains all published slots in a row, up to a maximum, and frees them with one write of its cursor.
+ * <p>
+ * A producer waits for a free slot if the ring is full, the consumer for a published slot if the ring is empty, both
+ * with the {@link WaitStrategy} of the ring.
+ */
+public class ExchangeRingBuffer {
+
+    private final int capacity;
+    private final int mask;
+    private final Exchange[] exchanges;
+    private final CountDownLatch[] completions;
+    private final AtomicLongArray published;
+    private final WaitStrategy waitStrategy;
+
+    private final AtomicLong claimed = new AtomicLong();
+    // written by the consumer only
+    private volatile long consumed;
+
+    public ExchangeRingBuffer(int size, WaitStrategy waitStrategy) {
+        this.capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        this.mask = capacity - 1;
+        this.exchanges = new Exchange[capacity];
+        this.completions = new CountDownLatch[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Publishes the exchange, waiting up to {@code timeoutNanos} for a free slot.
+     *
+     * @param completion counted down by the consumer once the exchange is done, or {@code null}
+     * @return {@code false} if the ring stayed full
+     */
+    public boolean offer(Exchange exchange, CountDownLatch completion, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        long sequence;
+        for (int attempt = 0;; attempt++) {
+            sequence = claimed.get();
+            if (sequence - consumed < capacity) {
+                if (claimed.compareAndSet(sequence, sequence + 1)) {
+                    break;
+                }
+            } else if (System.nanoTime() - deadline > 0) {
+                return false;
+            } else {
+                waitStrategy.idle(attempt);
+            }
+        }
+
+        int index = (int) sequence & mask;
+        exchanges[index] = exchange;
+        completions[index] = completion;
+        // the ordered write makes the slot visible to the consumer after its content
+        published.lazySet(index, sequence);
+        waitStrategy.signal();
+        return true;
+    }
+
+    /**
+     * Moves up to {@code max} published exchanges, in the order of their sequences, into the lists.
+     *
+     * @return the number of exchanges drained
+     */
+    public int drain(List<Exchange> drainedExchanges, List<CountDownLatch> drainedCompletions, int max) {
+        long next = consumed;
+        int count = 0;
+        while (count < max) {
+            int index = (int) next & mask;
+            if (published.get(index) != next) {
+                break;
+            }
+            drainedExchanges.add(exchanges[index]);
+            drainedCompletions.add(completions[index]);
+            exchanges[index] = null;
+            completions[index] = null;
+            next++;
+            count++;
+        }
+
+        if (count > 0) {
+            consumed = next;
+            waitStrategy.signal();
+        }
+        return count;
+    }
+
+    public void awaitExchanges(int attempt) throws InterruptedException {
+        waitStrategy.idle(attempt);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of exchanges published or being published, and not drained yet
+     */
+    public long size() {
+        return claimed.get() - consumed;
+    }
+}
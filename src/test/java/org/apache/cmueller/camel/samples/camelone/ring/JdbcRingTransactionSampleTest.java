@@ -0,0 +1,172 @@
+package org.apache.cmueller.camel.samples.camelone.ring;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.CamelExecutionException;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.spring.CamelSpringTestSupport;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class JdbcRingTransactionSampleTest extends CamelSpringTestSupport {
+
+    private static final String BATCH_URI = "ring:transaction.incoming.batch?batchSize=50&transactionManager=#transactionManager";
+    private static final String POISON_URI = "ring:transaction.incoming.poison?batchSize=50&transactionManager=#transactionManager";
+
+    private JdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        jdbc = DatabaseUtil.createJdbcTemplate(context);
+        transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "transactionManager");
+        DatabaseUtil.createAndInitializeDatabase(transactionTemplate, jdbc);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+
+        super.tearDown();
+    }
+
+    @Test
+    public void moneyShouldBeTransfered() throws Exception {
+        // InOut waits until the consumer is done
+        template.requestBody("ring:transaction.incoming.one", 100L);
+
+        assertEquals(900, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1100, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    @Test
+    public void moneyShouldNotTransfered() throws Exception {
+        try {
+            template.requestBody("ring:transaction.incoming.two", 100L);
+            fail("CamelExecutionException expected");
+        } catch (CamelExecutionException e) {
+            assertIsInstanceOf(SQLException.class, e.getCause());
+        }
+
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    @Test
+    public void moneyShouldNotTransfered2() throws Exception {
+        // fire and forget, waiting for the completion on the endpoint instead of sleeping
+        template.sendBody("ring:transaction.incoming.three", 100L);
+        RingEndpoint endpoint = context.getEndpoint("ring:transaction.incoming.three", RingEndpoint.class);
+        assertTrue(endpoint.awaitCompleted(1, 5, TimeUnit.SECONDS));
+        assertEquals(1, endpoint.getFailedCount());
+
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    @Test
+    public void batchesShouldCommitTogether() throws Exception {
+        // the exchanges wait in the ring until the consumer starts
+        for (int i = 0; i < 1000; i++) {
+            template.sendBody(BATCH_URI, 1L);
+        }
+        context.startRoute("batch");
+        RingEndpoint endpoint = context.getEndpoint(BATCH_URI, RingEndpoint.class);
+        assertTrue(endpoint.awaitCompleted(1000, 30, TimeUnit.SECONDS));
+
+        assertEquals(0, endpoint.getFailedCount());
+        assertEquals(0, endpoint.getRolledBackBatchCount());
+        // one commit per full batch of 50, not per exchange
+        assertEquals(20, endpoint.getBatchCount());
+        assertEquals(0, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(2000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    @Test
+    public void poisonExchangeShouldOnlyRollBackItself() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            template.sendBody(POISON_URI, i == 42 ? 13L : 1L);
+        }
+        RingEndpoint endpoint = context.getEndpoint(POISON_URI, RingEndpoint.class);
+        assertTrue(endpoint.awaitCompleted(100, 30, TimeUnit.SECONDS));
+
+        assertEquals(1, endpoint.getFailedCount());
+        assertTrue(endpoint.getRolledBackBatchCount() >= 1);
+        assertEquals(901, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1099, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    @Test
+    public void secondConsumerOfARingShouldBeRejected() throws Exception {
+        try {
+            context.addRoutes(new RouteBuilder() {
+                @Override
+                public void configure() throws Exception {
+                    from("ring:transaction.incoming.one?batchSize=10").to("log:second");
+                }
+            });
+            fail("IllegalStateException expected");
+        } catch (Exception e) {
+            Throwable cause = e;
+            while (!(cause instanceof IllegalStateException) && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            assertIsInstanceOf(IllegalStateException.class, cause);
+        }
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("ring:transaction.incoming.one")
+                    .transacted("PROPAGATION_REQUIRED")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource");
+
+                from("ring:transaction.incoming.two")
+                    .transacted("PROPAGATION_REQUIRED")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .throwException(new SQLException("forced exception for test"))
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource");
+
+                from("ring:transaction.incoming.three")
+                    .transacted("PROPAGATION_REQUIRED")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource")
+                    .throwException(new SQLException("forced exception for test"));
+
+                // the batch transaction of the consumer is joined by the route
+                from(BATCH_URI).routeId("batch").autoStartup(false)
+                    .transacted("PROPAGATION_REQUIRED")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource");
+
+                from(POISON_URI)
+                    .transacted("PROPAGATION_REQUIRED")
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
+                    .filter(body().isEqualTo(13L))
+                        .throwException(new SQLException("forced exception for test"))
+                    .end()
+                    .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'bar') + # WHERE name = 'bar'?dataSource=dataSource");
+            }
+        };
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JdbcRingTransactionSampleTest-context.xml");
+    }
+}
@@ -0,0 +1,59 @@
+package org.apache.cmueller.camel.samples.camelone.ring;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.camel.Endpoint;
+import org.apache.camel.impl.DefaultComponent;
+
+/**
+ * In-memory endpoints like {@code seda:}, backed by an {@link ExchangeRingBuffer} instead of a blocking queue:
+ * {@code ring:name[?options]}, the options see {@link RingEndpoint}.
+ * <p>
+ * All endpoints with the same name share one ring, which is created with the {@code size} and {@code waitStrategy}
+ * of the first of them. A ring has a single consumer, a second one is rejected.
+ */
+public class RingComponent extends DefaultComponent {
+
+    private final ConcurrentMap<String, ExchangeRingBuffer> rings = new ConcurrentHashMap<String, ExchangeRingBuffer>();
+    private final ConcurrentMap<String, RingConsumer> consumers = new ConcurrentHashMap<String, RingConsumer>();
+
+    @Override
+    protected Endpoint createEndpoint(String uri, String remaining, Map<String, Object> parameters) throws Exception {
+        RingEndpoint endpoint = new RingEndpoint(uri, this, remaining);
+        setProperties(endpoint, parameters);
+        return endpoint;
+    }
+
+    ExchangeRingBuffer getOrCreateRing(String name, int size, String waitStrategy) {
+        ExchangeRingBuffer ring = rings.get(name);
+        if (ring == null) {
+            ExchangeRingBuffer created = new ExchangeRingBuffer(size, WaitStrategy.create(waitStrategy));
+            ring = rings.putIfAbsent(name, created);
+            if (ring == null) {
+                ring = created;
+            }
+        }
+        return ring;
+    }
+
+    void registerConsumer(String name, RingConsumer consumer) {
+        RingConsumer existing = consumers.putIfAbsent(name, consumer);
+        if (existing != null) {
+            throw new IllegalStateException("Ring '" + name + "' already has a consumer on " + existing.getEndpoint().getEndpointUri()
+                + ", its drain supports a single consumer only");
+        }
+    }
+
+    void unregisterConsumer(String name, RingConsumer consumer) {
+        consumers.remove(name, consumer);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        rings.clear();
+        consumers.clear();
+        super.doStop();
+    }
+}
@@ -0,0 +1,220 @@
+package org.apache.cmueller.camel.samples.camelone.ring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.impl.DefaultConsumer;
+import org.apache.camel.util.ExchangeHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Drains the ring on a thread of its own, up to {@code batchSize} exchanges at once, and processes them one after
+ * the other.
+ * <p>
+ * With a {@code transactionManager}, the batch is one transaction: copies of the exchanges are processed in it, and
+ * only if it commits, their results are copied back. If an exchange fails, the batch is rolled back and every
+ * exchange of it is processed again in a transaction of its own, so that only the failed one is lost, as the
+ * {@code BatchTransferConsumer} does for JMS messages. The completions are signalled after the commit, so a caller
+ * which waits never sees uncommitted work.
+ * <p>
+ * The ring has a single consumer, as its drain is not safe for more threads: use several rings for more. The
+ * consumer holds the ring from its creation until it is shut down.
+ */
+public class RingConsumer extends DefaultConsumer implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RingConsumer.class);
+
+    private final List<Exchange> batch;
+    private final List<CountDownLatch> completions;
+    private TransactionTemplate transactionTemplate;
+    private volatile boolean running;
+    private Thread thread;
+
+    public RingConsumer(RingEndpoint endpoint, Processor processor) {
+        super(endpoint, processor);
+        this.batch = new ArrayList<Exchange>(endpoint.getBatchSize());
+        this.completions = new ArrayList<CountDownLatch>(endpoint.getBatchSize());
+    }
+
+    @Override
+    public RingEndpoint getEndpoint() {
+        return (RingEndpoint) super.getEndpoint();
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        if (getEndpoint().getTransactionManager() != null) {
+            transactionTemplate = new TransactionTemplate(getEndpoint().getTransactionManager());
+        }
+        running = true;
+        thread = new Thread(this, "RingConsumer-" + getEndpoint().getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        // no interrupt, it would break the JDBC connection of a batch in progress, the waits are short anyway
+        running = false;
+        if (thread != null) {
+            thread.join(getEndpoint().getTimeout());
+            thread = null;
+        }
+        super.doStop();
+    }
+
+    @Override
+    protected void doShutdown() throws Exception {
+        ((RingComponent) getEndpoint().getComponent()).unregisterConsumer(getEndpoint().getName(), this);
+        super.doShutdown();
+    }
+
+    public void run() {
+        ExchangeRingBuffer ring = getEndpoint().getRing();
+        int attempt = 0;
+        while (running) {
+            int drained = ring.drain(batch, completions, getEndpoint().getBatchSize());
+            if (drained == 0) {
+                try {
+                    ring.awaitExchanges(attempt++);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                continue;
+            }
+            attempt = 0;
+
+            try {
+                if (transactionTemplate == null) {
+                    processEach();
+                } else {
+                    processBatch();
+                }
+            } finally {
+                batch.clear();
+                completions.clear();
+            }
+        }
+    }
+
+    private void processEach() {
+        int failures = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (!process(batch.get(i))) {
+                failures++;
+            }
+            complete(i);
+        }
+        getEndpoint().onBatch(false);
+        getEndpoint().onCompleted(batch.size(), failures);
+    }
+
+    private void processBatch() {
+        final List<Exchange> copies = new ArrayList<Exchange>(batch.size());
+        for (Exchange exchange : batch) {
+            copies.add(ExchangeHelper.createCopy(exchange, true));
+        }
+
+        boolean committed;
+        try {
+            transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    for (Exchange copy : copies) {
+                        if (!process(copy)) {
+                            status.setRollbackOnly();
+                            return;
+                        }
+                    }
+                }
+            });
+            // a participating transacted route may have marked it rollback-only without an exception
+            committed = true;
+            for (Exchange copy : copies) {
+                if (copy.getException() != null || copy.isRollbackOnly()) {
+                    committed = false;
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.debug("Batch of {} exchanges rolled back", batch.size(), e);
+            committed = false;
+        }
+        getEndpoint().onBatch(!committed);
+
+        if (committed) {
+            for (int i = 0; i < batch.size(); i++) {
+                ExchangeHelper.copyResults(batch.get(i), copies.get(i));
+                complete(i);
+            }
+            getEndpoint().onCompleted(batch.size(), 0);
+        } else {
+            int failures = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                if (!processAlone(batch.get(i))) {
+                    failures++;
+                }
+                complete(i);
+            }
+            getEndpoint().onCompleted(batch.size(), failures);
+        }
+    }
+
+    private boolean processAlone(final Exchange exchange) {
+        try {
+            transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    if (!process(exchange)) {
+                        status.setRollbackOnly();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            if (exchange.getException() == null) {
+                exchange.setException(e);
+            }
+        }
+        getEndpoint().onBatch(exchange.getException() != null);
+        return exchange.getException() == null;
+    }
+
+    /**
+     * @return {@code false} if the exchange failed
+     */
+    private boolean process(Exchange exchange) {
+        try {
+            getProcessor().process(exchange);
+        } catch (Exception e) {
+            exchange.setException(e);
+        }
+        return exchange.getException() == null && !exchange.isRollbackOnly();
+    }
+
+    private void complete(int index) {
+        Exchange exchange = batch.get(index);
+        // the transacted route rethrows a checked exception wrapped, as it runs in the transaction of this consumer
+        // instead of its own one, the callers get the original exception like from seda
+        Exception exception = exchange.getException();
+        if (exception instanceof RuntimeCamelException && exception.getCause() instanceof Exception) {
+            exchange.setException((Exception) exception.getCause());
+        }
+
+        CountDownLatch completion = completions.get(index);
+        if (completion != null) {
+            completion.countDown();
+        } else if (exchange.getException() != null) {
+            getExceptionHandler().handleException("Error processing exchange from ring " + getEndpoint().getName(),
+                exchange, exchange.getException());
+        }
+    }
+}
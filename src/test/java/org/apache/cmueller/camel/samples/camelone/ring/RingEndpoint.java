@@ -0,0 +1,191 @@
+package org.apache.cmueller.camel.samples.camelone.ring;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.Consumer;
+import org.apache.camel.Processor;
+import org.apache.camel.Producer;
+import org.apache.camel.impl.DefaultEndpoint;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * A named ring of exchanges, with one consumer thread. The options:
+ * <ul>
+ * <li>{@code size}: the number of slots of the ring, rounded up to a power of two, 1024 by default</li>
+ * <li>{@code waitStrategy}: {@code busySpin}, {@code yielding}, {@code sleeping} or {@code blocking} (the default),
+ * see {@link WaitStrategy}</li>
+ * <li>{@code batchSize}: the maximum number of exchanges the consumer drains at once, 64 by default</li>
+ * <li>{@code transactionManager}: if set, the consumer processes each drained batch in one transaction, whose
+ * commit covers all of its exchanges; routes which are {@code transacted} with the same transaction manager join
+ * it</li>
+ * <li>{@code waitForTaskToComplete}: the producer waits until the consumer is done with the exchange, which it
+ * also does for InOut exchanges; {@code false} by default</li>
+ * <li>{@code timeout}: how long the producer waits for a free slot and for the completion, 30000ms by default</li>
+ * </ul>
+ * The endpoint counts the exchanges the consumer is done with, so callers can wait for them with
+ * {@link #awaitCompleted(long, long, TimeUnit)}, instead of sleeping.
+ */
+public class RingEndpoint extends DefaultEndpoint {
+
+    private final String name;
+    private int size = 1024;
+    private String waitStrategy = "blocking";
+    private int batchSize = 64;
+    private PlatformTransactionManager transactionManager;
+    private boolean waitForTaskToComplete;
+    private long timeout = 30000;
+
+    private volatile ExchangeRingBuffer ring;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong rolledBackBatches = new AtomicLong();
+    private final Object completion = new Object();
+
+    public RingEndpoint(String endpointUri, RingComponent component, String name) {
+        super(endpointUri, component);
+        this.name = name;
+    }
+
+    public Producer createProducer() throws Exception {
+        return new RingProducer(this);
+    }
+
+    /**
+     * @throws IllegalStateException if the ring has a consumer already, also of another endpoint with the same name
+     */
+    public Consumer createConsumer(Processor processor) throws Exception {
+        RingConsumer consumer = new RingConsumer(this, processor);
+        configureConsumer(consumer);
+        ((RingComponent) getComponent()).registerConsumer(name, consumer);
+        return consumer;
+    }
+
+    public boolean isSingleton() {
+        return true;
+    }
+
+    ExchangeRingBuffer getRing() {
+        if (ring == null) {
+            ring = ((RingComponent) getComponent()).getOrCreateRing(name, size, waitStrategy);
+        }
+        return ring;
+    }
+
+    void onCompleted(int exchanges, int failures) {
+        failed.addAndGet(failures);
+        completed.addAndGet(exchanges);
+        synchronized (completion) {
+            completion.notifyAll();
+        }
+    }
+
+    void onBatch(boolean rolledBack) {
+        batches.incrementAndGet();
+        if (rolledBack) {
+            rolledBackBatches.incrementAndGet();
+        }
+    }
+
+    /**
+     * Waits until the consumer is done with {@code count} exchanges in total, successful or failed.
+     *
+     * @return {@code false} if it was not within the timeout
+     */
+    public boolean awaitCompleted(long count, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (completion) {
+            while (completed.get() < count) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                completion.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * @return the exchanges which completed with an exception
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return the batches the consumer processed, including the ones which were rolled back and split
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getRolledBackBatchCount() {
+        return rolledBackBatches.get();
+    }
+
+    /**
+     * @return the exchanges waiting in the ring
+     */
+    public long getPendingCount() {
+        return getRing().size();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public String getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public void setWaitStrategy(String waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public PlatformTransactionManager getTransactionManager() {
+        return transactionManager;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public boolean isWaitForTaskToComplete() {
+        return waitForTaskToComplete;
+    }
+
+    public void setWaitForTaskToComplete(boolean waitForTaskToComplete) {
+        this.waitForTaskToComplete = waitForTaskToComplete;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+}
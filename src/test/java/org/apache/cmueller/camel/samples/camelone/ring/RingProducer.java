@@ -0,0 +1,48 @@
+package org.apache.cmueller.camel.samples.camelone.ring;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.CamelExchangeException;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangeTimedOutException;
+import org.apache.camel.impl.DefaultProducer;
+import org.apache.camel.util.ExchangeHelper;
+
+/**
+ * Publishes a copy of the exchange into the ring. If the caller waits for the completion, the result of the consumer
+ * is copied back into the exchange, like {@code seda:} does.
+ */
+public class RingProducer extends DefaultProducer {
+
+    public RingProducer(RingEndpoint endpoint) {
+        super(endpoint);
+    }
+
+    @Override
+    public RingEndpoint getEndpoint() {
+        return (RingEndpoint) super.getEndpoint();
+    }
+
+    public void process(Exchange exchange) throws Exception {
+        RingEndpoint endpoint = getEndpoint();
+        boolean wait = endpoint.isWaitForTaskToComplete() || exchange.getPattern().isOutCapable();
+        Exchange copy = ExchangeHelper.createCorrelatedCopy(exchange, false);
+        CountDownLatch completion = wait ? new CountDownLatch(1) : null;
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(endpoint.getTimeout());
+        if (!endpoint.getRing().offer(copy, completion, TimeUnit.MILLISECONDS.toNanos(endpoint.getTimeout()))) {
+            exchange.setException(new CamelExchangeException("Ring " + endpoint.getName() + " stayed full for "
+                + endpoint.getTimeout() + "ms", exchange));
+            return;
+        }
+
+        if (wait) {
+            if (completion.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                ExchangeHelper.copyResults(exchange, copy);
+            } else {
+                exchange.setException(new ExchangeTimedOutException(exchange, endpoint.getTimeout()));
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.apache.cmueller.camel.samples.camelone.ring;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How the consumer of an {@link ExchangeRingBuffer} waits for exchanges, and its producers for free slots:
+ * <ul>
+ * <li>{@code busySpin}: lowest latency, burns a core per waiting thread</li>
+ * <li>{@code yielding}: spins, then yields the processor</li>
+ * <li>{@code sleeping}: spins, yields, then parks for 100 microseconds at a time</li>
+ * <li>{@code blocking}: parks until signalled, with the lowest CPU usage and the highest wake-up latency</li>
+ * </ul>
+ */
+public abstract class WaitStrategy {
+
+    private static final int SPINS = 100;
+    private static final int YIELDS = 200;
+
+    public static WaitStrategy create(String name) {
+        if ("busySpin".equals(name)) {
+            return new BusySpin();
+        } else if ("yielding".equals(name)) {
+            return new Yielding();
+        } else if ("sleeping".equals(name)) {
+            return new Sleeping();
+        } else if ("blocking".equals(name)) {
+            return new Blocking();
+        }
+        throw new IllegalArgumentException("Unknown wait strategy '" + name + "', use busySpin, yielding, sleeping or blocking");
+    }
+
+    /**
+     * Waits a little, the caller checks its condition again afterwards.
+     *
+     * @param attempt the number of times the caller waited for the same condition before
+     */
+    public abstract void idle(int attempt) throws InterruptedException;
+
+    /**
+     * Wakes up the waiting threads, after exchanges were published or slots were freed.
+     */
+    public void signal() {
+    }
+
+    static final class BusySpin extends WaitStrategy {
+        @Override
+        public void idle(int attempt) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    static final class Yielding extends WaitStrategy {
+        @Override
+        public void idle(int attempt) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (attempt >= SPINS) {
+                Thread.yield();
+            }
+        }
+    }
+
+    static final class Sleeping extends WaitStrategy {
+        @Override
+        public void idle(int attempt) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (attempt >= SPINS + YIELDS) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+            } else if (attempt >= SPINS) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * A signal which races with the begin of a wait is caught by the timeout of one millisecond, so that the
+     * signalling threads only take the lock if someone is waiting.
+     */
+    static final class Blocking extends WaitStrategy {
+        private final Lock lock = new ReentrantLock();
+        private final Condition signalled = lock.newCondition();
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        @Override
+        public void idle(int attempt) throws InterruptedException {
+            waiters.incrementAndGet();
+            lock.lock();
+            try {
+                signalled.await(1, TimeUnit.MILLISECONDS);
+            } finally {
+                lock.unlock();
+                waiters.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void signal() {
+            if (waiters.get() > 0) {
+                lock.lock();
+                try {
+                    signalled.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.apache.cmueller.camel.samples.camelone.shard;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.spring.CamelSpringTestSupport;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+public class JmsAndJdbcShardedTransactionSampleTest extends CamelSpringTestSupport {
+
+    private static final int ACCOUNTS = 16;
+
+    private BrokerService broker;
+    private ShardedTransferProcessor processor;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        broker = ActiveMQUtil.createAndStartBroker();
+
+        super.setUp();
+
+        processor = context.getRegistry().lookupByNameAndType("shardedTransferProcessor", ShardedTransferProcessor.class);
+        processor.createAccounts(ACCOUNTS, 1000);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        processor.dropAccounts();
+
+        super.tearDown();
+
+        ActiveMQUtil.stopBroker(broker);
+    }
+
+    @Test
+    public void transferWithinShardShouldCommitLocally() {
+        String[] accounts = findAccounts(true);
+
+        Exchange exchange = transfer("transaction.incoming.one", accounts, "transaction.outgoing.one");
+        assertNotNull(exchange);
+
+        assertEquals(900, processor.getBalance(accounts[0]));
+        assertEquals(1100, processor.getBalance(accounts[1]));
+        assertEquals(1, processor.getSingleShardTransferCount());
+        assertEquals(0, processor.getCrossShardTransferCount());
+    }
+
+    @Test
+    public void transferBetweenShardsShouldCommitWithTwoPhases() {
+        String[] accounts = findAccounts(false);
+
+        Exchange exchange = transfer("transaction.incoming.one", accounts, "transaction.outgoing.one");
+        assertNotNull(exchange);
+
+        assertEquals(900, processor.getBalance(accounts[0]));
+        assertEquals(1100, processor.getBalance(accounts[1]));
+        assertEquals(0, processor.getSingleShardTransferCount());
+        assertEquals(1, processor.getCrossShardTransferCount());
+        assertEquals(ACCOUNTS * 1000, processor.getTotalBalance());
+    }
+
+    @Test
+    public void transferBetweenShardsShouldRollBackInAllShards() {
+        // the debit is applied in the first shard before the missing credit account fails the transfer in another
+        String debitAccount = DatabaseUtil.accountName(0);
+        for (int i = 1; processor.shardOf(debitAccount) != 0; i++) {
+            debitAccount = DatabaseUtil.accountName(i);
+        }
+        String creditAccount = "missing";
+        for (int i = 0; processor.shardOf(creditAccount) == 0; i++) {
+            creditAccount = "missing-" + i;
+        }
+
+        Exchange exchange = transfer("transaction.incoming.one", new String[] {debitAccount, creditAccount}, "ActiveMQ.DLQ");
+        assertNotNull(exchange);
+
+        assertEquals(1000, processor.getBalance(debitAccount));
+        assertEquals(ACCOUNTS * 1000, processor.getTotalBalance());
+        assertNull(consumer.receive("activemq:queue:transaction.outgoing.one", 1000));
+    }
+
+    private Exchange transfer(String incoming, String[] accounts, String outgoing) {
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put(ShardedTransferProcessor.DEBIT_ACCOUNT, accounts[0]);
+        headers.put(ShardedTransferProcessor.CREDIT_ACCOUNT, accounts[1]);
+        template.sendBodyAndHeaders("activemq:queue:" + incoming, 100L, headers);
+
+        return consumer.receive("activemq:queue:" + outgoing, 5000);
+    }
+
+    private String[] findAccounts(boolean sameShard) {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            for (int j = i + 1; j < ACCOUNTS; j++) {
+                String debitAccount = DatabaseUtil.accountName(i);
+                String creditAccount = DatabaseUtil.accountName(j);
+                if ((processor.shardOf(debitAccount) == processor.shardOf(creditAccount)) == sameShard) {
+                    return new String[] {debitAccount, creditAccount};
+                }
+            }
+        }
+        throw new IllegalStateException("No accounts found");
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                from("activemqTx:queue:transaction.incoming.one")
+                    .to("bean:shardedTransferProcessor")
+                    .to("activemqTx:queue:transaction.outgoing.one");
+            }
+        };
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcShardedTransactionSampleTest-context.xml");
+    }
+}
@@ -0,0 +1,202 @@
+package org.apache.cmueller.camel.samples.camelone.shard;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.metrics.PhaseHistogram;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Transfers the amount in the message body from the account in the {@value #DEBIT_ACCOUNT} header to the account in
+ * the {@value #CREDIT_ACCOUNT} header, with the accounts hash-partitioned over the databases of the {@code shards}:
+ * <pre>
+ * from("activemqTx:queue:transaction.incoming.one")
+ *     .to("bean:shardedTransferProcessor")
+ *     .to("activemqTx:queue:transaction.outgoing.one");
+ * </pre>
+ * A transfer between two accounts of the same shard commits in a local transaction of the shard. Only a transfer
+ * between shards runs in a transaction of the {@code jtaTransactionManager} and commits with two phases. The shard
+ * data sources must therefore be XA capable and serve local transactions as well, as the DBCP
+ * {@code BasicManagedDataSource} does outside of a JTA transaction.
+ * <p>
+ * The updates of a transfer are done in the order of the shards and account names, so two cross-shard transfers can't
+ * wait for each other's locks in two databases, which no database would detect as deadlock.
+ */
+public class ShardedTransferProcessor implements Processor {
+
+    public static final String DEBIT_ACCOUNT = "debitAccount";
+    public static final String CREDIT_ACCOUNT = "creditAccount";
+
+    private List<DataSource> shards = new ArrayList<DataSource>();
+    private PlatformTransactionManager jtaTransactionManager;
+
+    private final List<JdbcTemplate> jdbcs = new ArrayList<JdbcTemplate>();
+    private final List<TransactionTemplate> localTransactionTemplates = new ArrayList<TransactionTemplate>();
+    private TransactionTemplate jtaTransactionTemplate;
+
+    private final AtomicLong singleShardTransfers = new AtomicLong();
+    private final AtomicLong crossShardTransfers = new AtomicLong();
+    private final PhaseHistogram singleShardCommit = new PhaseHistogram("shard", "singleShard", "transfer");
+    private final PhaseHistogram crossShardCommit = new PhaseHistogram("shard", "crossShard", "transfer");
+
+    public void init() {
+        if (shards.isEmpty() || jtaTransactionManager == null) {
+            throw new IllegalArgumentException("Properties 'shards' and 'jtaTransactionManager' are required");
+        }
+
+        jdbcs.clear();
+        localTransactionTemplates.clear();
+        for (DataSource shard : shards) {
+            jdbcs.add(new JdbcTemplate(shard));
+            localTransactionTemplates.add(new TransactionTemplate(new DataSourceTransactionManager(shard)));
+        }
+        jtaTransactionTemplate = new TransactionTemplate(jtaTransactionManager);
+        jtaTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public void process(Exchange exchange) throws Exception {
+        String debitAccount = exchange.getIn().getHeader(DEBIT_ACCOUNT, "foo", String.class);
+        String creditAccount = exchange.getIn().getHeader(CREDIT_ACCOUNT, "bar", String.class);
+        long amount = exchange.getIn().getMandatoryBody(Long.class);
+
+        transfer(debitAccount, creditAccount, amount);
+    }
+
+    public void transfer(String debitAccount, String creditAccount, long amount) {
+        final int debitShard = shardOf(debitAccount);
+        final int creditShard = shardOf(creditAccount);
+        final boolean debitFirst = debitShard < creditShard || debitShard == creditShard && debitAccount.compareTo(creditAccount) < 0;
+        final String[] accounts = debitFirst ? new String[] {debitAccount, creditAccount} : new String[] {creditAccount, debitAccount};
+        final int[] accountShards = debitFirst ? new int[] {debitShard, creditShard} : new int[] {creditShard, debitShard};
+        final long[] deltas = debitFirst ? new long[] {-amount, amount} : new long[] {amount, -amount};
+
+        TransactionCallbackWithoutResult updates = new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                for (int i = 0; i < accounts.length; i++) {
+                    update(accountShards[i], accounts[i], deltas[i]);
+                }
+            }
+        };
+
+        long start = System.nanoTime();
+        if (debitShard == creditShard) {
+            localTransactionTemplates.get(debitShard).execute(updates);
+            singleShardCommit.record(System.nanoTime() - start);
+            singleShardTransfers.incrementAndGet();
+        } else {
+            jtaTransactionTemplate.execute(updates);
+            crossShardCommit.record(System.nanoTime() - start);
+            crossShardTransfers.incrementAndGet();
+        }
+    }
+
+    private void update(int shard, String account, long delta) {
+        if (jdbcs.get(shard).update("UPDATE account SET balance = balance + ? WHERE name = ?", delta, account) != 1) {
+            throw new EmptyResultDataAccessException("No account " + account + " in shard " + shard, 1);
+        }
+    }
+
+    public int shardOf(String account) {
+        return (account.hashCode() & Integer.MAX_VALUE) % shards.size();
+    }
+
+    /**
+     * Creates the {@code account} table in every shard, with the accounts {@code account-0} to
+     * {@code account-<count - 1>} in their shards.
+     */
+    public void createAccounts(int count, long balance) {
+        for (int shard = 0; shard < shards.size(); shard++) {
+            final JdbcTemplate jdbc = jdbcs.get(shard);
+            final List<Object[]> accounts = new ArrayList<Object[]>();
+            for (int i = 0; i < count; i++) {
+                if (shardOf(DatabaseUtil.accountName(i)) == shard) {
+                    accounts.add(new Object[] {DatabaseUtil.accountName(i), balance});
+                }
+            }
+            localTransactionTemplates.get(shard).execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    jdbc.execute("CREATE TABLE account (name VARCHAR(50) NOT NULL PRIMARY KEY, balance BIGINT)");
+                    jdbc.batchUpdate("INSERT INTO account (name, balance) VALUES(?,?)", accounts);
+                }
+            });
+        }
+    }
+
+    public void dropAccounts() {
+        for (int shard = 0; shard < shards.size(); shard++) {
+            final JdbcTemplate jdbc = jdbcs.get(shard);
+            localTransactionTemplates.get(shard).execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    jdbc.execute("DROP TABLE account");
+                }
+            });
+        }
+    }
+
+    public long getBalance(String account) {
+        return DatabaseUtil.queryForLong(localTransactionTemplates.get(shardOf(account)), jdbcs.get(shardOf(account)),
+            "SELECT balance FROM account WHERE name = '" + account + "'");
+    }
+
+    public long getTotalBalance() {
+        long total = 0;
+        for (int shard = 0; shard < shards.size(); shard++) {
+            total += DatabaseUtil.queryForLong(localTransactionTemplates.get(shard), jdbcs.get(shard), "SELECT COALESCE(SUM(balance), 0) FROM account");
+        }
+        return total;
+    }
+
+    public long getSingleShardTransferCount() {
+        return singleShardTransfers.get();
+    }
+
+    public long getCrossShardTransferCount() {
+        return crossShardTransfers.get();
+    }
+
+    /**
+     * @return the durations of the transfers within one shard, from the begin of the local transaction to its commit
+     */
+    public PhaseHistogram getSingleShardCommit() {
+        return singleShardCommit;
+    }
+
+    /**
+     * @return the durations of the transfers between shards, from the begin of the JTA transaction to its commit
+     */
+    public PhaseHistogram getCrossShardCommit() {
+        return crossShardCommit;
+    }
+
+    public List<DataSource> getShards() {
+        return shards;
+    }
+
+    public void setShards(List<DataSource> shards) {
+        this.shards = shards;
+    }
+
+    public PlatformTransactionManager getJtaTransactionManager() {
+        return jtaTransactionManager;
+    }
+
+    public void setJtaTransactionManager(PlatformTransactionManager jtaTransactionManager) {
+        this.jtaTransactionManager = jtaTransactionManager;
+    }
+}
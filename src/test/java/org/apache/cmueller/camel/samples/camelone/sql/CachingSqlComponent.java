@@ -0,0 +1,31 @@
+package org.apache.cmueller.camel.samples.camelone.sql;
+
+import java.util.Map;
+
+import org.apache.camel.Endpoint;
+import org.apache.camel.component.sql.SqlComponent;
+import org.apache.camel.component.sql.SqlEndpoint;
+
+/**
+ * {@link SqlComponent} whose endpoints share one {@link CachingSqlPrepareStatementStrategy}, unless the endpoint URI
+ * configures its own {@code prepareStatementStrategy}. Registered as {@code sql}, it applies to the existing routes.
+ */
+public class CachingSqlComponent extends SqlComponent {
+
+    private CachingSqlPrepareStatementStrategy prepareStatementStrategy = new CachingSqlPrepareStatementStrategy();
+
+    @Override
+    protected Endpoint createEndpoint(String uri, String remaining, Map<String, Object> parameters) throws Exception {
+        Endpoint endpoint = super.createEndpoint(uri, remaining, parameters);
+        ((SqlEndpoint) endpoint).setPrepareStatementStrategy(prepareStatementStrategy);
+        return endpoint;
+    }
+
+    public CachingSqlPrepareStatementStrategy getPrepareStatementStrategy() {
+        return prepareStatementStrategy;
+    }
+
+    public void setPrepareStatementStrategy(CachingSqlPrepareStatementStrategy prepareStatementStrategy) {
+        this.prepareStatementStrategy = prepareStatementStrategy;
+    }
+}
@@ -0,0 +1,62 @@
+package org.apache.cmueller.camel.samples.camelone.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.component.sql.DefaultSqlPrepareStatementStrategy;
+import org.apache.camel.component.sql.SqlPrepareStatementStrategy;
+
+/**
+ * Remembers the prepared form of each {@code sql:} query, so that its placeholders are parsed once instead of on
+ * every exchange. Populating the statement is left to the {@link DefaultSqlPrepareStatementStrategy}.
+ */
+public class CachingSqlPrepareStatementStrategy implements SqlPrepareStatementStrategy {
+
+    private final SqlPrepareStatementStrategy delegate;
+    private final ConcurrentMap<String, String> preparedQueries = new ConcurrentHashMap<String, String>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingSqlPrepareStatementStrategy() {
+        this(new DefaultSqlPrepareStatementStrategy());
+    }
+
+    public CachingSqlPrepareStatementStrategy(SqlPrepareStatementStrategy delegate) {
+        this.delegate = delegate;
+    }
+
+    public String prepareQuery(String query, boolean allowNamedParameters) throws SQLException {
+        String key = allowNamedParameters + ":" + query;
+        String preparedQuery = preparedQueries.get(key);
+        if (preparedQuery != null) {
+            hits.incrementAndGet();
+            return preparedQuery;
+        }
+
+        misses.incrementAndGet();
+        preparedQuery = delegate.prepareQuery(query, allowNamedParameters);
+        preparedQueries.putIfAbsent(key, preparedQuery);
+        return preparedQuery;
+    }
+
+    public Iterator<?> createPopulateIterator(String query, String preparedQuery, int expectedParams, Exchange exchange, Object value) throws SQLException {
+        return delegate.createPopulateIterator(query, preparedQuery, expectedParams, exchange, value);
+    }
+
+    public void populateStatement(PreparedStatement ps, Iterator<?> iterator, int expectedParams) throws SQLException {
+        delegate.populateStatement(ps, iterator, expectedParams);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+}
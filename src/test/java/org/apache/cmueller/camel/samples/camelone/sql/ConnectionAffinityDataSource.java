@@ -0,0 +1,206 @@
+package org.apache.cmueller.camel.samples.camelone.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Binds the connection of the target data source, e.g. a {@code BasicManagedDataSource}, an
+ * {@code AtomikosDataSourceBean} or a {@code PoolingDataSource}, to the running transaction. All {@code sql:} calls
+ * within the transaction use this one connection, which is looked up from the pool and enlisted in the XA transaction
+ * only once, and the prepared statements of the connection are cached by their SQL text. The connection and its
+ * statements are closed after the transaction completed.
+ * <p>
+ * Outside of a transaction, the connections of the target data source are returned as they are.
+ * <p>
+ * Spring's {@code DataSourceUtils} already binds one connection per transaction for the {@code JdbcTemplate} of the
+ * {@code sql:} endpoints, and {@code BasicManagedDataSource} already reuses its physical connection within an XA
+ * transaction. What this data source adds is the statement cache of the bound connection, for the pools without a
+ * statement cache of their own, and the counters of connections and statements exported over JMX.
+ */
+public class ConnectionAffinityDataSource extends DelegatingDataSource implements ConnectionAffinityDataSourceMBean {
+
+    // not the data source itself, which is the key of Spring's own ConnectionHolder
+    private final Object resourceKey = new Object();
+    private final AtomicLong connectionRequests = new AtomicLong();
+    private final AtomicLong boundConnections = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    public ConnectionAffinityDataSource() {
+    }
+
+    public ConnectionAffinityDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        connectionRequests.incrementAndGet();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return getTargetDataSource().getConnection();
+        }
+
+        Connection connection = (Connection) TransactionSynchronizationManager.getResource(resourceKey);
+        if (connection == null) {
+            final AffinityConnection affinity = new AffinityConnection(getTargetDataSource().getConnection());
+            boundConnections.incrementAndGet();
+
+            connection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class}, affinity);
+            TransactionSynchronizationManager.bindResource(resourceKey, connection);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void suspend() {
+                    TransactionSynchronizationManager.unbindResource(resourceKey);
+                }
+
+                @Override
+                public void resume() {
+                    TransactionSynchronizationManager.bindResource(resourceKey, affinity.proxy);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(resourceKey);
+                    affinity.release();
+                }
+            });
+            affinity.proxy = connection;
+        }
+        return connection;
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        connectionRequests.incrementAndGet();
+        return getTargetDataSource().getConnection(username, password);
+    }
+
+    public long getConnectionRequestCount() {
+        return connectionRequests.get();
+    }
+
+    /**
+     * @return the number of connections taken from the target data source within a transaction
+     */
+    public long getBoundConnectionCount() {
+        return boundConnections.get();
+    }
+
+    public long getStatementCacheHitCount() {
+        return statementCacheHits.get();
+    }
+
+    public long getStatementCacheMissCount() {
+        return statementCacheMisses.get();
+    }
+
+    public double getStatementCacheHitRatio() {
+        long hits = statementCacheHits.get();
+        long total = hits + statementCacheMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * The transaction-bound connection: {@code close()} is deferred to the end of the transaction, and
+     * {@code prepareStatement(String)} returns the cached statement for the SQL text.
+     */
+    private final class AffinityConnection implements InvocationHandler {
+
+        private final Connection target;
+        private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+        private final List<PreparedStatement> targetStatements = new ArrayList<PreparedStatement>();
+        private Connection proxy;
+
+        AffinityConnection(Connection target) {
+            this.target = target;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name)) {
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return false;
+            }
+            if ("prepareStatement".equals(name) && args.length == 1) {
+                return prepareStatement((String) args[0]);
+            }
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+
+        private PreparedStatement prepareStatement(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement != null) {
+                statementCacheHits.incrementAndGet();
+                statement.clearParameters();
+                return statement;
+            }
+
+            statementCacheMisses.incrementAndGet();
+            final PreparedStatement target = this.target.prepareStatement(sql);
+            statement = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {PreparedStatement.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("close".equals(method.getName())) {
+                            // stays open for the next use in this transaction
+                            return null;
+                        }
+                        if ("getConnection".equals(method.getName())) {
+                            return AffinityConnection.this.proxy;
+                        }
+                        try {
+                            return method.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                    }
+                });
+            statements.put(sql, statement);
+            targetStatements.add(target);
+            return statement;
+        }
+
+        void release() {
+            try {
+                for (PreparedStatement statement : targetStatements) {
+                    try {
+                        statement.close();
+                    } catch (SQLException e) {
+                        // the connection is closed next anyway
+                    }
+                }
+                target.close();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not close the transaction-bound connection", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.apache.cmueller.camel.samples.camelone.sql;
+
+public interface ConnectionAffinityDataSourceMBean {
+
+    long getConnectionRequestCount();
+
+    long getBoundConnectionCount();
+
+    long getStatementCacheHitCount();
+
+    long getStatementCacheMissCount();
+
+    double getStatementCacheHitRatio();
+}
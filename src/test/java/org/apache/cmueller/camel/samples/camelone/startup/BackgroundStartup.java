@@ -0,0 +1,245 @@
+package org.apache.cmueller.camel.samples.camelone.startup;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.context.SmartLifecycle;
+
+/**
+ * Takes the XA resources, the recovery and the pre-warming of the pools out of the startup of a context:
+ * <ul>
+ * <li>the init-methods of the {@code deferredInitBeans}, e.g. {@code ActiveMQResourceManager.recoverResource} or
+ * {@code init} of an Atomikos or Bitronix pool, which registers the resource for recovery, are not called when the
+ * bean is created, but in the background once the context has been refreshed</li>
+ * <li>the {@code prewarmedBeans}, data sources or JMS connection factories, open {@code prewarmConnections}
+ * connections in the background and return them to their pool</li>
+ * </ul>
+ * Every bean is started on its own thread, so the recoveries of the resources run in parallel. The Atomikos and
+ * Bitronix pools and the Atomikos transaction manager initialize themselves on first use, so a transaction which
+ * starts before the background task of its resource is done just initializes the resource itself. Which other init
+ * methods can be deferred depends on the bean: the bean must not be used before its task is done, see
+ * {@link #awaitCompletion(long, TimeUnit)}.
+ * <p>
+ * The transaction managers which read their recovery log while they are created, Geronimo with its HOWL log and
+ * JOTM with {@code jotm.recovery.Enabled=true}, still do it on the startup thread.
+ */
+public class BackgroundStartup implements BeanFactoryPostProcessor, SmartLifecycle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BackgroundStartup.class);
+
+    private List<String> deferredInitBeans = new ArrayList<String>();
+    private List<String> prewarmedBeans = new ArrayList<String>();
+    private int prewarmConnections = 4;
+
+    private ConfigurableListableBeanFactory beanFactory;
+    private final Map<String, String> deferredInitMethods = new LinkedHashMap<String, String>();
+    private final Map<String, Future<?>> tasks = new LinkedHashMap<String, Future<?>>();
+    private final Map<String, Long> durations = new ConcurrentHashMap<String, Long>();
+    private ExecutorService executor;
+
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+        for (String beanName : deferredInitBeans) {
+            BeanDefinition definition = beanFactory.getBeanDefinition(beanName);
+            String initMethod = definition instanceof AbstractBeanDefinition ? ((AbstractBeanDefinition) definition).getInitMethodName() : null;
+            if (initMethod == null) {
+                throw new IllegalArgumentException("Bean '" + beanName + "' has no init-method which could be deferred");
+            }
+            deferredInitMethods.put(beanName, initMethod);
+            ((AbstractBeanDefinition) definition).setInitMethodName(null);
+        }
+    }
+
+    public synchronized void start() {
+        Set<String> beanNames = new LinkedHashSet<String>(deferredInitBeans);
+        beanNames.addAll(prewarmedBeans);
+        if (beanNames.isEmpty()) {
+            return;
+        }
+
+        executor = Executors.newFixedThreadPool(beanNames.size(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "BackgroundStartup-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (final String beanName : beanNames) {
+            tasks.put(beanName, executor.submit(new Runnable() {
+                public void run() {
+                    long start = System.nanoTime();
+                    try {
+                        startBean(beanName);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Background startup of bean '" + beanName + "' failed", e);
+                        throw e;
+                    } finally {
+                        durations.put(beanName, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    }
+                }
+            }));
+        }
+        executor.shutdown();
+    }
+
+    private void startBean(String beanName) {
+        Object bean = beanFactory.getBean(beanName);
+        String initMethod = deferredInitMethods.get(beanName);
+        if (initMethod != null) {
+            try {
+                Method method = bean.getClass().getMethod(initMethod);
+                method.invoke(bean);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Init-method '" + initMethod + "' of bean '" + beanName + "' failed", e.getTargetException());
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not call init-method '" + initMethod + "' of bean '" + beanName + "'", e);
+            }
+        }
+        if (prewarmedBeans.contains(beanName)) {
+            prewarm(beanName, bean);
+        }
+    }
+
+    private void prewarm(String beanName, Object bean) {
+        try {
+            if (bean instanceof DataSource) {
+                // all at once, so the pool has to create each of them
+                List<Connection> connections = new ArrayList<Connection>(prewarmConnections);
+                try {
+                    for (int i = 0; i < prewarmConnections; i++) {
+                        connections.add(((DataSource) bean).getConnection());
+                    }
+                } finally {
+                    for (Connection connection : connections) {
+                        connection.close();
+                    }
+                }
+            } else if (bean instanceof javax.jms.ConnectionFactory) {
+                List<javax.jms.Connection> connections = new ArrayList<javax.jms.Connection>(prewarmConnections);
+                try {
+                    for (int i = 0; i < prewarmConnections; i++) {
+                        connections.add(((javax.jms.ConnectionFactory) bean).createConnection());
+                    }
+                } finally {
+                    for (javax.jms.Connection connection : connections) {
+                        connection.close();
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException("Bean '" + beanName + "' is neither a DataSource nor a JMS ConnectionFactory");
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not pre-warm the pool of bean '" + beanName + "'", e);
+        }
+    }
+
+    /**
+     * @return {@code true} if all background tasks are done within the timeout
+     * @throws IllegalStateException if a background task failed
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Map<String, Future<?>> started;
+        synchronized (this) {
+            started = new LinkedHashMap<String, Future<?>>(tasks);
+        }
+        for (Map.Entry<String, Future<?>> task : started.entrySet()) {
+            try {
+                task.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                return false;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Background startup of bean '" + task.getKey() + "' failed", e.getCause());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the duration of the background task of each bean in milliseconds, for the tasks which are done
+     */
+    public Map<String, Long> getDurations() {
+        return Collections.unmodifiableMap(durations);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    public synchronized boolean isRunning() {
+        return executor != null;
+    }
+
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    /**
+     * Before all other lifecycle beans, e.g. the listener containers.
+     */
+    public int getPhase() {
+        return Integer.MIN_VALUE;
+    }
+
+    public List<String> getDeferredInitBeans() {
+        return deferredInitBeans;
+    }
+
+    public void setDeferredInitBeans(List<String> deferredInitBeans) {
+        this.deferredInitBeans = deferredInitBeans;
+    }
+
+    public List<String> getPrewarmedBeans() {
+        return prewarmedBeans;
+    }
+
+    public void setPrewarmedBeans(List<String> prewarmedBeans) {
+        this.prewarmedBeans = prewarmedBeans;
+    }
+
+    public int getPrewarmConnections() {
+        return prewarmConnections;
+    }
+
+    public void setPrewarmConnections(int prewarmConnections) {
+        this.prewarmConnections = prewarmConnections;
+    }
+}
@@ -0,0 +1,296 @@
+package org.apache.cmueller.camel.samples.camelone.trace;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.Route;
+import org.apache.camel.model.ProcessorDefinition;
+import org.apache.camel.model.RouteDefinition;
+import org.apache.camel.processor.DelegateAsyncProcessor;
+import org.apache.camel.spi.InterceptStrategy;
+import org.apache.camel.spi.RoutePolicy;
+import org.apache.camel.spi.RoutePolicyFactory;
+import org.apache.camel.support.RoutePolicySupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Traces a sample of the exchanges into a {@link TraceRecorder}, instead of logging every step of every exchange as
+ * {@code context.setTracing(true)} does:
+ * <ul>
+ * <li>as {@link RoutePolicyFactory}, it samples {@code sampleRate} of the exchanges when they begin, and records
+ * their begin and end</li>
+ * <li>as {@link InterceptStrategy}, it records the duration of every step of a sampled exchange; the steps of the
+ * other exchanges only look up the {@value #TRACE_ID} property</li>
+ * <li>the {@link TracingTransactionManager}s record the begin, commit and rollback of the transactions of a sampled
+ * exchange on the same thread</li>
+ * </ul>
+ * Rollbacks, failed exchanges and the ones whose failure was handled by the error handler, e.g. moved to a dead letter
+ * channel, are always recorded, also if they were not sampled, and trigger a dump of the last {@code dumpEvents}
+ * events. The dump is formatted and logged on a thread of its own, and a dump which is requested while another one
+ * is pending is folded into it, so a burst of rollbacks doesn't stall the routes. {@link #dump()} and
+ * {@link #dumpTrace(long)} dump on demand, e.g. over JMX.
+ */
+public class SampledTracer implements SampledTracerMBean, InterceptStrategy, RoutePolicyFactory {
+
+    public static final String TRACE_ID = "SampledTraceId";
+
+    private static final Logger LOG = LoggerFactory.getLogger(SampledTracer.class);
+
+    private volatile double sampleRate = 0.01;
+    private int capacity = 8192;
+    private int dumpEvents = 256;
+
+    private TraceRecorder recorder;
+    private ExecutorService dumpExecutor;
+    private final AtomicBoolean dumpPending = new AtomicBoolean();
+    private volatile String lastDump;
+
+    private final AtomicLong traceIds = new AtomicLong();
+    private final AtomicLong rollbacks = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong dumps = new AtomicLong();
+
+    // the trace of the exchange running on the thread, and of the one which just finished, whose transaction a
+    // listener container commits after the exchange
+    private final ThreadLocal<ThreadTrace> threadTraces = new ThreadLocal<ThreadTrace>() {
+        @Override
+        protected ThreadTrace initialValue() {
+            return new ThreadTrace();
+        }
+    };
+
+    public synchronized void start() {
+        if (recorder != null) {
+            return;
+        }
+        recorder = new TraceRecorder(capacity);
+        dumpExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SampledTracer-dump");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        if (dumpExecutor != null) {
+            dumpExecutor.shutdownNow();
+            dumpExecutor = null;
+        }
+    }
+
+    public RoutePolicy createRoutePolicy(CamelContext camelContext, final String routeId, RouteDefinition route) {
+        return new RoutePolicySupport() {
+            @Override
+            public void onExchangeBegin(Route route, Exchange exchange) {
+                ThreadTrace threadTrace = threadTraces.get();
+                threadTrace.previous = 0;
+                Object traceId = exchange.getProperty(TRACE_ID);
+                if (traceId == null && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+                    traceId = traceIds.incrementAndGet();
+                    exchange.setProperty(TRACE_ID, traceId);
+                }
+                if (traceId != null) {
+                    threadTrace.current = (Long) traceId;
+                    recorder.record(threadTrace.current, TraceEvent.Type.EXCHANGE_BEGIN, routeId, null, exchange.getExchangeId(), 0);
+                } else {
+                    threadTrace.current = 0;
+                }
+            }
+
+            @Override
+            public void onExchangeDone(Route route, Exchange exchange) {
+                ThreadTrace threadTrace = threadTraces.get();
+                threadTrace.previous = threadTrace.current;
+                threadTrace.current = 0;
+
+                Object property = exchange.getProperty(TRACE_ID);
+                long traceId = property != null ? (Long) property : 0;
+                if (exchange.isFailed() || exchange.isRollbackOnly()) {
+                    failures.incrementAndGet();
+                    recorder.record(traceId, TraceEvent.Type.EXCHANGE_FAILED, routeId, failureOf(exchange), exchange.getExchangeId(), 0);
+                    requestDump("exchange " + exchange.getExchangeId() + " of route " + routeId + " failed");
+                } else if (exchange.getProperty(Exchange.EXCEPTION_CAUGHT) != null) {
+                    failures.incrementAndGet();
+                    recorder.record(traceId, TraceEvent.Type.DEAD_LETTER, routeId, failureOf(exchange), exchange.getExchangeId(), 0);
+                    requestDump("exchange " + exchange.getExchangeId() + " of route " + routeId + " was handled by the error handler");
+                } else if (traceId != 0) {
+                    recorder.record(traceId, TraceEvent.Type.EXCHANGE_DONE, routeId, null, exchange.getExchangeId(), 0);
+                }
+            }
+        };
+    }
+
+    public Processor wrapProcessorInInterceptors(CamelContext context, ProcessorDefinition<?> definition, Processor target, Processor nextTarget) throws Exception {
+        return new TracingProcessor(target, definition.getShortName() + "[" + definition.getLabel() + "]");
+    }
+
+    void transactionEvent(TraceEvent.Type type, String transactionManager, long durationNanos) {
+        ThreadTrace threadTrace = threadTraces.get();
+        long traceId = threadTrace.current;
+        // the commit or rollback of a listener container transaction, after the exchange was done
+        if (traceId == 0 && type != TraceEvent.Type.TX_BEGIN) {
+            traceId = threadTrace.previous;
+        }
+
+        if (type == TraceEvent.Type.TX_ROLLBACK) {
+            rollbacks.incrementAndGet();
+            recorder.record(traceId, type, null, transactionManager, null, durationNanos);
+            requestDump("transaction of " + transactionManager + " rolled back");
+        } else if (traceId != 0) {
+            recorder.record(traceId, type, null, transactionManager, null, durationNanos);
+        }
+    }
+
+    private static String failureOf(Exchange exchange) {
+        Throwable failure = exchange.getException();
+        if (failure == null) {
+            failure = exchange.getProperty(Exchange.EXCEPTION_CAUGHT, Throwable.class);
+        }
+        return failure != null ? failure.getClass().getSimpleName() + ": " + failure.getMessage() : "rollback only";
+    }
+
+    private void requestDump(final String reason) {
+        ExecutorService executor = dumpExecutor;
+        if (executor == null || !dumpPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    dumpPending.set(false);
+                    String dump = format(recorder.snapshot(-1, dumpEvents));
+                    lastDump = dump;
+                    dumps.incrementAndGet();
+                    LOG.warn("Trace dump, {}:\n{}", reason, dump);
+                }
+            });
+        } catch (RuntimeException e) {
+            // stopped
+            dumpPending.set(false);
+        }
+    }
+
+    private static String format(List<TraceEvent> events) {
+        StringBuilder dump = new StringBuilder();
+        for (TraceEvent event : events) {
+            dump.append(event).append('\n');
+        }
+        return dump.toString();
+    }
+
+    /**
+     * @return the last {@code dumpEvents} events
+     */
+    public String dump() {
+        return format(recorder.snapshot(-1, dumpEvents));
+    }
+
+    /**
+     * @return the events of one trace, which are still in the recorder
+     */
+    public String dumpTrace(long traceId) {
+        return format(recorder.snapshot(traceId, Integer.MAX_VALUE));
+    }
+
+    public List<TraceEvent> getEvents(long traceId) {
+        return recorder.snapshot(traceId, Integer.MAX_VALUE);
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @param sampleRate the share of the exchanges which are traced, 0.01 by default, 1 traces all
+     */
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param capacity the number of events the recorder keeps, rounded up to a power of two
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getDumpEvents() {
+        return dumpEvents;
+    }
+
+    public void setDumpEvents(int dumpEvents) {
+        this.dumpEvents = dumpEvents;
+    }
+
+    public long getSampledCount() {
+        return traceIds.get();
+    }
+
+    public long getRecordedCount() {
+        return recorder.getRecordedCount();
+    }
+
+    public long getRollbackCount() {
+        return rollbacks.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public long getDumpCount() {
+        return dumps.get();
+    }
+
+    public String getLastDump() {
+        return lastDump;
+    }
+
+    private final class TracingProcessor extends DelegateAsyncProcessor {
+
+        private final String step;
+
+        TracingProcessor(Processor processor, String step) {
+            super(processor);
+            this.step = step;
+        }
+
+        @Override
+        public boolean process(final Exchange exchange, final AsyncCallback callback) {
+            final Object traceId = exchange.getProperty(TRACE_ID);
+            if (traceId == null) {
+                return super.process(exchange, callback);
+            }
+
+            final long start = System.nanoTime();
+            return super.process(exchange, new AsyncCallback() {
+                public void done(boolean doneSync) {
+                    recorder.record((Long) traceId, TraceEvent.Type.STEP, exchange.getFromRouteId(), step,
+                        exchange.getExchangeId(), System.nanoTime() - start);
+                    callback.done(doneSync);
+                }
+            });
+        }
+    }
+
+    private static final class ThreadTrace {
+        private long current;
+        private long previous;
+    }
+}
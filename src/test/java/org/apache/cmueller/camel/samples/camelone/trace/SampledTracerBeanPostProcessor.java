@@ -0,0 +1,52 @@
+package org.apache.cmueller.camel.samples.camelone.trace;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.ResourceTransactionManager;
+
+/**
+ * Wraps the named {@link PlatformTransactionManager} beans into a {@link TracingTransactionManager}. Beans which are
+ * injected as their concrete class can't be wrapped.
+ */
+public class SampledTracerBeanPostProcessor implements BeanPostProcessor {
+
+    private SampledTracer tracer;
+    private List<String> transactionManagerNames = Collections.emptyList();
+
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        return bean;
+    }
+
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        if (!transactionManagerNames.contains(beanName) || bean instanceof TracingTransactionManager) {
+            return bean;
+        }
+        if (bean instanceof ResourceTransactionManager) {
+            return new TracingResourceTransactionManager((ResourceTransactionManager) bean, beanName, tracer);
+        }
+        if (bean instanceof PlatformTransactionManager) {
+            return new TracingTransactionManager((PlatformTransactionManager) bean, beanName, tracer);
+        }
+        return bean;
+    }
+
+    public SampledTracer getTracer() {
+        return tracer;
+    }
+
+    public void setTracer(SampledTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    public List<String> getTransactionManagerNames() {
+        return transactionManagerNames;
+    }
+
+    public void setTransactionManagerNames(List<String> transactionManagerNames) {
+        this.transactionManagerNames = transactionManagerNames;
+    }
+}
@@ -0,0 +1,24 @@
+package org.apache.cmueller.camel.samples.camelone.trace;
+
+public interface SampledTracerMBean {
+
+    double getSampleRate();
+
+    void setSampleRate(double sampleRate);
+
+    long getSampledCount();
+
+    long getRecordedCount();
+
+    long getRollbackCount();
+
+    long getFailureCount();
+
+    long getDumpCount();
+
+    String getLastDump();
+
+    String dump();
+
+    String dumpTrace(long traceId);
+}
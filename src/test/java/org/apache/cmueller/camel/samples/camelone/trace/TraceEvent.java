@@ -0,0 +1,82 @@
+package org.apache.cmueller.camel.samples.camelone.trace;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A copy of one event of the {@link TraceRecorder}, taken for a dump.
+ */
+public class TraceEvent {
+
+    public enum Type {
+        EXCHANGE_BEGIN, STEP, TX_BEGIN, TX_COMMIT, TX_ROLLBACK, EXCHANGE_DONE, EXCHANGE_FAILED, DEAD_LETTER
+    }
+
+    private final long sequence;
+    private final long timestamp;
+    private final long traceId;
+    private final Type type;
+    private final String routeId;
+    private final String name;
+    private final String exchangeId;
+    private final long durationNanos;
+
+    TraceEvent(long sequence, long timestamp, long traceId, Type type, String routeId, String name, String exchangeId, long durationNanos) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.traceId = traceId;
+        this.type = type;
+        this.routeId = routeId;
+        this.name = name;
+        this.exchangeId = exchangeId;
+        this.durationNanos = durationNanos;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the wall clock time of the event, in milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the id of the sampled exchange, 0 for a rollback or failure of an exchange which was not sampled
+     */
+    public long getTraceId() {
+        return traceId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getRouteId() {
+        return routeId;
+    }
+
+    /**
+     * @return the step, e.g. {@code to[sql:UPDATE ...]}, or the transaction manager of a transaction event
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getExchangeId() {
+        return exchangeId;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s trace=%d exchange=%s route=%s %s %s %.1fus",
+            new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(timestamp)), traceId, exchangeId, routeId, type,
+            name != null ? name : "", durationNanos / 1000d);
+    }
+}
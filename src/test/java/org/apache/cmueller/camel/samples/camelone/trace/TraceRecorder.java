@@ -0,0 +1,97 @@
+package org.apache.cmueller.camel.samples.camelone.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Flight recorder of the last {@code capacity} trace events. The slots are allocated once and overwritten in a ring:
+ * a writer claims the next sequence with one atomic increment and fills the slot without any lock or allocation, the
+ * references it stores are to strings which exist anyway.
+ * <p>
+ * A reader copies the slots with a sequence lock: the writer invalidates the sequence of the slot before it writes
+ * and publishes it after, the reader skips a slot whose sequence changed while it was copied. All fields of a slot are
+ * volatile, so the memory model orders the writes of the fields between the two writes of the sequence, and the reads
+ * of the fields between the two reads of the sequence: a reader which sees the same sequence twice read the fields of
+ * that event, not of a later one. Plain fields would let both be reordered. The cost is a few fenced stores per event,
+ * only paid by the sampled exchanges.
+ */
+public class TraceRecorder {
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+
+    public TraceRecorder(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Slot[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    public void record(long traceId, TraceEvent.Type type, String routeId, String name, String exchangeId, long durationNanos) {
+        long sequence = cursor.getAndIncrement();
+        Slot slot = slots[(int) sequence & mask];
+        slot.sequence = -1;
+        slot.timestamp = System.currentTimeMillis();
+        slot.traceId = traceId;
+        slot.type = type;
+        slot.routeId = routeId;
+        slot.name = name;
+        slot.exchangeId = exchangeId;
+        slot.durationNanos = durationNanos;
+        slot.sequence = sequence;
+    }
+
+    /**
+     * @param traceId the trace to copy, or -1 for all
+     * @param max the maximum number of events, the latest ones
+     * @return the events in the order they were recorded
+     */
+    public List<TraceEvent> snapshot(long traceId, int max) {
+        long end = cursor.get();
+        long start = Math.max(0, end - slots.length);
+        List<TraceEvent> events = new ArrayList<TraceEvent>();
+        for (long sequence = end - 1; sequence >= start && events.size() < max; sequence--) {
+            Slot slot = slots[(int) sequence & mask];
+            if (slot.sequence != sequence) {
+                continue;
+            }
+            TraceEvent event = new TraceEvent(sequence, slot.timestamp, slot.traceId, slot.type, slot.routeId,
+                slot.name, slot.exchangeId, slot.durationNanos);
+            if (slot.sequence == sequence && (traceId == -1 || event.getTraceId() == traceId)) {
+                events.add(event);
+            }
+        }
+
+        List<TraceEvent> ordered = new ArrayList<TraceEvent>(events.size());
+        for (int i = events.size() - 1; i >= 0; i--) {
+            ordered.add(events.get(i));
+        }
+        return ordered;
+    }
+
+    /**
+     * @return the number of events recorded so far, including the overwritten ones
+     */
+    public long getRecordedCount() {
+        return cursor.get();
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    private static final class Slot {
+        private volatile long sequence = -1;
+        private volatile long timestamp;
+        private volatile long traceId;
+        private volatile TraceEvent.Type type;
+        private volatile String routeId;
+        private volatile String name;
+        private volatile String exchangeId;
+        private volatile long durationNanos;
+    }
+}
@@ -0,0 +1,18 @@
+package org.apache.cmueller.camel.samples.camelone.trace;
+
+import org.springframework.transaction.support.ResourceTransactionManager;
+
+/**
+ * {@link TracingTransactionManager} for resource transaction managers, like the {@code JmsTransactionManager}, so that
+ * the listener containers still detect that the transaction manager drives their own connection factory.
+ */
+public class TracingResourceTransactionManager extends TracingTransactionManager implements ResourceTransactionManager {
+
+    public TracingResourceTransactionManager(ResourceTransactionManager delegate, String name, SampledTracer tracer) {
+        super(delegate, name, tracer);
+    }
+
+    public Object getResourceFactory() {
+        return ((ResourceTransactionManager) getDelegate()).getResourceFactory();
+    }
+}
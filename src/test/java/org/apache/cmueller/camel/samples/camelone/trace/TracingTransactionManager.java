@@ -0,0 +1,56 @@
+package org.apache.cmueller.camel.samples.camelone.trace;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+
+/**
+ * Reports the begin, commit and rollback of the wrapped transaction manager, with their durations, to the
+ * {@link SampledTracer}.
+ */
+public class TracingTransactionManager implements PlatformTransactionManager {
+
+    private final PlatformTransactionManager delegate;
+    private final String name;
+    private final SampledTracer tracer;
+
+    public TracingTransactionManager(PlatformTransactionManager delegate, String name, SampledTracer tracer) {
+        this.delegate = delegate;
+        this.name = name;
+        this.tracer = tracer;
+    }
+
+    public PlatformTransactionManager getDelegate() {
+        return delegate;
+    }
+
+    public TransactionStatus getTransaction(TransactionDefinition definition) throws TransactionException {
+        long start = System.nanoTime();
+        try {
+            return delegate.getTransaction(definition);
+        } finally {
+            tracer.transactionEvent(TraceEvent.Type.TX_BEGIN, name, System.nanoTime() - start);
+        }
+    }
+
+    public void commit(TransactionStatus status) throws TransactionException {
+        long start = System.nanoTime();
+        // a commit of a transaction marked rollback-only rolls it back
+        boolean rollbackOnly = status.isRollbackOnly();
+        try {
+            delegate.commit(status);
+        } finally {
+            tracer.transactionEvent(rollbackOnly ? TraceEvent.Type.TX_ROLLBACK : TraceEvent.Type.TX_COMMIT, name, System.nanoTime() - start);
+        }
+    }
+
+    public void rollback(TransactionStatus status) throws TransactionException {
+        long start = System.nanoTime();
+        try {
+            delegate.rollback(status);
+        } finally {
+            tracer.transactionEvent(TraceEvent.Type.TX_ROLLBACK, name, System.nanoTime() - start);
+        }
+    }
+}
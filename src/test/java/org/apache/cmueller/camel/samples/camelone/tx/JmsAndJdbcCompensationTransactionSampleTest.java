@@ -1,6 +1,7 @@
 package org.apache.cmueller.camel.samples.camelone.tx;
 
 import java.sql.SQLException;
+import java.util.List;
 
 import org.apache.activemq.broker.BrokerService;
 import org.apache.camel.Exchange;
@@ -8,6 +9,8 @@ import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.test.spring.CamelSpringTestSupport;
 import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
 import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.trace.SampledTracer;
+import org.apache.cmueller.camel.samples.camelone.trace.TraceEvent;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -21,6 +24,7 @@ public class JmsAndJdbcCompensationTransactionSampleTest extends CamelSpringTest
     private BrokerService broker;
     private JdbcTemplate jdbc;
     private TransactionTemplate transactionTemplate;
+    private SampledTracer tracer;
 
     @Before
     @Override
@@ -67,6 +71,8 @@ public class JmsAndJdbcCompensationTransactionSampleTest extends CamelSpringTest
 
         Exchange exchange = consumer.receive("activemq:queue:ActiveMQ.DLQ", 5000);
         assertNotNull(exchange);
+        // recorded and dumped, also if the exchange was not sampled
+        assertTrue(tracer.getRollbackCount() > 0);
 
         assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
         assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
@@ -81,18 +87,50 @@ public class JmsAndJdbcCompensationTransactionSampleTest extends CamelSpringTest
 
         Exchange exchange = consumer.receive("activemq:queue:ActiveMQ.DLQ", 5000);
         assertNotNull(exchange);
+        assertTrue(tracer.getRollbackCount() > 0);
 
         assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
         assertEquals(1000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
     }
 
+    @Test
+    public void sampledTransferShouldBeTraced() {
+        tracer.setSampleRate(1);
+
+        template.sendBody("activemq:queue:transaction.incoming.one", 100L);
+
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.one", 5000);
+        assertNotNull(exchange);
+
+        assertEquals(1, tracer.getSampledCount());
+        List<TraceEvent> events = tracer.getEvents(1);
+        assertEquals(TraceEvent.Type.EXCHANGE_BEGIN, events.get(0).getType());
+        assertTrue(contains(events, TraceEvent.Type.STEP, "to[sql:UPDATE account"));
+        assertTrue(contains(events, TraceEvent.Type.TX_BEGIN, "dataSourceTransactionManager"));
+        assertTrue(contains(events, TraceEvent.Type.TX_COMMIT, "dataSourceTransactionManager"));
+        assertTrue(contains(events, TraceEvent.Type.EXCHANGE_DONE, null));
+        assertEquals(0, tracer.getRollbackCount());
+    }
+
+    private static boolean contains(List<TraceEvent> events, TraceEvent.Type type, String namePrefix) {
+        for (TraceEvent event : events) {
+            if (event.getType() == type && (namePrefix == null || event.getName().startsWith(namePrefix))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     protected RouteBuilder createRouteBuilder() throws Exception {
+        // samples 1% of the exchanges, instead of logging each step of each exchange with context.setTracing(true)
+        tracer = context.getRegistry().lookupByNameAndType("sampledTracer", SampledTracer.class);
+        context.addInterceptStrategy(tracer);
+        context.addRoutePolicyFactory(tracer);
+
         return new RouteBuilder() {
             @Override
             public void configure() throws Exception {
-                context.setTracing(true);
-
                 from("activemqTx:queue:transaction.incoming.one")
                     .transacted("PROPAGATION_REQUIRED_JDBC")
                     .to("sql:UPDATE account SET balance = (SELECT balance from account where name = 'foo') - # WHERE name = 'foo'?dataSource=dataSource")
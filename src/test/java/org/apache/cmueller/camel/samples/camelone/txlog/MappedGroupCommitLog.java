@@ -0,0 +1,425 @@
+package org.apache.cmueller.camel.samples.camelone.txlog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+import javax.transaction.xa.Xid;
+
+import org.apache.geronimo.transaction.manager.LogException;
+import org.apache.geronimo.transaction.manager.Recovery;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.TransactionLog;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transaction log for the Geronimo/Aries transaction manager on a memory-mapped file, as an alternative to the
+ * {@code HOWLLog}.
+ * <p>
+ * Only the prepare record, which is the commit decision, has to be durable before the transaction manager goes on.
+ * Concurrent prepares share one {@code force()}: the first thread forces everything appended so far, the threads
+ * arriving meanwhile are covered by the next force. A {@code groupCommitWindowMicros} lets the forcing thread wait a bit
+ * for more records. Commit and rollback records are written without forcing.
+ * <p>
+ * Every record is {@code [length][crc32][type][payload]}. Recovery stops at the first record with a wrong length or
+ * checksum, which is where a write was interrupted. When the file is full, the records of the in-doubt transactions are
+ * copied into a new file, which replaces the old one.
+ */
+public class MappedGroupCommitLog implements TransactionLog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedGroupCommitLog.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final byte PREPARE = 1;
+    static final byte COMMIT = 2;
+    static final byte ROLLBACK = 3;
+    private static final int HEADER = 9;
+
+    private File directory = new File("target");
+    private String fileName = "mapped_tx";
+    private int capacity = 16 * 1024 * 1024;
+    private long groupCommitWindowMicros;
+
+    private final Object appendLock = new Object();
+    private final Object forceLock = new Object();
+    private final Map<XidKey, byte[]> pending = new LinkedHashMap<XidKey, byte[]>();
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    private int position;
+    private long appended;
+    private volatile long forced;
+
+    private final AtomicLong forces = new AtomicLong();
+    private final AtomicLong forceNanos = new AtomicLong();
+    private final AtomicLong forcedBytes = new AtomicLong();
+
+    public void doStart() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        synchronized (appendLock) {
+            map(getLogFile());
+            position = replay();
+            // wipe the rest of an interrupted write, so it can't be mistaken for a record later
+            for (int i = position; i < capacity; i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+        }
+    }
+
+    public void doStop() throws IOException {
+        synchronized (appendLock) {
+            if (buffer != null) {
+                buffer.force();
+            }
+            if (file != null) {
+                file.close();
+            }
+        }
+    }
+
+    public void begin(Xid xid) throws LogException {
+    }
+
+    public Object prepare(Xid xid, List<? extends TransactionBranchInfo> branches) throws LogException {
+        XidKey key = new XidKey(xid);
+        ByteBuffer payload = ByteBuffer.allocate(estimateSize(xid, branches));
+        writeXid(payload, xid);
+        payload.putInt(branches.size());
+        for (TransactionBranchInfo branch : branches) {
+            byte[] resourceName = branch.getResourceName().getBytes(UTF_8);
+            payload.putShort((short) resourceName.length);
+            payload.put(resourceName);
+            writeXid(payload, branch.getBranchXid());
+        }
+
+        long end = append(PREPARE, key, Arrays.copyOf(payload.array(), payload.position()));
+        force(end);
+        return key;
+    }
+
+    public void commit(Xid xid, Object logMark) throws LogException {
+        append(COMMIT, (XidKey) logMark, ((XidKey) logMark).bytes);
+    }
+
+    public void rollback(Xid xid, Object logMark) throws LogException {
+        append(ROLLBACK, (XidKey) logMark, ((XidKey) logMark).bytes);
+    }
+
+    public Collection<Recovery.XidBranchesPair> recover(XidFactory xidFactory) throws LogException {
+        List<Recovery.XidBranchesPair> recovered = new ArrayList<Recovery.XidBranchesPair>();
+        synchronized (appendLock) {
+            for (Map.Entry<XidKey, byte[]> entry : pending.entrySet()) {
+                ByteBuffer record = ByteBuffer.wrap(entry.getValue(), HEADER, entry.getValue().length - HEADER);
+                Recovery.XidBranchesPair pair = new Recovery.XidBranchesPair(readXid(record, xidFactory), entry.getKey());
+                int branchCount = record.getInt();
+                for (int i = 0; i < branchCount; i++) {
+                    byte[] resourceName = new byte[record.getShort()];
+                    record.get(resourceName);
+                    pair.addBranch(new TransactionBranchInfoImpl(readXid(record, xidFactory), new String(resourceName, UTF_8)));
+                }
+                recovered.add(pair);
+            }
+        }
+        return recovered;
+    }
+
+    public String getXMLStats() {
+        return "<Log><Forces>" + forces.get() + "</Forces><AverageForceTime>" + getAverageForceTime()
+            + "</AverageForceTime><AverageBytesPerForce>" + getAverageBytesPerForce() + "</AverageBytesPerForce></Log>";
+    }
+
+    public int getAverageForceTime() {
+        long count = forces.get();
+        return count == 0 ? 0 : (int) (forceNanos.get() / count / 1000000);
+    }
+
+    public int getAverageBytesPerForce() {
+        long count = forces.get();
+        return count == 0 ? 0 : (int) (forcedBytes.get() / count);
+    }
+
+    public long getForceCount() {
+        return forces.get();
+    }
+
+    int getPosition() {
+        synchronized (appendLock) {
+            return position;
+        }
+    }
+
+    /**
+     * @return the logical end of the log after the record, which is what has to be forced
+     */
+    private long append(byte type, XidKey key, byte[] payload) throws LogException {
+        int length = HEADER + payload.length;
+        byte[] record = new byte[length];
+        ByteBuffer.wrap(record).putInt(length).putInt(checksum(type, payload)).put(type).put(payload);
+
+        synchronized (appendLock) {
+            if (position + length > capacity) {
+                rollover(length);
+            }
+            for (int i = 0; i < length; i++) {
+                buffer.put(position + i, record[i]);
+            }
+            position += length;
+            appended += length;
+
+            if (type == PREPARE) {
+                pending.put(key, record);
+            } else {
+                pending.remove(key);
+            }
+            return appended;
+        }
+    }
+
+    private void force(long end) throws LogException {
+        if (forced >= end) {
+            return;
+        }
+        synchronized (forceLock) {
+            // a force of another thread may have covered this record meanwhile
+            if (forced >= end) {
+                return;
+            }
+            if (groupCommitWindowMicros > 0) {
+                LockSupport.parkNanos(groupCommitWindowMicros * 1000);
+            }
+
+            MappedByteBuffer toForce;
+            long target;
+            synchronized (appendLock) {
+                toForce = buffer;
+                target = appended;
+            }
+
+            long start = System.nanoTime();
+            force(toForce);
+            forceNanos.addAndGet(System.nanoTime() - start);
+            forcedBytes.addAndGet(target - forced);
+            forces.incrementAndGet();
+            forced = target;
+        }
+    }
+
+    /**
+     * Forces the records up to the target of a group commit, overridden by the tests to hold a force.
+     */
+    void force(MappedByteBuffer buffer) {
+        buffer.force();
+    }
+
+    /**
+     * Copies the records of the in-doubt transactions into a new file and replaces the current one with it.
+     */
+    private void rollover(int required) throws LogException {
+        try {
+            File logFile = getLogFile();
+            File newFile = new File(directory, fileName + ".new");
+            RandomAccessFile oldFile = file;
+
+            map(newFile);
+            position = 0;
+            for (byte[] record : pending.values()) {
+                for (int i = 0; i < record.length; i++) {
+                    buffer.put(position + i, record[i]);
+                }
+                position += record.length;
+            }
+            buffer.force();
+            oldFile.close();
+            Files.move(newFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forced = appended;
+
+            if (position + required > capacity) {
+                throw new LogException("Transaction log " + logFile + " is full with " + pending.size() + " in-doubt transactions");
+            }
+        } catch (IOException e) {
+            throw new LogException("Could not roll over the transaction log", e);
+        }
+    }
+
+    private void map(File logFile) throws IOException {
+        file = new RandomAccessFile(logFile, "rw");
+        if (file.length() != capacity) {
+            file.setLength(capacity);
+        }
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * Rebuilds the in-doubt transactions from the log.
+     *
+     * @return the end of the last complete record
+     */
+    private int replay() {
+        int offset = 0;
+        while (offset + HEADER <= capacity) {
+            int length = buffer.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+            if (length < HEADER || offset + length > capacity) {
+                LOG.warn("Ignoring the truncated transaction log record at " + offset);
+                break;
+            }
+
+            byte[] record = new byte[length];
+            for (int i = 0; i < length; i++) {
+                record[i] = buffer.get(offset + i);
+            }
+            ByteBuffer header = ByteBuffer.wrap(record);
+            header.getInt();
+            int crc = header.getInt();
+            byte type = header.get();
+            byte[] payload = Arrays.copyOfRange(record, HEADER, length);
+            if (crc != checksum(type, payload)) {
+                LOG.warn("Ignoring the truncated transaction log record at " + offset);
+                break;
+            }
+
+            XidKey key = type == PREPARE ? new XidKey(xidBytes(payload)) : new XidKey(payload);
+            if (type == PREPARE) {
+                pending.put(key, record);
+            } else {
+                pending.remove(key);
+            }
+            offset += length;
+        }
+        return offset;
+    }
+
+    private File getLogFile() {
+        return new File(directory, fileName + ".log");
+    }
+
+    private static int checksum(byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static int estimateSize(Xid xid, List<? extends TransactionBranchInfo> branches) {
+        int size = xidSize(xid) + 4;
+        for (TransactionBranchInfo branch : branches) {
+            size += 2 + branch.getResourceName().length() * 3 + xidSize(branch.getBranchXid());
+        }
+        return size;
+    }
+
+    private static int xidSize(Xid xid) {
+        return 6 + xid.getGlobalTransactionId().length + xid.getBranchQualifier().length;
+    }
+
+    private static void writeXid(ByteBuffer buffer, Xid xid) {
+        buffer.putInt(xid.getFormatId());
+        buffer.put((byte) xid.getGlobalTransactionId().length);
+        buffer.put(xid.getGlobalTransactionId());
+        buffer.put((byte) xid.getBranchQualifier().length);
+        buffer.put(xid.getBranchQualifier());
+    }
+
+    private static Xid readXid(ByteBuffer buffer, XidFactory xidFactory) {
+        int formatId = buffer.getInt();
+        byte[] globalTransactionId = new byte[buffer.get()];
+        buffer.get(globalTransactionId);
+        byte[] branchQualifier = new byte[buffer.get()];
+        buffer.get(branchQualifier);
+        return xidFactory.recover(formatId, globalTransactionId, branchQualifier);
+    }
+
+    /**
+     * @return the serialized xid at the start of a prepare payload
+     */
+    private static byte[] xidBytes(byte[] payload) {
+        int globalLength = payload[4];
+        int branchLength = payload[5 + globalLength];
+        return Arrays.copyOf(payload, 6 + globalLength + branchLength);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public long getGroupCommitWindowMicros() {
+        return groupCommitWindowMicros;
+    }
+
+    public void setGroupCommitWindowMicros(long groupCommitWindowMicros) {
+        this.groupCommitWindowMicros = groupCommitWindowMicros;
+    }
+
+    /**
+     * The serialized xid, which identifies a transaction in the log and is used as log mark.
+     */
+    static final class XidKey {
+
+        private final byte[] bytes;
+        private final int hashCode;
+
+        XidKey(Xid xid) {
+            ByteBuffer buffer = ByteBuffer.allocate(xidSize(xid));
+            writeXid(buffer, xid);
+            this.bytes = buffer.array();
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        XidKey(byte[] bytes) {
+            this.bytes = bytes;
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof XidKey && Arrays.equals(bytes, ((XidKey) other).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.apache.cmueller.camel.samples.camelone.txlog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.transaction.xa.Xid;
+
+import org.apache.geronimo.transaction.manager.Recovery;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.apache.geronimo.transaction.manager.XidFactoryImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedGroupCommitLogTest {
+
+    private final XidFactory xidFactory = new XidFactoryImpl();
+    private File directory;
+    private MappedGroupCommitLog log;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File("target/txlog-test");
+        new File(directory, "test_tx.log").delete();
+        log = createAndStartLog();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        log.doStop();
+    }
+
+    @Test
+    public void inDoubtTransactionsShouldBeRecoveredAfterTruncatedWrite() throws Exception {
+        Xid one = xidFactory.createXid();
+        Xid two = xidFactory.createXid();
+        Xid three = xidFactory.createXid();
+        Xid four = xidFactory.createXid();
+
+        log.prepare(one, branches(one));
+        Object mark = log.prepare(two, branches(two));
+        log.prepare(three, branches(three));
+        log.commit(two, mark);
+
+        int beforeFour = log.getPosition();
+        log.prepare(four, branches(four));
+        int afterFour = log.getPosition();
+        log.doStop();
+
+        // simulate a crash in the middle of writing the prepare record of the fourth transaction
+        RandomAccessFile file = new RandomAccessFile(new File(directory, "test_tx.log"), "rw");
+        try {
+            file.setLength(beforeFour + (afterFour - beforeFour) / 2);
+        } finally {
+            file.close();
+        }
+
+        log = createAndStartLog();
+        Collection<Recovery.XidBranchesPair> recovered = log.recover(xidFactory);
+        assertEquals(globalIds(one, three), recoveredIds(recovered));
+        for (Recovery.XidBranchesPair pair : recovered) {
+            assertEquals(2, pair.getBranches().size());
+        }
+
+        // the log must go on behind the last complete record
+        Xid five = xidFactory.createXid();
+        log.prepare(five, branches(five));
+        log.doStop();
+
+        log = createAndStartLog();
+        assertEquals(globalIds(one, three, five), recoveredIds(log.recover(xidFactory)));
+    }
+
+    @Test
+    public void concurrentPreparesShouldShareForces() throws Exception {
+        final CountDownLatch forcing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        log.doStop();
+        log = new MappedGroupCommitLog() {
+            @Override
+            void force(MappedByteBuffer buffer) {
+                // holds the first force, until the other prepares are appended and wait for the next one
+                if (forcing.getCount() > 0) {
+                    forcing.countDown();
+                    awaitUninterruptibly(release);
+                }
+                super.force(buffer);
+            }
+        };
+        configure(log);
+        log.doStart();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        int start = log.getPosition();
+        futures.add(executor.submit(prepareAndCommit()));
+        forcing.await();
+        int recordSize = log.getPosition() - start;
+        for (int i = 1; i < 8; i++) {
+            futures.add(executor.submit(prepareAndCommit()));
+        }
+        while (log.getPosition() < start + 8 * recordSize) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // the held force covers the first prepare, the next one the seven appended meanwhile
+        assertEquals(2, log.getForceCount());
+        assertTrue(log.recover(xidFactory).isEmpty());
+    }
+
+    @Test
+    public void inDoubtTransactionsShouldSurviveRollover() throws Exception {
+        Xid inDoubt = xidFactory.createXid();
+        log.prepare(inDoubt, branches(inDoubt));
+
+        // fills the 64 KB log a few times over
+        for (int i = 0; i < 2000; i++) {
+            Xid xid = xidFactory.createXid();
+            log.rollback(xid, log.prepare(xid, branches(xid)));
+        }
+        log.doStop();
+
+        log = createAndStartLog();
+        assertEquals(globalIds(inDoubt), recoveredIds(log.recover(xidFactory)));
+    }
+
+    private MappedGroupCommitLog createAndStartLog() throws Exception {
+        MappedGroupCommitLog log = new MappedGroupCommitLog();
+        configure(log);
+        log.doStart();
+        return log;
+    }
+
+    private void configure(MappedGroupCommitLog log) {
+        log.setDirectory(directory);
+        log.setFileName("test_tx");
+        log.setCapacity(64 * 1024);
+    }
+
+    private Callable<Void> prepareAndCommit() {
+        return new Callable<Void>() {
+            public Void call() throws Exception {
+                Xid xid = xidFactory.createXid();
+                log.commit(xid, log.prepare(xid, branches(xid)));
+                return null;
+            }
+        };
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<TransactionBranchInfo> branches(Xid xid) {
+        return Arrays.<TransactionBranchInfo>asList(
+            new TransactionBranchInfoImpl(xidFactory.createBranch(xid, 1), "activemq.default"),
+            new TransactionBranchInfoImpl(xidFactory.createBranch(xid, 2), "derby"));
+    }
+
+    private static Set<String> globalIds(Xid... xids) {
+        Set<String> ids = new HashSet<String>();
+        for (Xid xid : xids) {
+            ids.add(Arrays.toString(xid.getGlobalTransactionId()));
+        }
+        return ids;
+    }
+
+    private static Set<String> recoveredIds(Collection<Recovery.XidBranchesPair> recovered) {
+        Set<String> ids = new HashSet<String>();
+        for (Recovery.XidBranchesPair pair : recovered) {
+            ids.add(Arrays.toString(pair.getXid().getGlobalTransactionId()));
+        }
+        return ids;
+    }
+}
@@ -1,8 +1,11 @@
 package org.apache.cmueller.camel.samples.camelone.xa;
 
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.concurrent.CountDownLatch;
 
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.RedeliveryPolicy;
 import org.apache.activemq.broker.BrokerService;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
@@ -10,7 +13,10 @@ import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.test.spring.CamelSpringTestSupport;
 import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
 import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.load.LoadReport;
+import org.apache.cmueller.camel.samples.camelone.load.TransferLoadGenerator;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -18,16 +24,19 @@ import org.springframework.transaction.support.TransactionTemplate;
 
 public abstract class BaseJmsAndJdbcXATransactionSampleTest extends CamelSpringTestSupport {
 
+    private static final String LOAD_TEST = "loadTest";
+
     private BrokerService broker;
     private JdbcTemplate jdbc;
     private TransactionTemplate transactionTemplate;
 
     private CountDownLatch latch;
+    private TransferLoadGenerator loadGenerator;
 
     @Before
     @Override
     public void setUp() throws Exception {
-        broker = ActiveMQUtil.createAndStartBroker();
+        broker = createAndStartBroker();
 
         super.setUp();
 
@@ -39,11 +48,21 @@ public abstract class BaseJmsAndJdbcXATransactionSampleTest extends CamelSpringT
     @After
     @Override
     public void tearDown() throws Exception {
-        DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
+        // after a failed setUp, the broker still has to release its port for the next test
+        try {
+            if (loadGenerator != null) {
+                loadGenerator.restoreDatabaseProperties(transactionTemplate, jdbc);
+            }
+            DatabaseUtil.dropDatabase(transactionTemplate, jdbc);
 
-        super.tearDown();
+            super.tearDown();
+        } finally {
+            ActiveMQUtil.stopBroker(broker);
+        }
+    }
 
-        ActiveMQUtil.stopBroker(broker);
+    protected BrokerService createAndStartBroker() throws Exception {
+        return ActiveMQUtil.createAndStartBroker();
     }
 
     @Test
@@ -114,8 +133,45 @@ public abstract class BaseJmsAndJdbcXATransactionSampleTest extends CamelSpringT
         assertEquals(2000, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
     }
 
+    /**
+     * Runs the transfers of the {@link TransferLoadGenerator} through the route with the concurrent consumers and checks
+     * that all of them were atomic. The load test takes a while, so only the samples of the transaction managers run it
+     * as their {@code multiAccountLoadTest}, and only with {@code -DloadTest=true}.
+     */
+    protected LoadReport runTransferLoad() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean(LOAD_TEST));
+
+        loadGenerator.setTemplate(template);
+        loadGenerator.setEndpointUri("activemq:queue:transaction.incoming.five");
+        loadGenerator.setMaximumRedeliveries(getMaximumRedeliveries());
+        loadGenerator.seedAccounts(transactionTemplate, jdbc);
+
+        LoadReport report = loadGenerator.run(transactionTemplate, jdbc);
+
+        System.out.println(getClass().getSimpleName() + ": " + report);
+
+        // transfers may be aborted, e.g. as deadlock victims, but all of them atomically
+        assertEquals(0, report.getUnresolved());
+        assertTrue(report.isMoneyConserved());
+        assertEquals(Collections.<String>emptyList(), report.getDivergentAccounts());
+        return report;
+    }
+
+    /**
+     * @return the redeliveries of the consumers of the transfer route, from the redelivery policy of the
+     *         {@code jmsXaConnectionFactory} of the context, or the default policy of ActiveMQ if the context has none,
+     *         like the pooled connection factory of Bitronix
+     */
+    protected int getMaximumRedeliveries() {
+        ActiveMQConnectionFactory connectionFactory = context.getRegistry().lookupByNameAndType("jmsXaConnectionFactory", ActiveMQConnectionFactory.class);
+        RedeliveryPolicy redeliveryPolicy = connectionFactory != null ? connectionFactory.getRedeliveryPolicy() : new RedeliveryPolicy();
+        return redeliveryPolicy.getMaximumRedeliveries();
+    }
+
     @Override
     protected RouteBuilder createRouteBuilder() throws Exception {
+        loadGenerator = new TransferLoadGenerator();
+
         return new RouteBuilder() {
             public void configure() throws Exception {
                 from("activemqXa:queue:transaction.incoming.one")
@@ -148,6 +204,16 @@ public abstract class BaseJmsAndJdbcXATransactionSampleTest extends CamelSpringT
                             latch.countDown();
                         }
                     });
+
+                from("activemqXa:queue:transaction.incoming.five?concurrentConsumers=4")
+                    .routePolicy(loadGenerator.getRoutePolicy())
+                    .transacted("PROPAGATION_REQUIRED")
+                    .to("sql:UPDATE account SET balance = balance - :#${body} WHERE name = :#" + TransferLoadGenerator.DEBIT_ACCOUNT + "?dataSource=dataSource")
+                    .to("sql:UPDATE account SET balance = balance + :#${body} WHERE name = :#" + TransferLoadGenerator.CREDIT_ACCOUNT + "?dataSource=dataSource")
+                    .to("activemqXa:queue:transaction.outgoing.five");
+
+                from("activemq:queue:transaction.outgoing.five")
+                    .process(loadGenerator.getCommitProcessor());
             }
         };
     }
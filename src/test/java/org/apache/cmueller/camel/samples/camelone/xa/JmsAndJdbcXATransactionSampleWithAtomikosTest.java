@@ -1,10 +1,16 @@
 package org.apache.cmueller.camel.samples.camelone.xa;
 
+import org.junit.Test;
 import org.springframework.context.support.AbstractApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
 public class JmsAndJdbcXATransactionSampleWithAtomikosTest extends BaseJmsAndJdbcXATransactionSampleTest {
 
+    @Test
+    public void multiAccountLoadTest() throws Exception {
+        runTransferLoad();
+    }
+
     @Override
     protected AbstractApplicationContext createApplicationContext() {
         return new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcXATransactionSampleWithAtomikosTest-context.xml");
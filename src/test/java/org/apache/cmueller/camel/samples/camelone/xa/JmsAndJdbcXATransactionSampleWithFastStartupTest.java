@@ -0,0 +1,35 @@
+package org.apache.cmueller.camel.samples.camelone.xa;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cmueller.camel.samples.camelone.startup.BackgroundStartup;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * The Atomikos context with the {@code fastStartup} profile, where the transaction manager, the XA resources and
+ * their recovery are initialized in the background.
+ */
+public class JmsAndJdbcXATransactionSampleWithFastStartupTest extends BaseJmsAndJdbcXATransactionSampleTest {
+
+    @Test
+    public void resourcesShouldBeInitializedInTheBackground() throws Exception {
+        BackgroundStartup startup = applicationContext.getBean("backgroundStartup", BackgroundStartup.class);
+
+        assertTrue(startup.awaitCompletion(30, TimeUnit.SECONDS));
+        assertTrue(startup.getDurations().containsKey("transactionManager"));
+        assertTrue(startup.getDurations().containsKey("resourceManager"));
+        assertTrue(startup.getDurations().containsKey("pooledJmsXaConnectionFactory"));
+        assertTrue(startup.getDurations().containsKey("dataSource"));
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        ClassPathXmlApplicationContext applicationContext = new ClassPathXmlApplicationContext(
+            new String[] {"META-INF/spring/JmsAndJdbcXATransactionSampleWithAtomikosTest-context.xml"}, false);
+        applicationContext.getEnvironment().setActiveProfiles("fastStartup");
+        applicationContext.refresh();
+        return applicationContext;
+    }
+}
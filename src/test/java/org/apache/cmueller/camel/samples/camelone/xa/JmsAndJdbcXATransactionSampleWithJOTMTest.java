@@ -2,6 +2,7 @@ package org.apache.cmueller.camel.samples.camelone.xa;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
+import org.junit.Test;
 import org.springframework.context.support.AbstractApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
@@ -17,6 +18,11 @@ public class JmsAndJdbcXATransactionSampleWithJOTMTest extends BaseJmsAndJdbcXAT
         System.clearProperty("jotm.home");
     }
 
+    @Test
+    public void multiAccountLoadTest() throws Exception {
+        runTransferLoad();
+    }
+
     @Override
     protected AbstractApplicationContext createApplicationContext() {
         return new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcXATransactionSampleWithJOTMTest-context.xml");
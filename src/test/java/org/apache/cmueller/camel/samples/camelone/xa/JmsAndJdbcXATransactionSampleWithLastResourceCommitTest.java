@@ -0,0 +1,317 @@
+package org.apache.cmueller.camel.samples.camelone.xa;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.MessageProducer;
+import javax.jms.XAConnection;
+import javax.jms.XASession;
+import javax.sql.DataSource;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.apache.activemq.ActiveMQXAConnectionFactory;
+import org.apache.camel.Exchange;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.geronimo.transaction.log.HOWLLog;
+import org.apache.geronimo.transaction.manager.LogException;
+import org.apache.geronimo.transaction.manager.Recovery;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionLog;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.junit.Test;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class JmsAndJdbcXATransactionSampleWithLastResourceCommitTest extends BaseJmsAndJdbcXATransactionSampleTest {
+
+    private static final String CONTEXT = "META-INF/spring/JmsAndJdbcXATransactionSampleWithLastResourceCommitTest-context.xml";
+
+    private CrashingTransactionLog transactionLog;
+
+    @Test
+    public void logRecordShouldBeDeletedAfterCommit() throws Exception {
+        template.sendBody("activemq:queue:transaction.incoming.one", 100L);
+
+        assertNotNull(consumer.receive("activemq:queue:transaction.outgoing.one", 5000));
+        assertBalances(900, 1100);
+        assertEquals(0, countLogRecords());
+    }
+
+    @Test
+    public void inDoubtTransferShouldBeCommittedWhenLastResourceCommitted() throws Exception {
+        Xid xid = createXid();
+
+        XAConnection connection = createXAConnection();
+        prepareOutgoingMessage(connection, xid);
+
+        Connection jdbcConnection = transfer(100);
+        try {
+            LastResourceXAResource lastResource = new LastResourceXAResource(jdbcConnection);
+            lastResource.start(xid, XAResource.TMNOFLAGS);
+            lastResource.end(xid, XAResource.TMSUCCESS);
+            assertEquals(XAResource.XA_OK, lastResource.prepare(xid));
+        } finally {
+            // the local transaction is committed, the connection would only be released in the second phase
+            jdbcConnection.close();
+        }
+
+        // the process dies between the phases: the JMS branch stays prepared in the broker
+        connection.close();
+
+        XAConnection recoveryConnection = createXAConnection();
+        try {
+            List<Xid> unresolved = new LastResourceRecovery(lookupDataSource())
+                .recover(recoveryConnection.createXASession().getXAResource());
+            assertTrue(unresolved.isEmpty());
+        } finally {
+            recoveryConnection.close();
+        }
+        assertEquals(0, countLogRecords());
+
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.recovery", 5000);
+        assertNotNull(exchange);
+
+        assertBalances(900, 1100);
+    }
+
+    @Test
+    public void inDoubtTransferShouldNotBeCommittedWhenLastResourceNotCommitted() throws Exception {
+        Xid xid = createXid();
+
+        XAConnection connection = createXAConnection();
+        prepareOutgoingMessage(connection, xid);
+
+        // the process dies before the last resource commits, which discards its local transaction
+        Connection jdbcConnection = transfer(100);
+        jdbcConnection.rollback();
+        jdbcConnection.close();
+        connection.close();
+
+        XAConnection recoveryConnection = createXAConnection();
+        try {
+            XAResource xaResource = recoveryConnection.createXASession().getXAResource();
+            List<Xid> unresolved = new LastResourceRecovery(lookupDataSource()).recover(xaResource);
+            assertEquals(1, unresolved.size());
+
+            // presumed abort, as done by the transaction manager recovery
+            xaResource.rollback(unresolved.get(0));
+        } finally {
+            recoveryConnection.close();
+        }
+
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.recovery", 1000);
+        assertNull(exchange);
+
+        assertBalances(1000, 1000);
+    }
+
+    @Test
+    public void transferShouldBeCommittedByRecoveryAfterCrashBetweenLastResourceAndJmsCommit() throws Exception {
+        transactionLog.crashOnNextPrepare();
+
+        template.sendBody("activemq:queue:transaction.incoming.one", 100L);
+
+        // the last resource committed, the transaction manager dies before it logs its decision and commits JMS
+        assertTrue(transactionLog.awaitCrash(10, TimeUnit.SECONDS));
+        assertBalances(900, 1100);
+        assertNull(consumer.receive("activemq:queue:transaction.outgoing.one", 1000));
+
+        // restart on the same transaction log, the dead process released its files
+        transactionLog.stopDelegate();
+        ClassPathXmlApplicationContext restarted = new ClassPathXmlApplicationContext(CONTEXT);
+        try {
+            // the transaction manager knows nothing of the transfer, it was committed by the LastResourceRecovery
+            Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.one", 5000);
+            assertNotNull(exchange);
+            assertEquals(100L, exchange.getIn().getBody(Long.class).longValue());
+            assertBalances(900, 1100);
+        } finally {
+            restarted.close();
+            // the thread of the dead process fails, its branches are resolved already
+            transactionLog.release();
+        }
+    }
+
+    private XAConnection createXAConnection() throws Exception {
+        XAConnection connection = new ActiveMQXAConnectionFactory("tcp://localhost:61616").createXAConnection();
+        connection.start();
+        return connection;
+    }
+
+    private void prepareOutgoingMessage(XAConnection connection, Xid xid) throws Exception {
+        XASession session = connection.createXASession();
+        XAResource xaResource = session.getXAResource();
+
+        xaResource.start(xid, XAResource.TMNOFLAGS);
+        MessageProducer producer = session.createProducer(session.createQueue("transaction.outgoing.recovery"));
+        producer.send(session.createObjectMessage(Long.valueOf(100)));
+        xaResource.end(xid, XAResource.TMSUCCESS);
+
+        assertEquals(XAResource.XA_OK, xaResource.prepare(xid));
+    }
+
+    private Connection transfer(long amount) throws Exception {
+        Connection connection = lookupDataSource().getConnection();
+        connection.setAutoCommit(false);
+
+        PreparedStatement statement = connection.prepareStatement("UPDATE account SET balance = balance - ? WHERE name = 'foo'");
+        statement.setLong(1, amount);
+        statement.executeUpdate();
+        statement.close();
+
+        statement = connection.prepareStatement("UPDATE account SET balance = balance + ? WHERE name = 'bar'");
+        statement.setLong(1, amount);
+        statement.executeUpdate();
+        statement.close();
+
+        return connection;
+    }
+
+    private void assertBalances(long foo, long bar) {
+        JdbcTemplate jdbc = DatabaseUtil.createJdbcTemplate(context);
+        TransactionTemplate transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "jtaTransactionManager");
+
+        assertEquals(foo, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(bar, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    private long countLogRecords() {
+        return new JdbcTemplate(lookupDataSource()).queryForObject("SELECT COUNT(*) FROM " + LastResourceXAResource.LOG_TABLE, Long.class);
+    }
+
+    private DataSource lookupDataSource() {
+        return context.getRegistry().lookupByNameAndType("dataSource", DataSource.class);
+    }
+
+    private static Xid createXid() {
+        final byte[] globalTransactionId = Long.toString(System.nanoTime()).getBytes();
+        return new Xid() {
+            public int getFormatId() {
+                return 4711;
+            }
+
+            public byte[] getGlobalTransactionId() {
+                return globalTransactionId;
+            }
+
+            public byte[] getBranchQualifier() {
+                return new byte[] {1};
+            }
+        };
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        ClassPathXmlApplicationContext applicationContext = new ClassPathXmlApplicationContext(new String[] {CONTEXT}, false);
+        applicationContext.addBeanFactoryPostProcessor(new BeanFactoryPostProcessor() {
+            public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+                beanFactory.addBeanPostProcessor(new BeanPostProcessor() {
+                    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                        return bean;
+                    }
+
+                    public Object postProcessAfterInitialization(Object bean, String beanName) {
+                        if ("howlLog".equals(beanName)) {
+                            transactionLog = new CrashingTransactionLog((HOWLLog) bean);
+                            return transactionLog;
+                        }
+                        return bean;
+                    }
+                });
+            }
+        });
+        applicationContext.refresh();
+        return applicationContext;
+    }
+
+    /**
+     * Simulates a crash of the transaction manager: the thread which writes the commit decision stops for good, until
+     * the test releases it.
+     */
+    private static final class CrashingTransactionLog implements TransactionLog {
+
+        private final HOWLLog delegate;
+        private volatile boolean crashOnNextPrepare;
+        private final CountDownLatch crashed = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        CrashingTransactionLog(HOWLLog delegate) {
+            this.delegate = delegate;
+        }
+
+        void crashOnNextPrepare() {
+            crashOnNextPrepare = true;
+        }
+
+        boolean awaitCrash(long timeout, TimeUnit unit) throws InterruptedException {
+            return crashed.await(timeout, unit);
+        }
+
+        void stopDelegate() throws Exception {
+            delegate.doStop();
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        public void begin(Xid xid) throws LogException {
+            delegate.begin(xid);
+        }
+
+        public Object prepare(Xid xid, List<? extends TransactionBranchInfo> branches) throws LogException {
+            if (crashOnNextPrepare) {
+                crashOnNextPrepare = false;
+                crashed.countDown();
+                boolean interrupted = false;
+                while (released.getCount() > 0) {
+                    try {
+                        released.await();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new LogException("Simulated crash");
+            }
+            return delegate.prepare(xid, branches);
+        }
+
+        public void commit(Xid xid, Object logMark) throws LogException {
+            delegate.commit(xid, logMark);
+        }
+
+        public void rollback(Xid xid, Object logMark) throws LogException {
+            delegate.rollback(xid, logMark);
+        }
+
+        public Collection<Recovery.XidBranchesPair> recover(XidFactory xidFactory) throws LogException {
+            return delegate.recover(xidFactory);
+        }
+
+        public String getXMLStats() {
+            return delegate.getXMLStats();
+        }
+
+        public int getAverageForceTime() {
+            return delegate.getAverageForceTime();
+        }
+
+        public int getAverageBytesPerForce() {
+            return delegate.getAverageBytesPerForce();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.apache.cmueller.camel.samples.camelone.xa;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.Scanner;
+
+import javax.management.ObjectName;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Route;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.cmueller.camel.samples.camelone.metrics.PhaseHistogram;
+import org.apache.cmueller.camel.samples.camelone.metrics.TransactionMetrics;
+import org.apache.cmueller.camel.samples.camelone.metrics.TransactionMetricsInterceptStrategy;
+import org.apache.cmueller.camel.samples.camelone.metrics.TransactionMetricsRoutePolicyFactory;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+public class JmsAndJdbcXATransactionSampleWithMetricsTest extends BaseJmsAndJdbcXATransactionSampleTest {
+
+    @Test
+    public void transactionPhasesShouldBeRecorded() throws Exception {
+        template.sendBody("activemq:queue:transaction.incoming.one", new Long(100));
+
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.one", 5000);
+        assertNotNull(exchange);
+
+        String routeId = null;
+        for (Route route : context.getRoutes()) {
+            if (route.getEndpoint().getEndpointUri().contains("transaction.incoming.one")) {
+                routeId = route.getId();
+            }
+        }
+
+        TransactionMetrics metrics = context.getRegistry().lookupByNameAndType("transactionMetrics", TransactionMetrics.class);
+        PhaseHistogram commit = metrics.histogram("transactionManager", "jtaTransactionManager", "commit");
+        // the listener container records the commit right after the outgoing message became visible
+        for (int i = 0; i < 50 && commit.getCount() == 0; i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(commit.getCount() > 0);
+        // the two-phase commit of the JMS and the JDBC branch, recorded per resource
+        assertTrue(metrics.histogram("xaResource", "jmsXaConnectionFactory", "prepare").getCount() > 0);
+        assertTrue(metrics.histogram("xaResource", "xaDataSource", "prepare").getCount() > 0);
+        assertTrue(metrics.histogram("xaResource", "xaDataSource", "commit").getCount() > 0);
+        assertEquals(2, metrics.histogram("route", routeId, "sql").getCount());
+        assertEquals(1, metrics.histogram("route", routeId, "activemqXa").getCount());
+
+        ObjectName name = new ObjectName(TransactionMetrics.JMX_DOMAIN + ":type=TransactionMetrics,scope=\"transactionManager\","
+            + "name=\"jtaTransactionManager\",phase=\"commit\"");
+        assertTrue((Long) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Count") > 0);
+
+        InputStream in = new URL("http://localhost:" + metrics.getPort() + "/metrics").openStream();
+        try {
+            String text = new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+            assertTrue(text.contains("transaction_phase_seconds_count{scope=\"transactionManager\",name=\"jtaTransactionManager\",phase=\"commit\"}"));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        context.addInterceptStrategy(context.getRegistry().lookupByNameAndType("transactionMetricsInterceptStrategy", TransactionMetricsInterceptStrategy.class));
+        context.addRoutePolicyFactory(context.getRegistry().lookupByNameAndType("transactionMetricsRoutePolicyFactory", TransactionMetricsRoutePolicyFactory.class));
+
+        return super.createRouteBuilder();
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcXATransactionSampleWithMetricsTest-context.xml");
+    }
+}
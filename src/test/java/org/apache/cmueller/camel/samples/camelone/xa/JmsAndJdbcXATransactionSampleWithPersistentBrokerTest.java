@@ -0,0 +1,42 @@
+package org.apache.cmueller.camel.samples.camelone.xa;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.cmueller.camel.samples.camelone.ActiveMQUtil;
+import org.apache.cmueller.camel.samples.camelone.EmbeddedBrokerFactory;
+import org.junit.After;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * The Geronimo sample against a persistent KahaDB broker, connected through the {@code vm://} transport.
+ */
+public class JmsAndJdbcXATransactionSampleWithPersistentBrokerTest extends BaseJmsAndJdbcXATransactionSampleTest {
+
+    @Override
+    protected BrokerService createAndStartBroker() throws Exception {
+        EmbeddedBrokerFactory factory = new EmbeddedBrokerFactory();
+        factory.setStore(EmbeddedBrokerFactory.Store.KAHADB);
+        factory.setAsyncJournal(true);
+        factory.setTransport(EmbeddedBrokerFactory.Transport.VM);
+        factory.setMemoryLimit(64 * 1024 * 1024);
+        factory.setStoreLimit(1024 * 1024 * 1024);
+
+        System.setProperty(ActiveMQUtil.BROKER_URL_PROPERTY, factory.getBrokerURL());
+        return factory.createAndStartBroker();
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        try {
+            super.tearDown();
+        } finally {
+            System.clearProperty(ActiveMQUtil.BROKER_URL_PROPERTY);
+        }
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcXATransactionSampleWithGeronimoTest-context.xml");
+    }
+}
@@ -0,0 +1,38 @@
+package org.apache.cmueller.camel.samples.camelone.xa;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.apache.cmueller.camel.samples.camelone.pool.AdaptivePoolSizer;
+import org.apache.cmueller.camel.samples.camelone.pool.InstrumentedDataSource;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+public class JmsAndJdbcXATransactionSampleWithPoolTuningTest extends BaseJmsAndJdbcXATransactionSampleTest {
+
+    @Test
+    public void dataSourcePoolShouldGrowToTheConcurrency() throws Exception {
+        InstrumentedDataSource dataSource = context.getRegistry().lookupByNameAndType("dataSource", InstrumentedDataSource.class);
+        AdaptivePoolSizer sizer = context.getRegistry().lookupByNameAndType("dataSourceSizer", AdaptivePoolSizer.class);
+
+        // four concurrent consumers on a pool of one connection
+        runTransferLoad();
+
+        System.out.println("dataSource: size " + sizer.getSize() + ", " + sizer.getGrowCount() + " grown, " + sizer.getShrinkCount()
+            + " shrunk, " + dataSource.getStatistics().getCheckoutCount() + " checkouts, wait p99 " + dataSource.getStatistics().getWaitP99Micros() + "us");
+
+        assertTrue(dataSource.getStatistics().getCheckoutCount() > 0);
+        assertTrue(sizer.getGrowCount() > 0);
+        assertTrue(sizer.getSize() > 1);
+
+        ObjectName name = new ObjectName("org.apache.cmueller.camel.samples.camelone:type=PoolStatistics,name=dataSource");
+        assertEquals(dataSource.getStatistics().getCheckoutCount(), ManagementFactory.getPlatformMBeanServer().getAttribute(name, "CheckoutCount"));
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcXATransactionSampleWithPoolTuningTest-context.xml");
+    }
+}
@@ -0,0 +1,69 @@
+package org.apache.cmueller.camel.samples.camelone.xa;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.apache.camel.Exchange;
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.apache.cmueller.camel.samples.camelone.sql.CachingSqlComponent;
+import org.apache.cmueller.camel.samples.camelone.sql.ConnectionAffinityDataSource;
+import org.junit.Test;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class JmsAndJdbcXATransactionSampleWithStatementCacheTest extends BaseJmsAndJdbcXATransactionSampleTest {
+
+    @Test
+    public void sqlCallsShouldShareOneConnectionPerTransaction() throws Exception {
+        ConnectionAffinityDataSource dataSource = context.getRegistry().lookupByNameAndType("dataSource", ConnectionAffinityDataSource.class);
+        CachingSqlComponent sql = context.getRegistry().lookupByNameAndType("sql", CachingSqlComponent.class);
+        long boundConnections = dataSource.getBoundConnectionCount();
+        long requests = dataSource.getConnectionRequestCount();
+
+        template.sendBody("activemq:queue:transaction.incoming.one", new Long(100));
+        assertNotNull(consumer.receive("activemq:queue:transaction.outgoing.one", 5000));
+        template.sendBody("activemq:queue:transaction.incoming.one", new Long(100));
+        Exchange exchange = consumer.receive("activemq:queue:transaction.outgoing.one", 5000);
+        assertNotNull(exchange);
+
+        // two transactions with two sql: calls each
+        assertEquals(2, dataSource.getBoundConnectionCount() - boundConnections);
+        assertTrue(dataSource.getConnectionRequestCount() - requests >= 4);
+        assertEquals(2, sql.getPrepareStatementStrategy().getHitCount());
+
+        ObjectName name = new ObjectName("org.apache.cmueller.camel.samples.camelone:type=ConnectionAffinityDataSource,name=dataSource");
+        assertEquals(dataSource.getBoundConnectionCount(), ManagementFactory.getPlatformMBeanServer().getAttribute(name, "BoundConnectionCount"));
+    }
+
+    @Test
+    public void statementShouldBeReusedWithinTransaction() {
+        ConnectionAffinityDataSource dataSource = context.getRegistry().lookupByNameAndType("dataSource", ConnectionAffinityDataSource.class);
+        final JdbcTemplate jdbc = DatabaseUtil.createJdbcTemplate(context);
+        long hits = dataSource.getStatementCacheHitCount();
+
+        TransactionTemplate transactionTemplate = DatabaseUtil.createTransactionTemplate(context, "jtaTransactionManager");
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                for (int i = 0; i < 10; i++) {
+                    jdbc.update("UPDATE account SET balance = balance - ? WHERE name = 'foo'", 1L);
+                    jdbc.update("UPDATE account SET balance = balance + ? WHERE name = 'bar'", 1L);
+                }
+            }
+        });
+
+        assertEquals(18, dataSource.getStatementCacheHitCount() - hits);
+        assertEquals(990, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'foo'"));
+        assertEquals(1010, DatabaseUtil.queryForLong(transactionTemplate, jdbc, "SELECT balance from account where name = 'bar'"));
+    }
+
+    @Override
+    protected AbstractApplicationContext createApplicationContext() {
+        return new ClassPathXmlApplicationContext("META-INF/spring/JmsAndJdbcXATransactionSampleWithStatementCacheTest-context.xml");
+    }
+}
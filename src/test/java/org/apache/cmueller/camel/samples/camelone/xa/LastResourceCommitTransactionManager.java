@@ -0,0 +1,220 @@
+package org.apache.cmueller.camel.samples.camelone.xa;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+
+import org.apache.cmueller.camel.samples.camelone.DatabaseUtil;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.datasource.ConnectionHolder;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.jta.JtaTransactionManager;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.SmartTransactionObject;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Transaction manager which uses two phase commit only for the JMS side and enlists the (non-XA) {@code dataSource}
+ * as the last resource of the JTA transaction.
+ * <p>
+ * The JDBC work runs in a local transaction bound to the thread, like with the {@code DataSourceTransactionManager}.
+ * On commit a {@link LastResourceXAResource} is enlisted into the JTA transaction, which commits the local
+ * transaction after the JMS branches are prepared. This saves the XA prepare of the database and its log force.
+ * <p>
+ * Works with every transaction manager which accepts foreign {@code XAResource}s (Atomikos, Geronimo/Aries, JOTM).
+ * Bitronix only enlists registered resources, use its {@code LrcXADataSource} there.
+ */
+public class LastResourceCommitTransactionManager extends AbstractPlatformTransactionManager implements InitializingBean {
+
+    private static final long serialVersionUID = 1L;
+
+    private JtaTransactionManager jtaTransactionManager;
+    private DataSource dataSource;
+
+    public LastResourceCommitTransactionManager() {
+        // transaction synchronization is managed by the JtaTransactionManager
+        setTransactionSynchronization(SYNCHRONIZATION_NEVER);
+    }
+
+    public JtaTransactionManager getJtaTransactionManager() {
+        return jtaTransactionManager;
+    }
+
+    public void setJtaTransactionManager(JtaTransactionManager jtaTransactionManager) {
+        this.jtaTransactionManager = jtaTransactionManager;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (jtaTransactionManager == null) {
+            throw new IllegalArgumentException("Property 'jtaTransactionManager' is required");
+        }
+        if (dataSource == null) {
+            throw new IllegalArgumentException("Property 'dataSource' is required");
+        }
+
+        DatabaseUtil.createTableIfNecessary(dataSource, LastResourceXAResource.LOG_TABLE, LastResourceXAResource.CREATE_LOG_TABLE);
+    }
+
+    @Override
+    protected Object doGetTransaction() {
+        LastResourceTransactionObject txObject = new LastResourceTransactionObject();
+        // bound under this transaction manager as key, the connection holder is bound under the data source
+        LastResourceTransactionObject active = (LastResourceTransactionObject) TransactionSynchronizationManager.getResource(this);
+        if (active != null) {
+            txObject.connectionHolder = active.connectionHolder;
+            txObject.jtaStatus = active.jtaStatus;
+            txObject.active = true;
+        }
+        return txObject;
+    }
+
+    @Override
+    protected boolean isExistingTransaction(Object transaction) {
+        return ((LastResourceTransactionObject) transaction).active;
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        LastResourceTransactionObject txObject = (LastResourceTransactionObject) transaction;
+        txObject.jtaStatus = jtaTransactionManager.getTransaction(definition);
+
+        try {
+            Connection connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+            txObject.connectionHolder = new ConnectionHolder(connection);
+            txObject.active = true;
+        } catch (SQLException e) {
+            jtaTransactionManager.rollback(txObject.jtaStatus);
+            throw new CannotCreateTransactionException("Could not open JDBC Connection for the last resource", e);
+        }
+
+        TransactionSynchronizationManager.bindResource(dataSource, txObject.connectionHolder);
+        TransactionSynchronizationManager.bindResource(this, txObject);
+    }
+
+    @Override
+    protected void doCommit(DefaultTransactionStatus status) {
+        LastResourceTransactionObject txObject = (LastResourceTransactionObject) status.getTransaction();
+
+        final LastResourceXAResource lastResource = new LastResourceXAResource(txObject.connectionHolder.getConnection());
+        try {
+            Transaction transaction = jtaTransactionManager.getTransactionManager().getTransaction();
+            transaction.enlistResource(lastResource);
+            txObject.enlisted = true;
+
+            // the JTA transaction may have been started outside, e.g. by the message listener container, and only
+            // completes after this method: all branches are committed then, the recovery does not need the log record
+            transaction.registerSynchronization(new Synchronization() {
+                public void beforeCompletion() {
+                }
+
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED && lastResource.getGlobalId() != null) {
+                        deleteLogRecord(lastResource.getGlobalId());
+                    }
+                }
+            });
+        } catch (Exception e) {
+            throw new TransactionSystemException("Could not enlist the last resource", e);
+        }
+
+        jtaTransactionManager.commit(txObject.jtaStatus);
+    }
+
+    @Override
+    protected void doRollback(DefaultTransactionStatus status) {
+        LastResourceTransactionObject txObject = (LastResourceTransactionObject) status.getTransaction();
+
+        try {
+            if (!txObject.enlisted) {
+                txObject.connectionHolder.getConnection().rollback();
+            }
+        } catch (SQLException e) {
+            throw new TransactionSystemException("Could not roll back the last resource", e);
+        } finally {
+            jtaTransactionManager.rollback(txObject.jtaStatus);
+        }
+    }
+
+    @Override
+    protected void doSetRollbackOnly(DefaultTransactionStatus status) {
+        LastResourceTransactionObject txObject = (LastResourceTransactionObject) status.getTransaction();
+        txObject.connectionHolder.setRollbackOnly();
+    }
+
+    @Override
+    protected void doCleanupAfterCompletion(Object transaction) {
+        LastResourceTransactionObject txObject = (LastResourceTransactionObject) transaction;
+        TransactionSynchronizationManager.unbindResource(dataSource);
+        TransactionSynchronizationManager.unbindResource(this);
+        txObject.active = false;
+
+        // once enlisted, the LastResourceXAResource releases the connection after the second phase
+        if (!txObject.enlisted) {
+            try {
+                txObject.connectionHolder.getConnection().close();
+            } catch (SQLException e) {
+                logger.debug("Could not close JDBC Connection of the last resource", e);
+            }
+        }
+        txObject.connectionHolder.clear();
+    }
+
+    private void deleteLogRecord(String globalId) {
+        try {
+            Connection connection = dataSource.getConnection();
+            try {
+                PreparedStatement statement = connection.prepareStatement(LastResourceXAResource.DELETE_LOG);
+                try {
+                    statement.setString(1, globalId);
+                    statement.executeUpdate();
+                } finally {
+                    statement.close();
+                }
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+            } finally {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            // the transaction is committed, the LastResourceRecovery deletes the record of a committed branch later
+            logger.warn("Could not delete the log record " + globalId + " of the last resource", e);
+        }
+    }
+
+    private static class LastResourceTransactionObject implements SmartTransactionObject {
+
+        private ConnectionHolder connectionHolder;
+        private TransactionStatus jtaStatus;
+        private boolean enlisted;
+        private boolean active;
+
+        @Override
+        public boolean isRollbackOnly() {
+            return connectionHolder.isRollbackOnly() || (jtaStatus != null && jtaStatus.isRollbackOnly());
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.apache.cmueller.camel.samples.camelone.xa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.XAConnection;
+import javax.jms.XAConnectionFactory;
+import javax.sql.DataSource;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Resolves the in-doubt XA branches left behind by a crash of a {@link LastResourceCommitTransactionManager}
+ * transaction.
+ * <p>
+ * A branch is committed if the local transaction of the last resource committed, which is the case if its global
+ * transaction id is found in the {@value LastResourceXAResource#LOG_TABLE} table. It must run before the transaction
+ * manager recovery: a crash between the commit of the last resource and the commit record of the transaction manager
+ * leaves no trace in its log, so its recovery rolls back the remaining branches (presumed abort). In a context, use
+ * {@link #recover()} as init-method of a bean the {@code ActiveMQResourceManager} depends on, with the
+ * {@code connectionFactory} of the broker. The log records of the committed branches are deleted.
+ */
+public class LastResourceRecovery {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LastResourceRecovery.class);
+
+    private final JdbcTemplate jdbc;
+    private XAConnectionFactory connectionFactory;
+
+    public LastResourceRecovery(DataSource dataSource) {
+        this.jdbc = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * Resolves the in-doubt branches of the broker of the {@code connectionFactory}.
+     */
+    public void recover() throws JMSException, XAException {
+        if (connectionFactory == null) {
+            throw new IllegalArgumentException("Property 'connectionFactory' is required");
+        }
+
+        XAConnection connection = connectionFactory.createXAConnection();
+        try {
+            List<Xid> unresolved = recover(connection.createXASession().getXAResource());
+            if (!unresolved.isEmpty()) {
+                LOG.info("{} in-doubt branches left to the transaction manager recovery", unresolved.size());
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * @return the in-doubt branches which were not committed by the last resource
+     */
+    public List<Xid> recover(XAResource xaResource) throws XAException {
+        List<Xid> unresolved = new ArrayList<Xid>();
+
+        Xid[] xids = xaResource.recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN);
+        if (xids == null) {
+            return unresolved;
+        }
+
+        for (Xid xid : xids) {
+            if (isCommitted(xid)) {
+                String globalId = LastResourceXAResource.toGlobalId(xid);
+                LOG.info("Committing in-doubt branch {}, its last resource committed", globalId);
+                xaResource.commit(xid, false);
+                jdbc.update(LastResourceXAResource.DELETE_LOG, globalId);
+            } else {
+                unresolved.add(xid);
+            }
+        }
+        return unresolved;
+    }
+
+    private boolean isCommitted(Xid xid) {
+        return jdbc.queryForObject(LastResourceXAResource.SELECT_LOG, Integer.class, LastResourceXAResource.toGlobalId(xid)) > 0;
+    }
+
+    public XAConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    public void setConnectionFactory(XAConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+}
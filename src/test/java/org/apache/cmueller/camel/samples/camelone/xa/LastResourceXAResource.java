@@ -0,0 +1,152 @@
+package org.apache.cmueller.camel.samples.camelone.xa;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+/**
+ * Enlists a local (non-XA) JDBC connection as the last resource of a JTA transaction.
+ * <p>
+ * The connection is committed in {@link #prepare(Xid)}, together with a record of the global transaction id in the
+ * {@value #LOG_TABLE} table. The transaction managers prepare their resources in enlistment order, so every XA
+ * resource is already prepared at this point and the local commit becomes the commit decision. After a crash,
+ * {@link LastResourceRecovery} uses the log record to resolve the in-doubt XA branches. Once all branches are
+ * committed, the record is not needed anymore and is deleted by the {@link LastResourceCommitTransactionManager}, or by
+ * the recovery.
+ */
+public class LastResourceXAResource implements XAResource {
+
+    public static final String LOG_TABLE = "lrc_log";
+
+    static final String CREATE_LOG_TABLE = "CREATE TABLE " + LOG_TABLE + " (gtrid VARCHAR(300) NOT NULL PRIMARY KEY)";
+    static final String INSERT_LOG = "INSERT INTO " + LOG_TABLE + " (gtrid) VALUES (?)";
+    static final String SELECT_LOG = "SELECT COUNT(*) FROM " + LOG_TABLE + " WHERE gtrid = ?";
+    static final String DELETE_LOG = "DELETE FROM " + LOG_TABLE + " WHERE gtrid = ?";
+
+    private final Connection connection;
+    private boolean committed;
+    private String globalId;
+
+    public LastResourceXAResource(Connection connection) {
+        this.connection = connection;
+    }
+
+    public void start(Xid xid, int flags) throws XAException {
+        // the local transaction is already running on the connection
+    }
+
+    public void end(Xid xid, int flags) throws XAException {
+    }
+
+    public int prepare(Xid xid) throws XAException {
+        try {
+            String globalId = toGlobalId(xid);
+            PreparedStatement statement = connection.prepareStatement(INSERT_LOG);
+            try {
+                statement.setString(1, globalId);
+                statement.executeUpdate();
+            } finally {
+                statement.close();
+            }
+            connection.commit();
+            committed = true;
+            this.globalId = globalId;
+            return XA_OK;
+        } catch (SQLException e) {
+            rollbackAndClose();
+            throw createXAException(XAException.XA_RBROLLBACK, e);
+        }
+    }
+
+    public void commit(Xid xid, boolean onePhase) throws XAException {
+        try {
+            if (onePhase) {
+                // the only resource in the transaction, there is nothing to recover
+                connection.commit();
+                committed = true;
+            } else if (!committed) {
+                throw new XAException(XAException.XAER_PROTO);
+            }
+        } catch (SQLException e) {
+            rollbackAndClose();
+            throw createXAException(XAException.XA_RBROLLBACK, e);
+        }
+        close();
+    }
+
+    public void rollback(Xid xid) throws XAException {
+        if (committed) {
+            close();
+            throw new XAException(XAException.XA_HEURCOM);
+        }
+        rollbackAndClose();
+    }
+
+    public void forget(Xid xid) throws XAException {
+    }
+
+    public Xid[] recover(int flag) throws XAException {
+        // in-doubt branches of the other resources are resolved by LastResourceRecovery
+        return new Xid[0];
+    }
+
+    public boolean isSameRM(XAResource xaResource) throws XAException {
+        return xaResource == this;
+    }
+
+    public int getTransactionTimeout() throws XAException {
+        return 0;
+    }
+
+    public boolean setTransactionTimeout(int seconds) throws XAException {
+        return false;
+    }
+
+    boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * @return the id of the log record written in {@link #prepare(Xid)}, {@code null} after a one phase commit
+     */
+    String getGlobalId() {
+        return globalId;
+    }
+
+    static String toGlobalId(Xid xid) {
+        byte[] gtrid = xid.getGlobalTransactionId();
+        StringBuilder globalId = new StringBuilder(12 + gtrid.length * 2);
+        globalId.append(xid.getFormatId()).append(':');
+        for (byte b : gtrid) {
+            globalId.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return globalId.toString();
+    }
+
+    private void rollbackAndClose() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            // the connection is closed next, which discards the local transaction anyway
+        }
+        close();
+    }
+
+    private void close() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // nothing left to release
+        }
+    }
+
+    private static XAException createXAException(int errorCode, Throwable cause) {
+        XAException exception = new XAException(errorCode);
+        exception.initCause(cause);
+        return exception;
+    }
+}